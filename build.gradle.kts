@@ -2,6 +2,7 @@ plugins {
 	java
 	id("org.springframework.boot") version "3.5.4"
 	id("io.spring.dependency-management") version "1.1.7"
+	id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.flexflow"
@@ -25,10 +26,14 @@ dependencies {
 	// Core Spring Boot
 	implementation("org.springframework.boot:spring-boot-starter-web")
 	implementation("org.springframework.boot:spring-boot-starter-data-jpa")
+	implementation("org.springframework.boot:spring-boot-starter-actuator")
 
 	// Spring State Machine
 	implementation("org.springframework.statemachine:spring-statemachine-starter:3.2.1")
 
+	// In-memory entity state cache
+	implementation("com.github.ben-manes.caffeine:caffeine")
+
 	// Database (H2 for POC, can be swapped for PostgreSQL, etc.)
 	runtimeOnly("com.h2database:h2")
 
@@ -41,3 +46,39 @@ dependencies {
 tasks.withType<Test> {
 	useJUnitPlatform()
 }
+
+tasks.named<Test>("test") {
+	useJUnitPlatform {
+		excludeTags("load")
+	}
+}
+
+// Load tests are slow and only run on demand: ./gradlew loadTest
+val loadTest by tasks.registering(Test::class) {
+	description = "Runs the load tests."
+	group = "verification"
+	testClassesDirs = sourceSets.test.get().output.classesDirs
+	classpath = sourceSets.test.get().runtimeClasspath
+	useJUnitPlatform {
+		includeTags("load")
+	}
+	maxHeapSize = "1g"
+	testLogging {
+		showStandardStreams = true
+	}
+}
+
+// Microbenchmarks for the trigger hot path live in src/jmh/java: ./gradlew jmh
+// Results are written to build/results/jmh; -prof gc reports the allocation rate of every benchmark.
+jmh {
+	jmhVersion = "1.37"
+	profilers = listOf("gc")
+	fork = 1
+	warmupIterations = 3
+	iterations = 5
+	resultFormat = "JSON"
+	// Narrow a run down with e.g. ./gradlew jmh -PjmhIncludes=TriggerEventBenchmark
+	if (project.hasProperty("jmhIncludes")) {
+		includes = listOf(project.property("jmhIncludes") as String)
+	}
+}
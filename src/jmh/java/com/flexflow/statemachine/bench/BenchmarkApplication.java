@@ -0,0 +1,45 @@
+package com.flexflow.statemachine.bench;
+
+import com.flexflow.statemachine.StatemachineApplication;
+import com.flexflow.statemachine.model.db.StateMachineDefinition;
+import com.flexflow.statemachine.repository.StateMachineDefinitionRepository;
+import com.flexflow.statemachine.service.codec.BinaryDefinitionCodec;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Starts the application without a web server, against a fresh in-memory H2 database, for benchmarks.
+ */
+public final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    public static ConfigurableApplicationContext start(String... properties) {
+        return new SpringApplicationBuilder(StatemachineApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("logging.level.com.flexflow.statemachine=WARN",
+                        "logging.level.org.springframework.statemachine=WARN")
+                .properties(properties)
+                .run();
+    }
+
+    /**
+     * Stores a synthetic ring definition with the given number of transitions, if not present yet.
+     *
+     * @return The machineId of the stored definition.
+     */
+    public static String storeRingDefinition(ConfigurableApplicationContext context, int transitions) {
+        StateMachineDefinitionRepository repository = context.getBean(StateMachineDefinitionRepository.class);
+        String machineId = SyntheticDefinitions.machineId(transitions);
+        if (repository.findByMachineId(machineId).isEmpty()) {
+            StateMachineDefinition definition = new StateMachineDefinition();
+            definition.setMachineId(machineId);
+            definition.setDefinitionJson(SyntheticDefinitions.ringJson(transitions));
+            context.getBean(BinaryDefinitionCodec.class).attach(definition, SyntheticDefinitions.ring(transitions));
+            repository.save(definition);
+        }
+        return machineId;
+    }
+}
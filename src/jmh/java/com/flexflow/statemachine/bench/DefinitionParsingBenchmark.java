@@ -0,0 +1,50 @@
+package com.flexflow.statemachine.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import com.flexflow.statemachine.service.codec.BinaryDefinitionCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading a definition on a cache miss: parsing the JSON with Jackson, or decoding the binary
+ * encoding that StateMachineBuilderFactory uses when one is stored.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DefinitionParsingBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int transitions;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BinaryDefinitionCodec codec = new BinaryDefinitionCodec();
+    private String json;
+    private byte[] binary;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        json = SyntheticDefinitions.ringJson(transitions);
+        binary = codec.encode(SyntheticDefinitions.ring(transitions));
+    }
+
+    @Benchmark
+    public StateMachineDefinitionJson parseDefinition() throws Exception {
+        return objectMapper.readValue(json, StateMachineDefinitionJson.class);
+    }
+
+    @Benchmark
+    public StateMachineDefinitionJson decodeBinaryDefinition() {
+        return codec.decode(binary);
+    }
+}
@@ -0,0 +1,83 @@
+package com.flexflow.statemachine.bench;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.machine.guards.CompiledGuard;
+import com.flexflow.statemachine.machine.guards.ExpressionGuard;
+import com.flexflow.statemachine.machine.guards.HeaderValueGuard;
+import com.flexflow.statemachine.service.audit.TransitionAudit;
+import com.flexflow.statemachine.service.audit.TransitionAuditSink;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.state.ObjectState;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateContext;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-evaluation cost of a compiled expressionGuard against the bound headerValueGuard.
+ * No Spring context is needed; both guards are compiled directly against their params.
+ * Auditing is disabled, so headerValueGuard only checks whether DEBUG logging is enabled.
+ * Run with -prof gc (the default profiler of the jmh task) to check that evaluation does not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExpressionGuardBenchmark {
+
+    private StateContext<String, String> context;
+    private CompiledGuard headerValueGuard;
+    private CompiledGuard equalityExpression;
+    private CompiledGuard compoundExpression;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Message<String> message = MessageBuilder.withPayload(SyntheticDefinitions.EVENT)
+                .setHeader("entityId", "bench")
+                .copyHeaders(Map.of("approved", true, "amount", 1500, "region", "EU"))
+                .build();
+        context = new DefaultStateContext<>(StateContext.Stage.TRANSITION, message, message.getHeaders(),
+                new DefaultExtendedState(), null, null, new ObjectState<>("S0"), new ObjectState<>("S1"), null);
+
+        StateMachineProperties properties = new StateMachineProperties();
+        properties.getAudit().setEnabled(false);
+        TransitionAudit audit = new TransitionAudit(properties,
+                new StaticListableBeanFactory().getBeanProvider(TransitionAuditSink.class), new SimpleMeterRegistry());
+
+        headerValueGuard = new HeaderValueGuard(audit).compile(Map.of("headerName", "approved", "requiredValue", true));
+        ExpressionGuard expressionGuard = new ExpressionGuard();
+        equalityExpression = expressionGuard.compile(Map.of("expression", "headers.approved == true"));
+        compoundExpression = expressionGuard.compile(
+                Map.of("expression", "headers.amount > 1000 && headers.region == 'EU' && headers.approved"));
+    }
+
+    @Benchmark
+    public boolean headerValueGuard() {
+        return headerValueGuard.evaluate(context);
+    }
+
+    /**
+     * The same check as headerValueGuard, written as an expression.
+     */
+    @Benchmark
+    public boolean equalityExpression() {
+        return equalityExpression.evaluate(context);
+    }
+
+    @Benchmark
+    public boolean compoundExpression() {
+        return compoundExpression.evaluate(context);
+    }
+}
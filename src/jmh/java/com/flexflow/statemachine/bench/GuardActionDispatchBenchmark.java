@@ -0,0 +1,139 @@
+package com.flexflow.statemachine.bench;
+
+import com.flexflow.statemachine.machine.actions.CompiledAction;
+import com.flexflow.statemachine.machine.actions.DynamicAction;
+import com.flexflow.statemachine.machine.guards.CompiledGuard;
+import com.flexflow.statemachine.machine.guards.DynamicGuard;
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import com.flexflow.statemachine.model.json.TransitionJson;
+import com.flexflow.statemachine.service.registry.ActionRegistry;
+import com.flexflow.statemachine.service.registry.GuardRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.state.ObjectState;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateContext;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures guard and action dispatch through GuardRegistry and ActionRegistry the way the lambdas built by
+ * StateMachineBuilderFactory used to: a name lookup per call, then evaluate/execute with the transition's params.
+ * Each invocation dispatches the next transition of the definition, so larger machines touch more params.
+ * The bound variant is what the builder factory and the compiled engine now do: guards and actions compiled
+ * against their params once, per transition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GuardActionDispatchBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int transitions;
+
+    private ConfigurableApplicationContext context;
+    private GuardRegistry guardRegistry;
+    private ActionRegistry actionRegistry;
+    private DynamicGuard resolvedGuard;
+    private DynamicAction resolvedAction;
+    private List<TransitionJson> transitionList;
+    private CompiledGuard[] boundGuards;
+    private CompiledAction[] boundActions;
+    private StateContext<String, String>[] contexts;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        guardRegistry = context.getBean(GuardRegistry.class);
+        actionRegistry = context.getBean(ActionRegistry.class);
+        resolvedGuard = guardRegistry.getGuard("headerValueGuard").orElseThrow();
+        resolvedAction = actionRegistry.getAction("logAction").orElseThrow();
+
+        StateMachineDefinitionJson definition = SyntheticDefinitions.ring(transitions);
+        transitionList = definition.getTransitions();
+        boundGuards = new CompiledGuard[transitions];
+        boundActions = new CompiledAction[transitions];
+        contexts = new StateContext[transitions];
+        for (int i = 0; i < transitions; i++) {
+            TransitionJson transition = transitionList.get(i);
+            boundGuards[i] = guardRegistry.bind(transition.getGuard());
+            boundActions[i] = actionRegistry.bind(transition.getAction());
+            Message<String> message = MessageBuilder.withPayload(SyntheticDefinitions.EVENT)
+                    .setHeader("entityId", "bench")
+                    .copyHeaders(SyntheticDefinitions.HEADERS)
+                    .build();
+            contexts[i] = new DefaultStateContext<>(StateContext.Stage.TRANSITION, message, message.getHeaders(),
+                    new DefaultExtendedState(), null, null,
+                    new ObjectState<>(transition.getSource()), new ObjectState<>(transition.getTarget()), null);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void dispatchGuardAndAction(Blackhole blackhole) {
+        int index = next;
+        next = index + 1 == transitions ? 0 : index + 1;
+
+        TransitionJson transition = transitionList.get(index);
+        StateContext<String, String> stateContext = contexts[index];
+
+        boolean allowed = guardRegistry.getGuard(transition.getGuard().getName())
+                .map(guard -> guard.evaluate(stateContext,
+                        transition.getGuard().getParams() != null ? transition.getGuard().getParams() : Collections.emptyMap()))
+                .orElseThrow();
+        blackhole.consume(allowed);
+
+        actionRegistry.getAction(transition.getAction().getName())
+                .ifPresent(action -> action.execute(stateContext,
+                        transition.getAction().getParams() != null ? transition.getAction().getParams() : Collections.emptyMap()));
+    }
+
+    /**
+     * Baseline: the same guard and action calls with the beans resolved up front.
+     */
+    @Benchmark
+    public void invokeResolvedGuardAndAction(Blackhole blackhole) {
+        int index = next;
+        next = index + 1 == transitions ? 0 : index + 1;
+
+        TransitionJson transition = transitionList.get(index);
+        StateContext<String, String> stateContext = contexts[index];
+
+        blackhole.consume(resolvedGuard.evaluate(stateContext, transition.getGuard().getParams()));
+        resolvedAction.execute(stateContext, transition.getAction().getParams());
+    }
+
+    /**
+     * Guard and action bound to their params at definition load; no lookup, Optional or cast per call.
+     */
+    @Benchmark
+    public void invokeBoundGuardAndAction(Blackhole blackhole) {
+        int index = next;
+        next = index + 1 == transitions ? 0 : index + 1;
+
+        StateContext<String, String> stateContext = contexts[index];
+        blackhole.consume(boundGuards[index].evaluate(stateContext));
+        boundActions[index].execute(stateContext);
+    }
+}
@@ -0,0 +1,63 @@
+package com.flexflow.statemachine.bench;
+
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import com.flexflow.statemachine.service.core.PooledStateMachineFactory;
+import com.flexflow.statemachine.service.core.StateMachineBuilderFactory;
+import com.flexflow.statemachine.service.engine.CompiledStateMachine;
+import com.flexflow.statemachine.service.engine.StateMachineCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.statemachine.StateMachine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of building a Spring StateMachine per event, as the 'spring' engine does,
+ * against compiling the same definition into a transition table once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StateMachineBuildBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int transitions;
+
+    private ConfigurableApplicationContext context;
+    private PooledStateMachineFactory factory;
+    private StateMachineCompiler compiler;
+    private StateMachineDefinitionJson definition;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        String machineId = BenchmarkApplication.storeRingDefinition(context, transitions);
+        factory = context.getBean(StateMachineBuilderFactory.class).getFactory(machineId);
+        compiler = context.getBean(StateMachineCompiler.class);
+        definition = SyntheticDefinitions.ring(transitions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public StateMachine<String, String> buildSpringStateMachine() {
+        return factory.getStateMachine();
+    }
+
+    @Benchmark
+    public CompiledStateMachine compileTransitionTable() {
+        return compiler.compile(definition);
+    }
+}
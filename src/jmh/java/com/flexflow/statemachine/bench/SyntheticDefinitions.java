@@ -0,0 +1,74 @@
+package com.flexflow.statemachine.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flexflow.statemachine.model.json.ActionGuardJson;
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import com.flexflow.statemachine.model.json.TransitionJson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates synthetic state machine definitions of a given size for benchmarks.
+ * A ring definition has N states S0..S(N-1) and N transitions Si --NEXT--> S(i+1 mod N), each guarded by
+ * headerValueGuard (header 'approved' must be true) and running logAction, so an entity can cycle forever.
+ */
+public final class SyntheticDefinitions {
+
+    public static final String EVENT = "NEXT";
+    public static final Map<String, Object> HEADERS = Map.of("approved", true);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private SyntheticDefinitions() {
+    }
+
+    public static String machineId(int transitions) {
+        return "bench_ring_" + transitions;
+    }
+
+    public static String state(int index) {
+        return "S" + index;
+    }
+
+    public static StateMachineDefinitionJson ring(int transitions) {
+        List<String> states = new ArrayList<>(transitions);
+        List<TransitionJson> transitionList = new ArrayList<>(transitions);
+        for (int i = 0; i < transitions; i++) {
+            states.add(state(i));
+
+            ActionGuardJson guard = new ActionGuardJson();
+            guard.setName("headerValueGuard");
+            guard.setParams(Map.of("headerName", "approved", "requiredValue", true));
+
+            ActionGuardJson action = new ActionGuardJson();
+            action.setName("logAction");
+            action.setParams(Map.of("message", "Moved to " + state((i + 1) % transitions)));
+
+            TransitionJson transition = new TransitionJson();
+            transition.setSource(state(i));
+            transition.setTarget(state((i + 1) % transitions));
+            transition.setEvent(EVENT);
+            transition.setGuard(guard);
+            transition.setAction(action);
+            transitionList.add(transition);
+        }
+
+        StateMachineDefinitionJson definition = new StateMachineDefinitionJson();
+        definition.setMachineId(machineId(transitions));
+        definition.setInitialState(state(0));
+        definition.setStates(states);
+        definition.setEndStates(List.of());
+        definition.setTransitions(transitionList);
+        return definition;
+    }
+
+    public static String ringJson(int transitions) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(ring(transitions));
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to serialize synthetic definition", e);
+        }
+    }
+}
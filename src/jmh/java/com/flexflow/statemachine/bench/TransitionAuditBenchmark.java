@@ -0,0 +1,86 @@
+package com.flexflow.statemachine.bench;
+
+import com.flexflow.statemachine.controller.dto.CreateEntityRequest;
+import com.flexflow.statemachine.service.core.DynamicStateMachineService;
+import com.flexflow.statemachine.service.core.TransitionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trigger throughput with the transition audit trail off, written to the 'statemachine.audit' logger, and written
+ * to a rolling file. Every trigger emits a guard, an action and a transition record. Runs with 4 threads, each on
+ * its own entity, so that the cost of handing records to the audit buffer under contention shows up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class TransitionAuditBenchmark {
+
+    private static final int TRANSITIONS = 100;
+
+    @Param({"off", "log", "file"})
+    public String audit;
+
+    private ConfigurableApplicationContext context;
+    private DynamicStateMachineService service;
+    private Path auditDirectory;
+
+    @State(Scope.Thread)
+    public static class Entity {
+        private static int next;
+        private String businessId;
+
+        @Setup(Level.Trial)
+        public void setUp(TransitionAuditBenchmark benchmark) {
+            synchronized (Entity.class) {
+                businessId = "bench-audit-" + benchmark.audit + "-" + next++;
+            }
+            CreateEntityRequest request = new CreateEntityRequest();
+            request.setBusinessId(businessId);
+            request.setMachineId(SyntheticDefinitions.machineId(TRANSITIONS));
+            benchmark.service.createEntities(List.of(request));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        auditDirectory = Files.createTempDirectory("sm-audit-bench");
+        context = BenchmarkApplication.start("statemachine.engine=compiled",
+                "statemachine.audit.enabled=" + !"off".equals(audit),
+                "statemachine.audit.sink=" + ("file".equals(audit) ? "file" : "log"),
+                "statemachine.audit.file=" + auditDirectory.resolve("audit.log"),
+                // Logged records must reach the appender, otherwise the 'log' sink measures nothing.
+                "logging.level.statemachine.audit=INFO");
+        BenchmarkApplication.storeRingDefinition(context, TRANSITIONS);
+        service = context.getBean(DynamicStateMachineService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(auditDirectory);
+    }
+
+    @Benchmark
+    public TransitionResult triggerEvent(Entity entity) {
+        return service.triggerEvent(entity.businessId, SyntheticDefinitions.EVENT, SyntheticDefinitions.HEADERS);
+    }
+}
@@ -0,0 +1,76 @@
+package com.flexflow.statemachine.bench;
+
+import com.flexflow.statemachine.controller.dto.CreateEntityRequest;
+import com.flexflow.statemachine.service.core.DynamicStateMachineService;
+import com.flexflow.statemachine.service.core.TransitionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full DynamicStateMachineService.triggerEvent against the in-memory H2 database:
+ * load, restore, guard, action and persist. The entity cycles around a ring definition, so every
+ * invocation is an accepted transition that changes state.
+ * The persister param compares the JPA update with the local journal, which fsyncs every write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TriggerEventBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int transitions;
+
+    @Param({"spring", "compiled"})
+    public String engine;
+
+    @Param({"jpa", "journal"})
+    public String persister;
+
+    private ConfigurableApplicationContext context;
+    private Path journalDirectory;
+    private DynamicStateMachineService service;
+    private String businessId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        journalDirectory = Files.createTempDirectory("sm-journal-bench");
+        context = BenchmarkApplication.start("statemachine.engine=" + engine,
+                "statemachine.persister=" + persister,
+                "statemachine.journal.directory=" + journalDirectory);
+        String machineId = BenchmarkApplication.storeRingDefinition(context, transitions);
+        service = context.getBean(DynamicStateMachineService.class);
+
+        businessId = "bench-" + engine + "-" + persister + "-" + transitions;
+        CreateEntityRequest request = new CreateEntityRequest();
+        request.setBusinessId(businessId);
+        request.setMachineId(machineId);
+        service.createEntities(List.of(request));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(journalDirectory);
+    }
+
+    @Benchmark
+    public TransitionResult triggerEvent() {
+        return service.triggerEvent(businessId, SyntheticDefinitions.EVENT, SyntheticDefinitions.HEADERS);
+    }
+}
@@ -1,8 +1,10 @@
 package com.flexflow.statemachine.config;
 
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
+@EnableConfigurationProperties(StateMachineProperties.class)
 public class AppConfig
 {
 
@@ -4,11 +4,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flexflow.statemachine.model.db.StateMachineDefinition;
 import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
 import com.flexflow.statemachine.repository.StateMachineDefinitionRepository;
+import com.flexflow.statemachine.service.codec.BinaryDefinitionCodec;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.annotation.Order;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternResolver;
 import org.springframework.stereotype.Component;
 
 import java.io.InputStream;
@@ -17,44 +19,57 @@ import java.nio.charset.StandardCharsets;
 /**
  * Loads initial data into the database on application startup.
  * This is a more robust alternative to using data.sql for complex data like JSON.
+ * Every definition file under classpath:definitions/ is stored under the machineId it declares.
  */
 @Component
+@Order(DataLoader.ORDER)
 @Slf4j
 @RequiredArgsConstructor
 public class DataLoader implements CommandLineRunner {
 
+    /**
+     * Runs before the definition warm-up, which compiles what was loaded here.
+     */
+    public static final int ORDER = 0;
+
+    private static final String DEFINITIONS_LOCATION = "classpath*:definitions/*.json";
+
     private final StateMachineDefinitionRepository definitionRepository;
-    private final ResourceLoader resourceLoader;
+    private final ResourcePatternResolver resourcePatternResolver;
     private final ObjectMapper objectMapper;
+    private final BinaryDefinitionCodec codec;
 
     @Override
     public void run(String... args) throws Exception {
-        // Define the machineId we want to load
-        String machineId = "clarification_lifecycle_v1";
-
-        if (definitionRepository.findByMachineId(machineId).isEmpty()) {
-            log.info("No definition found for machineId '{}'. Loading from JSON file.", machineId);
-
-            Resource resource = resourceLoader.getResource("classpath:clarification-lifecycle.json");
-            try (InputStream inputStream = resource.getInputStream()) {
-                // Read the file content as a string
-                String jsonContent = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
-
-                // Validate that it's the correct definition
-                StateMachineDefinitionJson parsedJson = objectMapper.readValue(jsonContent, StateMachineDefinitionJson.class);
-                if (!machineId.equals(parsedJson.getMachineId())) {
-                    throw new IllegalStateException("The machineId in the JSON file does not match the expected machineId.");
-                }
-
-                // Create and save the entity
-                StateMachineDefinition newDefinition = new StateMachineDefinition();
-                newDefinition.setMachineId(machineId);
-                newDefinition.setDefinitionJson(jsonContent);
-                definitionRepository.save(newDefinition);
-                log.info("Successfully loaded and saved state machine definition for '{}'.", machineId);
+        for (Resource resource : resourcePatternResolver.getResources(DEFINITIONS_LOCATION)) {
+            load(resource);
+        }
+    }
+
+    private void load(Resource resource) throws Exception {
+        try (InputStream inputStream = resource.getInputStream()) {
+            // Read the file content as a string
+            String jsonContent = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+
+            // Validate that it's a definition and find out which machine it is for
+            StateMachineDefinitionJson parsedJson = objectMapper.readValue(jsonContent, StateMachineDefinitionJson.class);
+            String machineId = parsedJson.getMachineId();
+            if (machineId == null || machineId.isBlank()) {
+                throw new IllegalStateException("The definition file " + resource.getFilename() + " does not declare a machineId.");
+            }
+
+            if (definitionRepository.findByMachineId(machineId).isPresent()) {
+                log.info("State machine definition for '{}' already exists in the database. Skipping data load.", machineId);
+                return;
             }
-        } else {
-            log.info("State machine definition for '{}' already exists in the database. Skipping data load.", machineId);
+
+            // Create and save the entity
+            StateMachineDefinition newDefinition = new StateMachineDefinition();
+            newDefinition.setMachineId(machineId);
+            newDefinition.setDefinitionJson(jsonContent);
+            codec.attach(newDefinition, parsedJson);
+            definitionRepository.save(newDefinition);
+            log.info("Successfully loaded and saved state machine definition for '{}' from {}.", machineId, resource.getFilename());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,400 @@
+package com.flexflow.statemachine.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Externalized configuration for the dynamic state machine runtime.
+ * All properties are bound from the 'statemachine.*' namespace in application.properties.
+ */
+@Data
+@ConfigurationProperties(prefix = "statemachine")
+public class StateMachineProperties {
+
+    /**
+     * The execution engine used to process events.
+     * SPRING builds a Spring StateMachine per event, COMPILED uses a pre-compiled transition table.
+     */
+    private Engine engine = Engine.SPRING;
+
+    /**
+     * Load definitions from their binary encoding when one is stored, instead of parsing the JSON.
+     */
+    private boolean binaryDefinitions = true;
+
+    /**
+     * Where entity state changes are stored.
+     * JPA updates the stateful_entities rows, JOURNAL appends to a local memory-mapped journal.
+     */
+    private Persister persister = Persister.JPA;
+
+    private final Pool pool = new Pool();
+
+    private final Dispatcher dispatcher = new Dispatcher();
+
+    private final StateCache stateCache = new StateCache();
+
+    private final Reload reload = new Reload();
+
+    private final Warmup warmup = new Warmup();
+
+    private final EventLog eventLog = new EventLog();
+
+    private final Journal journal = new Journal();
+
+    private final AsyncActions asyncActions = new AsyncActions();
+
+    private final Audit audit = new Audit();
+
+    private final Timers timers = new Timers();
+
+    private final Cluster cluster = new Cluster();
+
+    public enum Engine {
+        SPRING,
+        COMPILED
+    }
+
+    public enum Persister {
+        JPA,
+        JOURNAL
+    }
+
+    /**
+     * Pooling of built Spring StateMachine instances, per machineId.
+     */
+    @Data
+    public static class Pool {
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of machines per machineId, idle or checked out.
+         */
+        private int maxSize = 16;
+
+        /**
+         * How long a trigger waits for a machine before failing.
+         */
+        private Duration checkoutTimeout = Duration.ofSeconds(5);
+    }
+
+    /**
+     * Per-entity serialization of events onto single-threaded lanes.
+     */
+    @Data
+    public static class Dispatcher {
+        private boolean enabled = false;
+
+        /**
+         * Number of lanes. 0 means one lane per available processor.
+         */
+        private int lanes = 0;
+
+        /**
+         * Maximum number of queued events per lane before new events are rejected.
+         */
+        private int queueCapacity = 1000;
+
+        /**
+         * Run lanes on virtual threads instead of platform threads.
+         */
+        private boolean virtualThreads = false;
+    }
+
+    /**
+     * In-memory cache of entity state in front of the database.
+     */
+    @Data
+    public static class StateCache {
+        private boolean enabled = false;
+
+        /**
+         * WRITE_THROUGH writes every state change immediately, WRITE_BEHIND coalesces changes and flushes them periodically.
+         */
+        private Mode mode = Mode.WRITE_THROUGH;
+
+        private long maxSize = 100_000;
+
+        /**
+         * How often pending changes are flushed in WRITE_BEHIND mode.
+         */
+        private Duration flushInterval = Duration.ofSeconds(1);
+
+        /**
+         * Maximum number of rows per JDBC batch; reaching this many pending entities also triggers an early flush.
+         */
+        private int flushBatchSize = 500;
+
+        public enum Mode {
+            WRITE_THROUGH,
+            WRITE_BEHIND
+        }
+    }
+
+    /**
+     * Hot reload of definitions that change in the database while the application is running.
+     */
+    @Data
+    public static class Reload {
+        private boolean enabled = false;
+
+        /**
+         * How often the version stamps of all definitions are checked.
+         */
+        private Duration pollInterval = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Compilation of all definitions at startup, before the application reports itself ready.
+     */
+    @Data
+    public static class Warmup {
+        private boolean enabled = true;
+
+        /**
+         * Number of definitions compiled concurrently. 0 means one per available processor.
+         */
+        private int parallelism = 0;
+
+        /**
+         * Passes over every transition of each definition to JIT-compile the lookup path of the compiled engine
+         * before traffic arrives. Guards and actions are not invoked, since they may have side effects.
+         */
+        private int iterations = 0;
+    }
+
+    /**
+     * Event-sourced persistence: accepted transitions are appended to a log and entity rows are periodic snapshots.
+     */
+    @Data
+    public static class EventLog {
+        private boolean enabled = false;
+
+        /**
+         * Every this many transitions of an entity, its row in stateful_entities is updated as a snapshot.
+         */
+        private int snapshotInterval = 100;
+    }
+
+    /**
+     * The local state journal used by the JOURNAL persister.
+     */
+    @Data
+    public static class Journal {
+        private String directory = "./data/journal";
+
+        /**
+         * Size of each memory-mapped segment file; a new segment is started when the active one is full.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * How often appended records are forced to disk. All writes within one interval share a single fsync.
+         */
+        private Duration fsyncInterval = Duration.ofMillis(5);
+
+        /**
+         * Wait for the fsync before a state change returns. When false, a crash can lose up to one fsync interval.
+         */
+        private boolean syncWrites = true;
+
+        /**
+         * How often sealed segments are checked for compaction.
+         */
+        private Duration compactionInterval = Duration.ofMinutes(1);
+
+        /**
+         * A sealed segment is compacted into a fresh segment once its live records take up less than this fraction
+         * of it. Lower values rewrite less data but leave more garbage on disk.
+         */
+        private double compactionThreshold = 0.5;
+    }
+
+    /**
+     * Execution of actions declared with "mode": "async", from the action outbox after the transition commits.
+     */
+    @Data
+    public static class AsyncActions {
+        /**
+         * Maximum number of concurrent executions of one action, unless overridden in action-concurrency.
+         */
+        private int concurrency = 4;
+
+        /**
+         * Per-action overrides of the concurrency, by action name.
+         */
+        private Map<String, Integer> actionConcurrency = new HashMap<>();
+
+        /**
+         * Maximum number of queued executions per action. When full, entries stay in the outbox for the next poll.
+         */
+        private int queueCapacity = 1000;
+
+        /**
+         * Executions per entry before it is marked FAILED and no longer retried.
+         */
+        private int maxAttempts = 5;
+
+        /**
+         * Delay before the first retry; doubled after every further failure.
+         */
+        private Duration retryBackoff = Duration.ofSeconds(1);
+
+        /**
+         * How often the outbox is polled for retries and for entries not dispatched after their commit, e.g. after a restart.
+         */
+        private Duration pollInterval = Duration.ofSeconds(5);
+
+        private int pollBatchSize = 100;
+
+        /**
+         * How long a node holds an entry it has claimed for execution. An entry still running after that can be
+         * claimed and executed again by a poll, so it should exceed the slowest action.
+         */
+        private Duration lease = Duration.ofMinutes(5);
+    }
+
+    /**
+     * The asynchronous transition audit trail, which replaces per-event logging on the trigger path.
+     */
+    @Data
+    public static class Audit {
+        private boolean enabled = true;
+
+        /**
+         * LOG writes JSON lines to the 'statemachine.audit' logger, FILE to a rolling file of its own.
+         * Ignored if a TransitionAuditSink bean is declared.
+         */
+        private Sink sink = Sink.LOG;
+
+        /**
+         * Capacity of the ring buffer between the trigger path and the writer thread.
+         */
+        private int bufferSize = 8192;
+
+        /**
+         * Maximum number of records handed to the sink at once.
+         */
+        private int batchSize = 256;
+
+        /**
+         * Which records are dropped when the buffer is full.
+         */
+        private DropPolicy dropPolicy = DropPolicy.DROP_NEWEST;
+
+        private String file = "./logs/transition-audit.log";
+
+        private DataSize maxFileSize = DataSize.ofMegabytes(100);
+
+        /**
+         * Number of audit files kept, including the one being written.
+         */
+        private int maxFiles = 10;
+
+        public enum Sink {
+            LOG,
+            FILE
+        }
+
+        public enum DropPolicy {
+            DROP_NEWEST,
+            DROP_OLDEST
+        }
+    }
+
+    /**
+     * The scheduler that sends the events of timer transitions ("after" in the definition) when they are due.
+     * Due times are always recorded on the entities; only nodes with the scheduler enabled send the events.
+     */
+    @Data
+    public static class Timers {
+        private boolean enabled = false;
+
+        /**
+         * How often due entities are claimed from the database.
+         */
+        private Duration pollInterval = Duration.ofSeconds(5);
+
+        /**
+         * Timers due within this window are claimed ahead of time and held in memory until they expire.
+         */
+        private Duration horizon = Duration.ofSeconds(30);
+
+        /**
+         * How long a claim keeps other nodes from claiming a timer. A timer claimed by a node that stops before
+         * sending its event is sent by another node once the lease expires. Must be longer than the horizon.
+         */
+        private Duration lease = Duration.ofMinutes(5);
+
+        /**
+         * Maximum number of rows claimed per query; a poll claims pages until no more are due.
+         */
+        private int pageSize = 500;
+
+        /**
+         * Maximum number of claimed timers held by this node, waiting or being sent.
+         */
+        private int maxPending = 10_000;
+
+        /**
+         * Resolution of the in-memory timing wheel.
+         */
+        private Duration tick = Duration.ofMillis(100);
+
+        /**
+         * Number of buckets per level of the timing wheel.
+         */
+        private int wheelSize = 64;
+
+        /**
+         * Maximum number of timer events sent concurrently.
+         */
+        private int concurrency = 8;
+    }
+
+    /**
+     * Clustering of several nodes on one database: businessId hash ranges are leased to nodes, and each node caches
+     * only the entities it owns. Definition cache invalidations are propagated to all nodes.
+     */
+    @Data
+    public static class Cluster {
+        private boolean enabled = false;
+
+        /**
+         * Unique id of this node. Blank means the host name and process id.
+         */
+        private String nodeId = "";
+
+        /**
+         * Base URL under which other nodes reach this node's API, e.g. http://10.0.0.5:8080. Requests for entities
+         * owned by this node are forwarded there. Blank means requests are not forwarded to this node.
+         */
+        private String address = "";
+
+        /**
+         * Number of hash ranges the businessIds are divided into. Must be the same on all nodes.
+         */
+        private int partitions = 64;
+
+        /**
+         * How long a node's heartbeat and partition leases stay valid without being renewed.
+         */
+        private Duration leaseDuration = Duration.ofSeconds(15);
+
+        /**
+         * How often leases are renewed and partitions rebalanced. Must be well below the lease duration.
+         */
+        private Duration renewInterval = Duration.ofSeconds(5);
+
+        /**
+         * Connect and read timeout of requests forwarded to the owner of an entity. If the owner cannot be reached,
+         * the request fails with 503 and a Retry-After of the lease duration, after which another node takes over.
+         */
+        private Duration forwardTimeout = Duration.ofSeconds(10);
+    }
+}
@@ -1,19 +1,38 @@
 package com.flexflow.statemachine.controller;
 
+import com.flexflow.statemachine.controller.dto.BatchCreateEntityRequest;
+import com.flexflow.statemachine.controller.dto.BatchEventItem;
+import com.flexflow.statemachine.controller.dto.BatchTriggerEventRequest;
 import com.flexflow.statemachine.controller.dto.CreateEntityRequest;
 import com.flexflow.statemachine.controller.dto.TriggerEventRequest;
 import com.flexflow.statemachine.model.db.StatefulEntity;
-import com.flexflow.statemachine.repository.StatefulEntityRepository;
+import com.flexflow.statemachine.service.cluster.RequestForwarder;
+import com.flexflow.statemachine.service.core.BatchCreateResult;
+import com.flexflow.statemachine.service.core.BatchEventResult;
 import com.flexflow.statemachine.service.core.DynamicStateMachineService;
+import com.flexflow.statemachine.service.core.TransitionResult;
+import com.flexflow.statemachine.service.dispatch.EntityEventDispatcher;
+import com.flexflow.statemachine.service.dispatch.LaneSaturatedException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * REST Controller to expose the dynamic state machine functionality.
+ * In cluster mode, reading an entity and triggering events are forwarded to the node that owns the entity;
+ * the items of a batch are forwarded to their owners in one request per node.
  */
 @RestController
 @RequestMapping("/api/entities")
@@ -21,7 +40,8 @@ import java.util.Map;
 public class ApiController {
 
     private final DynamicStateMachineService stateMachineService;
-    private final StatefulEntityRepository entityRepository;
+    private final EntityEventDispatcher dispatcher;
+    private final RequestForwarder forwarder;
 
     /**
      * Creates a new business entity managed by a state machine.
@@ -36,30 +56,184 @@ public class ApiController {
         }
     }
 
+    /**
+     * Creates many business entities at once, each in the initial state of its machine.
+     * The response contains one result per item; existing businessIds are reported as failures.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> createEntities(@RequestBody BatchCreateEntityRequest request) {
+        if (request.getEntities() == null || request.getEntities().isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "No entities provided."));
+        }
+        try {
+            List<BatchCreateResult> results = stateMachineService.createEntities(request.getEntities());
+            return ResponseEntity.ok(Map.of("results", results));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     /**
      * Retrieves the current state of a business entity.
      */
     @GetMapping("/{businessId}")
-    public ResponseEntity<StatefulEntity> getEntity(@PathVariable String businessId) {
-        return entityRepository.findByBusinessId(businessId)
+    public ResponseEntity<?> getEntity(@PathVariable String businessId,
+                                       @RequestHeader(name = RequestForwarder.FORWARDED_HEADER, required = false) String forwardedBy) {
+        Optional<ResponseEntity<Object>> forwarded = forwarder.forward(businessId, forwardedBy, HttpMethod.GET,
+                "/api/entities/{businessId}", null);
+        if (forwarded.isPresent()) {
+            return forwarded.get();
+        }
+        return stateMachineService.findEntity(businessId)
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    /**
+     * Returns the transition history of a business entity from the event log, oldest first.
+     */
+    @GetMapping("/{businessId}/history")
+    public ResponseEntity<?> getHistory(@PathVariable String businessId) {
+        try {
+            return ResponseEntity.ok(Map.of("history", stateMachineService.getHistory(businessId)));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     /**
      * Triggers an event on a business entity.
+     * Events are routed through the entity's dispatcher lane, so concurrent events for one entity are serialized.
      */
     @PostMapping("/{businessId}/trigger")
-    public ResponseEntity<?> triggerEvent(@PathVariable String businessId, @RequestBody TriggerEventRequest request) {
+    public ResponseEntity<?> triggerEvent(@PathVariable String businessId, @RequestBody TriggerEventRequest request,
+                                          @RequestHeader(name = RequestForwarder.FORWARDED_HEADER, required = false) String forwardedBy) {
+        Optional<ResponseEntity<Object>> forwarded = forwarder.forward(businessId, forwardedBy, HttpMethod.POST,
+                "/api/entities/{businessId}/trigger", request);
+        if (forwarded.isPresent()) {
+            return forwarded.get();
+        }
         try {
-            boolean success = stateMachineService.triggerEvent(
+            TransitionResult result = dispatcher.execute(businessId, () -> stateMachineService.triggerEvent(
                     businessId,
                     request.getEvent(),
                     request.getHeaders() != null ? request.getHeaders() : Collections.emptyMap()
-            );
-            return ResponseEntity.ok(Map.of("success", success));
+            ));
+            return ResponseEntity.ok(toResponse(result));
+        } catch (LaneSaturatedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         }
     }
+
+    /**
+     * Triggers an event on the reactive path. The request is processed asynchronously, so no request thread
+     * is held while non-blocking actions wait. Events are not routed through the dispatcher lanes;
+     * concurrent events for one entity are detected by its version.
+     */
+    @PostMapping("/{businessId}/trigger:reactive")
+    public Mono<ResponseEntity<?>> triggerEventReactive(@PathVariable String businessId, @RequestBody TriggerEventRequest request,
+                                                        @RequestHeader(name = RequestForwarder.FORWARDED_HEADER, required = false) String forwardedBy) {
+        String owner = forwarder.ownerToForwardTo(businessId, forwardedBy);
+        if (owner == null) {
+            return triggerEventReactiveLocally(businessId, request);
+        }
+        // Forwarding blocks, so it runs off the request thread.
+        return Mono.<ResponseEntity<?>>fromCallable(() -> forwarder.forwardTo(owner, "entity '" + businessId + "'",
+                        HttpMethod.POST, "/api/entities/{businessId}/trigger:reactive", request, businessId))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<ResponseEntity<?>> triggerEventReactiveLocally(String businessId, TriggerEventRequest request) {
+        return stateMachineService.triggerEventReactive(
+                        businessId,
+                        request.getEvent(),
+                        request.getHeaders() != null ? request.getHeaders() : Collections.emptyMap())
+                .<ResponseEntity<?>>map(result -> ResponseEntity.ok(toResponse(result)))
+                .onErrorResume(e -> Mono.just(ResponseEntity.badRequest().body(Map.of("error", String.valueOf(e.getMessage())))));
+    }
+
+    /**
+     * 'success' is kept for existing clients and is true only if the state changed; 'outcome' also tells apart
+     * events accepted without a state change (STATE_CHANGED, ACCEPTED or REJECTED), which must not be retried.
+     */
+    private static Map<String, Object> toResponse(TransitionResult result) {
+        return Map.of("success", result.isStateChanged(), "outcome", result.getOutcome());
+    }
+
+    /**
+     * Triggers a batch of events, each on its own business entity, in a single transaction.
+     * The response contains one result per item, reporting success or failure individually.
+     * In cluster mode, the items of entities owned by other nodes are forwarded to them, one request per node, and
+     * processed in their own transactions.
+     */
+    @PostMapping("/events:batch")
+    public ResponseEntity<?> triggerEvents(@RequestBody BatchTriggerEventRequest request,
+                                           @RequestHeader(name = RequestForwarder.FORWARDED_HEADER, required = false) String forwardedBy) {
+        List<BatchEventItem> items = request.getEvents();
+        if (items == null || items.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "No events provided."));
+        }
+
+        List<Integer> local = new ArrayList<>();
+        Map<String, List<Integer>> remote = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            String businessId = items.get(i).getBusinessId();
+            String owner = businessId != null ? forwarder.ownerToForwardTo(businessId, forwardedBy) : null;
+            if (owner == null) {
+                local.add(i);
+            } else {
+                remote.computeIfAbsent(owner, key -> new ArrayList<>()).add(i);
+            }
+        }
+
+        Object[] results = new Object[items.size()];
+        remote.forEach((owner, indexes) -> forwardBatch(owner, items, indexes, results));
+        if (!local.isEmpty()) {
+            List<BatchEventItem> localItems = local.stream().map(items::get).toList();
+            try {
+                List<BatchEventResult> localResults = stateMachineService.triggerEvents(localItems);
+                for (int i = 0; i < local.size(); i++) {
+                    results[local.get(i)] = localResults.get(i);
+                }
+            } catch (Exception e) {
+                if (local.size() == items.size()) {
+                    return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+                }
+                // The forwarded items were processed by their owners; only the local ones failed.
+                for (int index : local) {
+                    results[index] = BatchEventResult.failed(items.get(index).getBusinessId(), items.get(index).getEvent(),
+                            e.getMessage());
+                }
+            }
+        }
+        return ResponseEntity.ok(Map.of("results", Arrays.asList(results)));
+    }
+
+    /**
+     * Forwards the items of a batch owned by another node to it as one batch, and fills in their results.
+     * If the owner is unreachable or fails, its items fail with its error.
+     */
+    private void forwardBatch(String owner, List<BatchEventItem> items, List<Integer> indexes, Object[] results) {
+        BatchTriggerEventRequest forwarded = new BatchTriggerEventRequest();
+        forwarded.setEvents(indexes.stream().map(items::get).toList());
+        ResponseEntity<Object> response = forwarder.forwardTo(owner, indexes.size() + " batch items",
+                HttpMethod.POST, "/api/entities/events:batch", forwarded);
+
+        Object body = response.getBody();
+        if (response.getStatusCode().is2xxSuccessful() && body instanceof Map<?, ?> map
+                && map.get("results") instanceof List<?> ownerResults && ownerResults.size() == indexes.size()) {
+            for (int i = 0; i < indexes.size(); i++) {
+                results[indexes.get(i)] = ownerResults.get(i);
+            }
+            return;
+        }
+        String error = body instanceof Map<?, ?> errorBody && errorBody.get("error") != null
+                ? String.valueOf(errorBody.get("error"))
+                : "Owner " + owner + " responded with " + response.getStatusCode();
+        for (int index : indexes) {
+            results[index] = BatchEventResult.failed(items.get(index).getBusinessId(), items.get(index).getEvent(), error);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.flexflow.statemachine.controller;
+
+import com.flexflow.statemachine.service.cluster.PartitionOwnership;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Diagnostics of cluster mode: which node serves a request and which partitions it owns.
+ */
+@RestController
+@RequestMapping("/api/cluster")
+@RequiredArgsConstructor
+public class ClusterController {
+
+    private final PartitionOwnership ownership;
+
+    @GetMapping
+    public ResponseEntity<?> describe() {
+        return ResponseEntity.ok(ownership.describe());
+    }
+
+    /**
+     * Shows the partition of a businessId and whether this node owns it.
+     */
+    @GetMapping("/owner/{businessId}")
+    public ResponseEntity<?> owner(@PathVariable String businessId) {
+        return ResponseEntity.ok(Map.of(
+                "businessId", businessId,
+                "partition", ownership.partitionOf(businessId),
+                "ownedByThisNode", ownership.owns(businessId),
+                "nodeId", ownership.getNodeId()));
+    }
+}
@@ -0,0 +1,56 @@
+package com.flexflow.statemachine.controller;
+
+import com.flexflow.statemachine.service.core.StateMachineBuilderFactory;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Admin endpoints to roll out state machine definition changes without a restart.
+ */
+@RestController
+@RequestMapping("/api/definitions")
+@RequiredArgsConstructor
+public class DefinitionController {
+
+    private final StateMachineBuilderFactory builderFactory;
+
+    /**
+     * Validates and stores a new version of a definition, then swaps it into the running caches.
+     * The request body is the definition JSON, as stored.
+     */
+    @PutMapping(value = "/{machineId}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> updateDefinition(@PathVariable String machineId, @RequestBody String definitionJson) {
+        try {
+            long version = builderFactory.updateDefinition(machineId, definitionJson);
+            return ResponseEntity.ok(Map.of("machineId", machineId, "version", version));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Reloads a definition that was changed directly in the database, whether or not its version changed.
+     */
+    @PostMapping("/{machineId}/reload")
+    public ResponseEntity<?> reloadDefinition(@PathVariable String machineId) {
+        try {
+            long version = builderFactory.reload(machineId);
+            return ResponseEntity.ok(Map.of("machineId", machineId, "reloaded", true, "version", version));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Drops the cached definition and machines of a machineId, on this node and, in cluster mode, on all nodes.
+     */
+    @DeleteMapping("/{machineId}/cache")
+    public ResponseEntity<?> clearCache(@PathVariable String machineId) {
+        builderFactory.clearCache(machineId);
+        return ResponseEntity.ok(Map.of("machineId", machineId, "cleared", true));
+    }
+}
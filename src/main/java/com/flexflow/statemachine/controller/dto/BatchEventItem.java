@@ -0,0 +1,11 @@
+package com.flexflow.statemachine.controller.dto;
+
+import lombok.Data;
+import java.util.Map;
+
+@Data
+public class BatchEventItem {
+    private String businessId;
+    private String event;
+    private Map<String, Object> headers;
+}
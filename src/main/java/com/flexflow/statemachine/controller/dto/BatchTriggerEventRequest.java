@@ -0,0 +1,9 @@
+package com.flexflow.statemachine.controller.dto;
+
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class BatchTriggerEventRequest {
+    private List<BatchEventItem> events;
+}
@@ -0,0 +1,44 @@
+package com.flexflow.statemachine.machine.actions;
+
+import org.springframework.statemachine.StateContext;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+/**
+ * An action bound to the params of one transition.
+ * Created once per definition by {@link DynamicAction#compile(java.util.Map)} and executed on every transition.
+ */
+@FunctionalInterface
+public interface CompiledAction {
+
+    /**
+     * @param context The state context, providing access to the state machine, event, headers, etc.
+     */
+    void execute(StateContext<String, String> context);
+
+    /**
+     * Executes the action on the reactive trigger path. Blocking actions run inline when subscribed;
+     * actions created with {@link #reactive} complete without holding the calling thread.
+     */
+    default Mono<Void> executeReactive(StateContext<String, String> context) {
+        return Mono.fromRunnable(() -> execute(context));
+    }
+
+    /**
+     * Creates a non-blocking action. On the blocking trigger paths it is subscribed to and waited for.
+     */
+    static CompiledAction reactive(Function<StateContext<String, String>, Mono<Void>> action) {
+        return new CompiledAction() {
+            @Override
+            public void execute(StateContext<String, String> context) {
+                action.apply(context).block();
+            }
+
+            @Override
+            public Mono<Void> executeReactive(StateContext<String, String> context) {
+                return action.apply(context);
+            }
+        };
+    }
+}
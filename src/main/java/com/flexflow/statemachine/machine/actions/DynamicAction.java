@@ -24,4 +24,17 @@ public interface DynamicAction {
      * @param params  A map of parameters as defined in the 'params' block of the action in the JSON definition.
      */
     void execute(StateContext<String, String> context, Map<String, Object> params);
-}
\ No newline at end of file
+
+    /**
+     * Binds this action to the params of one transition. Called once when a definition is loaded.
+     * Implementations can override this to validate and pre-parse their params, so that nothing is
+     * looked up or cast when the action is executed.
+     *
+     * @param params A map of parameters as defined in the 'params' block of the action in the JSON definition.
+     * @return The action to execute for that transition.
+     * @throws IllegalArgumentException if the params are invalid.
+     */
+    default CompiledAction compile(Map<String, Object> params) {
+        return context -> execute(context, params);
+    }
+}
@@ -1,5 +1,7 @@
 package com.flexflow.statemachine.machine.actions;
 
+import com.flexflow.statemachine.service.audit.TransitionAudit;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.statemachine.StateContext;
 import org.springframework.stereotype.Component;
@@ -7,13 +9,17 @@ import org.springframework.stereotype.Component;
 import java.util.Map;
 
 /**
- * A simple, reusable action that logs a message to the console.
+ * A simple, reusable action that records a message in the transition audit trail.
  * The message can be customized via parameters in the JSON definition.
+ * When auditing is disabled, the message is logged at DEBUG instead.
  */
 @Component
+@RequiredArgsConstructor
 @Slf4j
 public class LogAction implements DynamicAction {
 
+    private final TransitionAudit audit;
+
     @Override
     public String getName() {
         return "logAction"; // This name must match the 'name' that is specifed in the json.
@@ -22,14 +28,31 @@ public class LogAction implements DynamicAction {
     @Override
     public void execute(StateContext<String, String> context, Map<String, Object> params) {
         String message = (String) params.getOrDefault("message", "Executing LogAction");
-        String entityId = (String) context.getMessageHeader("entityId");
-
-        log.info("[LogAction] EntityID: '{}' | State: {} -> {} | Event: {} | Message: '{}'",
-                entityId,
-                context.getSource().getId(),
-                context.getTarget().getId(),
-                context.getEvent(),
-                message
-        );
+        record(context, message);
+    }
+
+    @Override
+    public CompiledAction compile(Map<String, Object> params) {
+        Object configured = params.getOrDefault("message", "Executing LogAction");
+        if (!(configured instanceof String message)) {
+            throw new IllegalArgumentException("[LogAction] 'message' must be a string.");
+        }
+
+        return context -> record(context, message);
+    }
+
+    private void record(StateContext<String, String> context, String message) {
+        if (audit.isEnabled()) {
+            audit.action((String) context.getMessageHeader("entityId"), context.getEvent(),
+                    context.getSource().getId(), context.getTarget().getId(), getName(), message);
+        } else if (log.isDebugEnabled()) {
+            log.debug("[LogAction] EntityID: '{}' | State: {} -> {} | Event: {} | Message: '{}'",
+                    context.getMessageHeader("entityId"),
+                    context.getSource().getId(),
+                    context.getTarget().getId(),
+                    context.getEvent(),
+                    message
+            );
+        }
     }
-}
\ No newline at end of file
+}
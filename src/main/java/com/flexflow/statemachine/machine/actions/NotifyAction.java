@@ -0,0 +1,86 @@
+package com.flexflow.statemachine.machine.actions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateContext;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Notifies an external system of a transition by POSTing it as JSON to the configured 'url'.
+ * The request is sent asynchronously, so on the reactive trigger path no thread waits for the response.
+ * A response status of 400 or above fails the action, and with it the transition.
+ */
+@Component
+@Slf4j
+public class NotifyAction implements ReactiveDynamicAction {
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+    private final ObjectMapper objectMapper;
+    private final HttpClient httpClient;
+
+    public NotifyAction(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(DEFAULT_TIMEOUT)
+                .build();
+    }
+
+    @Override
+    public String getName() {
+        return "notifyAction";
+    }
+
+    @Override
+    public Mono<Void> executeReactive(StateContext<String, String> context, Map<String, Object> params) {
+        return compile(params).executeReactive(context);
+    }
+
+    /**
+     * Parses 'url' and the optional 'timeoutMs' once, so a misconfigured transition fails when the definition is loaded.
+     */
+    @Override
+    public CompiledAction compile(Map<String, Object> params) {
+        if (!(params.get("url") instanceof String url)) {
+            throw new IllegalArgumentException("[NotifyAction] 'url' must be provided in params.");
+        }
+        URI uri = URI.create(url);
+        Duration timeout = params.get("timeoutMs") instanceof Number millis
+                ? Duration.ofMillis(millis.longValue())
+                : DEFAULT_TIMEOUT;
+
+        return CompiledAction.reactive(context -> Mono.fromCallable(() -> request(uri, timeout, context))
+                .flatMap(request -> Mono.fromFuture(() -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())))
+                .flatMap(response -> {
+                    if (response.statusCode() >= 400) {
+                        return Mono.error(new IllegalStateException("[NotifyAction] " + uri + " responded with status "
+                                + response.statusCode()));
+                    }
+                    log.debug("[NotifyAction] Notified {} of entity '{}' transition {} -> {}", uri,
+                            context.getMessageHeader("entityId"), context.getSource().getId(), context.getTarget().getId());
+                    return Mono.empty();
+                }));
+    }
+
+    private HttpRequest request(URI uri, Duration timeout, StateContext<String, String> context) throws Exception {
+        byte[] body = objectMapper.writeValueAsBytes(Map.of(
+                "entityId", context.getMessageHeader("entityId"),
+                "source", context.getSource().getId(),
+                "target", context.getTarget().getId(),
+                "event", context.getEvent()
+        ));
+        return HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+}
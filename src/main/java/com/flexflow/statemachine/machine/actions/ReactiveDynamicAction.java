@@ -0,0 +1,31 @@
+package com.flexflow.statemachine.machine.actions;
+
+import org.springframework.statemachine.StateContext;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * A dynamic action that does its work without blocking, e.g. a call to a remote service.
+ * On the reactive trigger path the transition completes when the returned Mono does, without holding a thread
+ * while it waits. On the blocking trigger paths the action is waited for like any other action.
+ */
+public interface ReactiveDynamicAction extends DynamicAction {
+
+    /**
+     * @param context The state context, providing access to the state machine, event, headers, etc.
+     * @param params  A map of parameters as defined in the 'params' block of the action in the JSON definition.
+     * @return A Mono that completes when the action is done, or errors if it failed.
+     */
+    Mono<Void> executeReactive(StateContext<String, String> context, Map<String, Object> params);
+
+    @Override
+    default void execute(StateContext<String, String> context, Map<String, Object> params) {
+        executeReactive(context, params).block();
+    }
+
+    @Override
+    default CompiledAction compile(Map<String, Object> params) {
+        return CompiledAction.reactive(context -> executeReactive(context, params));
+    }
+}
@@ -0,0 +1,17 @@
+package com.flexflow.statemachine.machine.guards;
+
+import org.springframework.statemachine.StateContext;
+
+/**
+ * A guard bound to the params of one transition.
+ * Created once per definition by {@link DynamicGuard#compile(java.util.Map)} and evaluated on every event.
+ */
+@FunctionalInterface
+public interface CompiledGuard {
+
+    /**
+     * @param context The state context, providing access to the state machine, event, headers, etc.
+     * @return true if the transition is allowed, false otherwise.
+     */
+    boolean evaluate(StateContext<String, String> context);
+}
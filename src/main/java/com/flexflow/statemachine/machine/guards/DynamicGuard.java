@@ -25,4 +25,17 @@ public interface DynamicGuard {
      * @return true if the transition is allowed, false otherwise.
      */
     boolean evaluate(StateContext<String, String> context, Map<String, Object> params);
-}
\ No newline at end of file
+
+    /**
+     * Binds this guard to the params of one transition. Called once when a definition is loaded.
+     * Implementations can override this to validate and pre-parse their params, so that nothing is
+     * looked up or cast when the guard is evaluated.
+     *
+     * @param params A map of parameters as defined in the 'params' block of the guard in the JSON definition.
+     * @return The guard to evaluate for that transition.
+     * @throws IllegalArgumentException if the params are invalid.
+     */
+    default CompiledGuard compile(Map<String, Object> params) {
+        return context -> evaluate(context, params);
+    }
+}
@@ -0,0 +1,35 @@
+package com.flexflow.statemachine.machine.guards;
+
+import com.flexflow.statemachine.machine.guards.expression.ExpressionParser;
+import org.springframework.statemachine.StateContext;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * A guard that evaluates a boolean expression over the message headers and the transition,
+ * e.g. {@code headers.amount > 1000 && headers.region == 'EU'}.
+ * The expression is given in the 'expression' param and compiled once, when the definition is loaded.
+ * See {@link ExpressionParser} for the supported syntax.
+ */
+@Component
+public class ExpressionGuard implements DynamicGuard {
+
+    @Override
+    public String getName() {
+        return "expressionGuard"; // This name must match the 'name' in the JSON definition.
+    }
+
+    @Override
+    public boolean evaluate(StateContext<String, String> context, Map<String, Object> params) {
+        return compile(params).evaluate(context);
+    }
+
+    @Override
+    public CompiledGuard compile(Map<String, Object> params) {
+        if (!(params.get("expression") instanceof String expression)) {
+            throw new IllegalArgumentException("[ExpressionGuard] 'expression' must be provided in params.");
+        }
+        return ExpressionParser.parse(expression);
+    }
+}
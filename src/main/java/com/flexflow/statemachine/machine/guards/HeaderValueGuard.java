@@ -1,5 +1,7 @@
 package com.flexflow.statemachine.machine.guards;
 
+import com.flexflow.statemachine.service.audit.TransitionAudit;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.statemachine.StateContext;
 import org.springframework.stereotype.Component;
@@ -9,12 +11,16 @@ import java.util.Objects;
 
 /**
  * A reusable guard that checks if a specific header in the message context
- * has an expected value.
+ * has an expected value. Each evaluation is recorded in the transition audit trail, or logged at DEBUG
+ * when auditing is disabled.
  */
 @Component
+@RequiredArgsConstructor
 @Slf4j
 public class HeaderValueGuard implements DynamicGuard {
 
+    private final TransitionAudit audit;
+
     @Override
     public String getName() {
         return "headerValueGuard"; // This name must match the 'name' in the JSON definition.
@@ -30,12 +36,33 @@ public class HeaderValueGuard implements DynamicGuard {
             return false;
         }
 
+        return check(context, headerName, requiredValue);
+    }
+
+    /**
+     * Reads 'headerName' and 'requiredValue' once, so a misconfigured transition fails when the definition is loaded.
+     */
+    @Override
+    public CompiledGuard compile(Map<String, Object> params) {
+        if (!(params.get("headerName") instanceof String headerName) || params.get("requiredValue") == null) {
+            throw new IllegalArgumentException("[HeaderValueGuard] 'headerName' and 'requiredValue' must be provided in params.");
+        }
+        Object requiredValue = params.get("requiredValue");
+
+        return context -> check(context, headerName, requiredValue);
+    }
+
+    private boolean check(StateContext<String, String> context, String headerName, Object requiredValue) {
         Object actualValue = context.getMessageHeader(headerName);
         boolean result = Objects.equals(actualValue, requiredValue);
 
-        log.info("[HeaderValueGuard] Evaluating guard. Header: '{}', Required: '{}', Actual: '{}'. Result: {}",
-                headerName, requiredValue, actualValue, result);
-
+        if (audit.isEnabled()) {
+            audit.guard((String) context.getMessageHeader("entityId"), context.getEvent(),
+                    context.getSource().getId(), context.getTarget().getId(), getName(), result ? "passed" : "denied");
+        } else if (log.isDebugEnabled()) {
+            log.debug("[HeaderValueGuard] Evaluating guard. Header: '{}', Required: '{}', Actual: '{}'. Result: {}",
+                    headerName, requiredValue, actualValue, result);
+        }
         return result;
     }
-}
\ No newline at end of file
+}
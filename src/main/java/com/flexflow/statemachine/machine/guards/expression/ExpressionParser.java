@@ -0,0 +1,322 @@
+package com.flexflow.statemachine.machine.guards.expression;
+
+import com.flexflow.statemachine.machine.guards.CompiledGuard;
+import org.springframework.statemachine.StateContext;
+
+import java.util.Objects;
+
+/**
+ * Parses a boolean guard expression and compiles it into a tree of closures, once per definition.
+ * Evaluating the result reads headers and compares values without parsing, boxing or allocating.
+ * <p>
+ * Grammar, from lowest to highest precedence:
+ * <pre>
+ * expression := and ( '||' and )*
+ * and        := unary ( '&amp;&amp;' unary )*
+ * unary      := '!' unary | comparison
+ * comparison := operand ( ( '==' | '!=' | '&gt;' | '&gt;=' | '&lt;' | '&lt;=' ) operand )?
+ * operand    := literal | reference | '(' expression ')'
+ * literal    := number | 'string' | "string" | true | false | null
+ * reference  := headers.NAME | event | state | target | entityId
+ * </pre>
+ * 'state' is the source state of the transition and 'entityId' is the businessId of the entity.
+ * Numbers compare by value regardless of their Java type; an ordering comparison with a missing or
+ * non-comparable operand is false. A bare operand is true only if it is the boolean true.
+ */
+public final class ExpressionParser {
+
+    private static final String HEADERS_PREFIX = "headers.";
+
+    /**
+     * Returned by compareValues when the operands cannot be ordered; below every real comparison result.
+     */
+    private static final int NOT_COMPARABLE = Integer.MIN_VALUE;
+
+    private final String source;
+    private int position;
+
+    private ExpressionParser(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is not valid.
+     */
+    public static CompiledGuard parse(String expression) {
+        if (expression == null || expression.isBlank()) {
+            throw new IllegalArgumentException("Guard expression must not be empty");
+        }
+        ExpressionParser parser = new ExpressionParser(expression);
+        CompiledGuard guard = parser.parseOr();
+        parser.skipWhitespace();
+        if (parser.position < expression.length()) {
+            throw parser.error("Unexpected input");
+        }
+        return guard;
+    }
+
+    private CompiledGuard parseOr() {
+        CompiledGuard left = parseAnd();
+        while (consume("||")) {
+            CompiledGuard first = left;
+            CompiledGuard second = parseAnd();
+            left = context -> first.evaluate(context) || second.evaluate(context);
+        }
+        return left;
+    }
+
+    private CompiledGuard parseAnd() {
+        CompiledGuard left = parseUnary();
+        while (consume("&&")) {
+            CompiledGuard first = left;
+            CompiledGuard second = parseUnary();
+            left = context -> first.evaluate(context) && second.evaluate(context);
+        }
+        return left;
+    }
+
+    private CompiledGuard parseUnary() {
+        skipWhitespace();
+        if (peek("!") && !peek("!=")) {
+            position++;
+            CompiledGuard operand = parseUnary();
+            return context -> !operand.evaluate(context);
+        }
+        return parseComparison();
+    }
+
+    private CompiledGuard parseComparison() {
+        skipWhitespace();
+        ValueExpression left;
+        if (consume("(")) {
+            CompiledGuard nested = parseGroup();
+            if (!hasOperator()) {
+                return nested;
+            }
+            left = group(nested);
+        } else {
+            left = parseOperand();
+        }
+
+        Operator operator = parseOperator();
+        if (operator == null) {
+            return new BareOperand(left);
+        }
+        ValueExpression right = parseOperand();
+        return compare(left, operator, right);
+    }
+
+    /**
+     * Parses the rest of a parenthesised expression, after its '('.
+     */
+    private CompiledGuard parseGroup() {
+        CompiledGuard nested = parseOr();
+        expect(")");
+        return nested;
+    }
+
+    /**
+     * @return The value of a parenthesised expression: that of its operand if it is a bare operand, so that
+     * {@code (headers.region) == 'EU'} compares the header, otherwise the boolean result of the expression.
+     */
+    private static ValueExpression group(CompiledGuard nested) {
+        if (nested instanceof BareOperand bare) {
+            return bare.operand();
+        }
+        return context -> nested.evaluate(context);
+    }
+
+    private boolean hasOperator() {
+        skipWhitespace();
+        for (Operator operator : Operator.values()) {
+            if (source.startsWith(operator.symbol, position)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Operator parseOperator() {
+        skipWhitespace();
+        for (Operator operator : Operator.values()) {
+            if (source.startsWith(operator.symbol, position)) {
+                position += operator.symbol.length();
+                return operator;
+            }
+        }
+        return null;
+    }
+
+    private ValueExpression parseOperand() {
+        skipWhitespace();
+        if (position >= source.length()) {
+            throw error("Expected an operand");
+        }
+        char c = source.charAt(position);
+        if (c == '(') {
+            position++;
+            return group(parseGroup());
+        }
+        if (c == '\'' || c == '"') {
+            return constant(parseString(c));
+        }
+        if (Character.isDigit(c) || c == '-' || c == '.') {
+            return constant(parseNumber());
+        }
+        if (Character.isJavaIdentifierStart(c)) {
+            return reference(parseIdentifier());
+        }
+        throw error("Expected an operand");
+    }
+
+    private ValueExpression reference(String identifier) {
+        switch (identifier) {
+            case "true":
+                return constant(Boolean.TRUE);
+            case "false":
+                return constant(Boolean.FALSE);
+            case "null":
+                return constant(null);
+            case "event":
+                return StateContext::getEvent;
+            case "state":
+                return context -> context.getSource() != null ? context.getSource().getId() : null;
+            case "target":
+                return context -> context.getTarget() != null ? context.getTarget().getId() : null;
+            case "entityId":
+                return context -> context.getMessageHeader("entityId");
+            default:
+                if (identifier.startsWith(HEADERS_PREFIX) && identifier.length() > HEADERS_PREFIX.length()) {
+                    String header = identifier.substring(HEADERS_PREFIX.length());
+                    return context -> context.getMessageHeader(header);
+                }
+                throw error("Unknown reference '" + identifier + "'");
+        }
+    }
+
+    private static ValueExpression constant(Object value) {
+        return context -> value;
+    }
+
+    private String parseIdentifier() {
+        int start = position;
+        while (position < source.length()
+                && (Character.isJavaIdentifierPart(source.charAt(position)) || source.charAt(position) == '.')) {
+            position++;
+        }
+        return source.substring(start, position);
+    }
+
+    private String parseString(char quote) {
+        int start = ++position;
+        while (position < source.length() && source.charAt(position) != quote) {
+            position++;
+        }
+        if (position >= source.length()) {
+            throw error("Unterminated string literal");
+        }
+        return source.substring(start, position++);
+    }
+
+    private Double parseNumber() {
+        int start = position;
+        if (source.charAt(position) == '-') {
+            position++;
+        }
+        while (position < source.length()
+                && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+            position++;
+        }
+        try {
+            return Double.valueOf(source.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number '" + source.substring(start, position) + "'");
+        }
+    }
+
+    private static CompiledGuard compare(ValueExpression left, Operator operator, ValueExpression right) {
+        return switch (operator) {
+            case EQ -> context -> valueEquals(left.value(context), right.value(context));
+            case NE -> context -> !valueEquals(left.value(context), right.value(context));
+            case GE -> context -> compareValues(left.value(context), right.value(context)) >= 0;
+            case LE -> context -> {
+                int result = compareValues(left.value(context), right.value(context));
+                return result <= 0 && result != NOT_COMPARABLE;
+            };
+            case GT -> context -> compareValues(left.value(context), right.value(context)) > 0;
+            case LT -> context -> {
+                int result = compareValues(left.value(context), right.value(context));
+                return result < 0 && result != NOT_COMPARABLE;
+            };
+        };
+    }
+
+    private static boolean valueEquals(Object left, Object right) {
+        if (left instanceof Number l && right instanceof Number r) {
+            return l.doubleValue() == r.doubleValue();
+        }
+        return Objects.equals(left, right);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareValues(Object left, Object right) {
+        if (left instanceof Number l && right instanceof Number r) {
+            return Double.compare(l.doubleValue(), r.doubleValue());
+        }
+        if (left instanceof Comparable l && right != null && left.getClass() == right.getClass()) {
+            return Integer.signum(l.compareTo(right));
+        }
+        return NOT_COMPARABLE;
+    }
+
+    private boolean consume(String token) {
+        skipWhitespace();
+        if (source.startsWith(token, position)) {
+            position += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!consume(token)) {
+            throw error("Expected '" + token + "'");
+        }
+    }
+
+    private boolean peek(String token) {
+        return source.startsWith(token, position);
+    }
+
+    private void skipWhitespace() {
+        while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position + " in guard expression: " + source);
+    }
+
+    /**
+     * An operand used as a condition on its own, true only if its value is the boolean true.
+     */
+    private record BareOperand(ValueExpression operand) implements CompiledGuard {
+
+        @Override
+        public boolean evaluate(StateContext<String, String> context) {
+            return Boolean.TRUE.equals(operand.value(context));
+        }
+    }
+
+    private enum Operator {
+        // Two-character operators first, so '>=' is not read as '>'.
+        EQ("=="), NE("!="), GE(">="), LE("<="), GT(">"), LT("<");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+}
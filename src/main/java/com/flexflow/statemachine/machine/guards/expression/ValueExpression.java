@@ -0,0 +1,12 @@
+package com.flexflow.statemachine.machine.guards.expression;
+
+import org.springframework.statemachine.StateContext;
+
+/**
+ * An operand of a compiled guard expression: a literal, a header, or a property of the transition.
+ */
+@FunctionalInterface
+interface ValueExpression {
+
+    Object value(StateContext<String, String> context);
+}
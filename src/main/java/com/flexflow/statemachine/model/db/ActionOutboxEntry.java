@@ -0,0 +1,81 @@
+package com.flexflow.statemachine.model.db;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * An async action of an accepted transition, waiting to be executed.
+ * Rows are inserted in the transaction of the transition, so an action is recorded if and only if its transition
+ * commits. A row is deleted once its action has succeeded, or marked FAILED when it runs out of attempts.
+ */
+@Entity
+@Table(name = "action_outbox", indexes = {
+        @Index(name = "idx_action_outbox_due", columnList = "status, next_attempt_at")
+})
+@Getter
+@Setter
+public class ActionOutboxEntry {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_FAILED = "FAILED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "business_id", nullable = false)
+    private String businessId;
+
+    @Column(name = "machine_id", nullable = false)
+    private String machineId;
+
+    @Column(name = "action_name", nullable = false)
+    private String actionName;
+
+    /**
+     * The params of the action from the definition, as JSON.
+     */
+    @Lob
+    @Column(name = "params")
+    private String params;
+
+    @Column(name = "source_state", nullable = false)
+    private String sourceState;
+
+    @Column(name = "target_state", nullable = false)
+    private String targetState;
+
+    @Column(name = "event", nullable = false)
+    private String event;
+
+    /**
+     * The headers the event was sent with, as JSON.
+     */
+    @Lob
+    @Column(name = "headers")
+    private String headers;
+
+    @Column(name = "status", nullable = false)
+    private String status;
+
+    /**
+     * The number of executions claimed so far, including the one in progress.
+     */
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+
+    /**
+     * When the entry is next due. While a node executes it, this is the end of that node's lease.
+     */
+    @Column(name = "next_attempt_at", nullable = false)
+    private Instant nextAttemptAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+}
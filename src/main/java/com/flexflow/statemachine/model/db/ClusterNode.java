@@ -0,0 +1,31 @@
+package com.flexflow.statemachine.model.db;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * A node of the cluster. The row is a heartbeat: a node whose expiresAt has passed is no longer counted when
+ * partitions are divided, and its partitions are taken over once their leases expire too.
+ */
+@Entity
+@Table(name = "cluster_nodes")
+@Getter
+@Setter
+public class ClusterNode {
+
+    @Id
+    @Column(name = "node_id")
+    private String nodeId;
+
+    /**
+     * Base URL of the node's API, or null if requests are not forwarded to it.
+     */
+    @Column(name = "address")
+    private String address;
+
+    @Column(name = "expires_at", nullable = false)
+    private Instant expiresAt;
+}
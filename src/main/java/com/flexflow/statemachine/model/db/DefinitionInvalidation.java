@@ -0,0 +1,23 @@
+package com.flexflow.statemachine.model.db;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A counter per machineId, incremented whenever a node clears its cached definition. Every node polls the counters
+ * and clears its own cache for the machineIds whose counter changed.
+ */
+@Entity
+@Table(name = "definition_invalidations")
+@Getter
+@Setter
+public class DefinitionInvalidation {
+
+    @Id
+    @Column(name = "machine_id")
+    private String machineId;
+
+    @Column(name = "generation", nullable = false)
+    private Long generation;
+}
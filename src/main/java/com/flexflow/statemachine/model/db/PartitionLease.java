@@ -0,0 +1,31 @@
+package com.flexflow.statemachine.model.db;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * The lease of one businessId hash range to a cluster node. Only the owner of a partition caches the state of its
+ * entities. A lease is renewed by its owner and can be taken over by any node once it has expired.
+ */
+@Entity
+@Table(name = "partition_leases")
+@Getter
+@Setter
+public class PartitionLease {
+
+    @Id
+    @Column(name = "partition_id")
+    private Integer partitionId;
+
+    /**
+     * The node holding the lease, or null if the partition is free.
+     */
+    @Column(name = "owner_node")
+    private String ownerNode;
+
+    @Column(name = "expires_at")
+    private Instant expiresAt;
+}
@@ -32,4 +32,34 @@ public class StateMachineDefinition {
     @Lob
     @Column(name = "definition_json", nullable = false, columnDefinition = "TEXT")
     private String definitionJson;
-}
\ No newline at end of file
+
+    /**
+     * The same definition in the compact binary encoding of BinaryDefinitionCodec, loaded instead of
+     * parsing the JSON. Null if the definition could not be encoded.
+     */
+    @Lob
+    @Column(name = "definition_binary")
+    private byte[] definitionBinary;
+
+    /**
+     * CRC32C of definitionBinary. A binary that does not match it is ignored and the JSON is used.
+     */
+    @Column(name = "definition_checksum")
+    private Long definitionChecksum;
+
+    /**
+     * CRC32C of definitionJson as it was when definitionBinary was encoded. If the JSON was changed since,
+     * e.g. edited directly in the database, the binary is stale and the JSON is used instead.
+     */
+    @Column(name = "definition_source_hash")
+    private Long definitionSourceHash;
+
+    /**
+     * Version stamp of the definition, incremented on every update.
+     * Cached factories and compiled machines remember the version they were built from, so a newer
+     * definition can be detected and swapped in while the application is running.
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+}
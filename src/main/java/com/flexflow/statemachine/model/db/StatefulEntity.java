@@ -4,20 +4,33 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.time.Instant;
+
 /**
  * JPA Entity to track the current state of any business object
  * that is managed by a dynamic state machine.
  */
 @Entity
 @Table(name = "stateful_entities", indexes = {
-        @Index(name = "idx_business_id", columnList = "businessId")
+        @Index(name = "idx_business_id", columnList = "businessId"),
+        @Index(name = "idx_due_at", columnList = "dueAt, businessId")
 })
 @Getter
 @Setter
 public class StatefulEntity {
 
+    /**
+     * Column length of a state. In definitions with orthogonal regions, a state is the comma-joined configuration of
+     * every active leaf state, which can be much longer than a single state name.
+     */
+    public static final int STATE_LENGTH = 4000;
+
+    /**
+     * Sequence-generated with a pooled allocation, so that inserts can be JDBC-batched.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stateful_entities_seq")
+    @SequenceGenerator(name = "stateful_entities_seq", sequenceName = "stateful_entities_seq", allocationSize = 50)
     private Long id;
 
     /**
@@ -35,11 +48,39 @@ public class StatefulEntity {
     private String machineId;
 
     /**
-     * The current state of the business object within its lifecycle.
+     * The current state of the business object within its lifecycle; for hierarchical definitions, its configuration.
      */
-    @Column(name = "current_state", nullable = false)
+    @Column(name = "current_state", nullable = false, length = STATE_LENGTH)
     private String currentState;
 
+    /**
+     * When the earliest timer of the current state expires, or null if the state has no timer.
+     * Set when the entity is created; afterwards it is maintained with direct updates by TransitionTimers and the
+     * timer scheduler, never by JPA, so that writing the state does not overwrite a timer or its claim.
+     */
+    @Column(name = "due_at", updatable = false)
+    private Instant dueAt;
+
+    /**
+     * The event sent when {@link #dueAt} is reached.
+     */
+    @Column(name = "due_event", updatable = false)
+    private String dueEvent;
+
+    /**
+     * For definitions with composite states: when each active state with timers was entered, as comma-separated
+     * state=epochMillis pairs. Maintained by TransitionTimers like {@link #dueAt}.
+     */
+    @Column(name = "state_entered_at", length = STATE_LENGTH, updatable = false)
+    private String stateEnteredAt;
+
+    /**
+     * For definitions with composite states: when the last timer that fired without leaving its state was due.
+     * Timers due up to then are not scheduled again while their state stays active.
+     */
+    @Column(name = "timers_fired_until", updatable = false)
+    private Instant timersFiredUntil;
+
     /**
      * Optimistic locking field to prevent concurrent modification issues.
      */
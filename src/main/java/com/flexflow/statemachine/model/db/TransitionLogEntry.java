@@ -0,0 +1,52 @@
+package com.flexflow.statemachine.model.db;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * One accepted transition of a StatefulEntity, in the append-only transition log.
+ * Rows are only ever inserted. The sequence is the entity version after the transition, and it is unique per
+ * entity, so two concurrent transitions from the same version cannot both be logged.
+ */
+@Entity
+@Table(name = "transition_log", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_transition_log_entity_seq", columnNames = {"business_id", "seq_no"})
+})
+@Getter
+@Setter
+public class TransitionLogEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "business_id", nullable = false)
+    private String businessId;
+
+    @Column(name = "machine_id", nullable = false)
+    private String machineId;
+
+    @Column(name = "seq_no", nullable = false)
+    private Integer sequence;
+
+    @Column(name = "from_state", nullable = false, length = StatefulEntity.STATE_LENGTH)
+    private String fromState;
+
+    @Column(name = "to_state", nullable = false, length = StatefulEntity.STATE_LENGTH)
+    private String toState;
+
+    @Column(name = "event", nullable = false)
+    private String event;
+
+    /**
+     * CRC32C of the event headers, to tell apart events that were sent with different headers without storing them.
+     */
+    @Column(name = "headers_digest")
+    private Long headersDigest;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+}
@@ -8,6 +8,10 @@ import java.util.Map;
  */
 @Data
 public class ActionGuardJson {
+
+    public static final String MODE_SYNC = "sync";
+    public static final String MODE_ASYNC = "async";
+
     /**
      * The name of the action or guard bean to be invoked.
      * This must match the name returned by the getName() method of a DynamicAction or DynamicGuard implementation.
@@ -18,4 +22,10 @@ public class ActionGuardJson {
      * Optional parameters to be passed to the action or guard's execute/evaluate method.
      */
     private Map<String, Object> params;
+
+    /**
+     * How an action is executed: 'sync' (the default) runs it inside the transition, 'async' records it in the
+     * action outbox and runs it after the transition has been committed. Guards are always synchronous.
+     */
+    private String mode;
 }
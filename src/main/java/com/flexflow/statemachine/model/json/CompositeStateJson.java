@@ -0,0 +1,20 @@
+package com.flexflow.statemachine.model.json;
+
+import lombok.Data;
+import java.util.List;
+
+/**
+ * A state with substates within the state machine definition JSON.
+ * A composite state with one region simply nests its substates; with several regions, the regions are
+ * orthogonal and each of them has exactly one active substate while the composite state is active.
+ */
+@Data
+public class CompositeStateJson {
+
+    /**
+     * The name of the composite state. It must also be declared in the states of the definition.
+     */
+    private String name;
+
+    private List<RegionJson> regions;
+}
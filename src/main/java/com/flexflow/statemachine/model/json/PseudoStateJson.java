@@ -0,0 +1,43 @@
+package com.flexflow.statemachine.model.json;
+
+import lombok.Data;
+import java.util.List;
+
+/**
+ * A choice or junction pseudo-state within the state machine definition JSON.
+ * Transitions may target a pseudo-state by its name; an entity never rests in one. Instead, the first branch
+ * whose guard allows it is taken.
+ */
+@Data
+public class PseudoStateJson {
+
+    public static final String KIND_CHOICE = "choice";
+    public static final String KIND_JUNCTION = "junction";
+
+    private String name;
+
+    /**
+     * 'choice' (the default) evaluates the branch guards after the action of the incoming transition, and its last
+     * branch must have no guard. 'junction' evaluates them before the transition is taken; if no branch allows it,
+     * the transition does not fire.
+     */
+    private String kind;
+
+    /**
+     * The branches in the order their guards are evaluated.
+     */
+    private List<BranchJson> branches;
+
+    /**
+     * A branch of a pseudo-state.
+     */
+    @Data
+    public static class BranchJson {
+        /**
+         * A state, or another pseudo-state.
+         */
+        private String target;
+        private ActionGuardJson guard;
+        private ActionGuardJson action;
+    }
+}
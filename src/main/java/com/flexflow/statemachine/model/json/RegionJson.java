@@ -0,0 +1,27 @@
+package com.flexflow.statemachine.model.json;
+
+import lombok.Data;
+import java.util.List;
+
+/**
+ * A region of a composite state within the state machine definition JSON.
+ */
+@Data
+public class RegionJson {
+
+    /**
+     * An optional name of the region, used in error messages only.
+     */
+    private String name;
+
+    /**
+     * The substate that becomes active when the composite state is entered without targeting one of its substates.
+     */
+    private String initialState;
+
+    /**
+     * The substates of this region. Each must also be declared in the states of the definition,
+     * and may itself be a composite state.
+     */
+    private List<String> states;
+}
@@ -26,11 +26,24 @@ public class StateMachineDefinitionJson {
 
     /**
      * A list of terminal states. Once in an end state, no more events are processed.
+     * An end state within a region completes that region; the composite state's own transitions still apply.
      */
     private List<String> endStates;
 
+    /**
+     * The states from the list above that have substates, possibly in several orthogonal regions.
+     */
+    private List<CompositeStateJson> compositeStates;
+
+    /**
+     * Choice and junction pseudo-states that transitions may target.
+     */
+    private List<PseudoStateJson> pseudoStates;
+
     /**
      * The list of all transitions that define the machine's behavior.
+     * A transition from a composite state without an event fires when all regions of that state have
+     * reached an end state.
      */
     private List<TransitionJson> transitions;
 }
\ No newline at end of file
@@ -10,6 +10,13 @@ public class TransitionJson {
     private String source;
     private String target;
     private String event;
+
+    /**
+     * Makes this a timer transition: its event is sent automatically once the entity has been in the source state
+     * for this long, e.g. "7d", "12h" or "PT30M". The event can still be sent explicitly before that.
+     */
+    private String after;
+
     private ActionGuardJson action;
     private ActionGuardJson guard;
 }
@@ -0,0 +1,18 @@
+package com.flexflow.statemachine.repository;
+
+/**
+ * Projection of a StateMachineDefinition onto its version stamp, binary encoding and source JSON.
+ * The JSON is only parsed if the binary is unusable or stale.
+ */
+public interface DefinitionBinary {
+
+    Long getVersion();
+
+    String getDefinitionJson();
+
+    byte[] getDefinitionBinary();
+
+    Long getDefinitionChecksum();
+
+    Long getDefinitionSourceHash();
+}
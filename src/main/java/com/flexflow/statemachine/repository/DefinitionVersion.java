@@ -0,0 +1,11 @@
+package com.flexflow.statemachine.repository;
+
+/**
+ * Projection of a StateMachineDefinition onto its machineId and version stamp.
+ */
+public interface DefinitionVersion {
+
+    String getMachineId();
+
+    Long getVersion();
+}
@@ -2,8 +2,13 @@ package com.flexflow.statemachine.repository;
 
 import com.flexflow.statemachine.model.db.StateMachineDefinition;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -20,4 +25,34 @@ public interface StateMachineDefinitionRepository extends JpaRepository<StateMac
      * @return An Optional containing the definition if found.
      */
     Optional<StateMachineDefinition> findByMachineId(String machineId);
-}
\ No newline at end of file
+
+    /**
+     * Lists the version stamp of every definition without loading the JSON, for cheap change polling.
+     */
+    @Query("SELECT d.machineId AS machineId, d.version AS version FROM StateMachineDefinition d")
+    List<DefinitionVersion> findAllVersions();
+
+    /**
+     * Loads the binary encoding of a definition with the JSON it was encoded from.
+     */
+    @Query("SELECT d.version AS version, d.definitionJson AS definitionJson, d.definitionBinary AS definitionBinary, "
+            + "d.definitionChecksum AS definitionChecksum, d.definitionSourceHash AS definitionSourceHash "
+            + "FROM StateMachineDefinition d WHERE d.machineId = :machineId")
+    Optional<DefinitionBinary> findBinaryByMachineId(@Param("machineId") String machineId);
+
+    /**
+     * Replaces a stale binary encoding, unless the definition was updated since it was read.
+     * The version stamp is left unchanged, since the definition itself did not change.
+     *
+     * @return The number of updated rows: 0 if the definition was updated meanwhile.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE StateMachineDefinition d SET d.definitionBinary = :binary, d.definitionChecksum = :checksum, "
+            + "d.definitionSourceHash = :sourceHash WHERE d.machineId = :machineId AND d.version = :version")
+    int updateBinary(@Param("machineId") String machineId,
+                     @Param("version") Long version,
+                     @Param("binary") byte[] binary,
+                     @Param("checksum") Long checksum,
+                     @Param("sourceHash") Long sourceHash);
+}
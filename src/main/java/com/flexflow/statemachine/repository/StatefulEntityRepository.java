@@ -2,8 +2,14 @@ package com.flexflow.statemachine.repository;
 
 import com.flexflow.statemachine.model.db.StatefulEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -19,4 +25,52 @@ public interface StatefulEntityRepository extends JpaRepository<StatefulEntity,
      * @return An Optional containing the stateful entity if found.
      */
     Optional<StatefulEntity> findByBusinessId(String businessId);
+
+    /**
+     * Finds the stateful entity records for a set of business object IDs in a single query.
+     *
+     * @param businessIds The unique IDs of the business objects.
+     * @return The entities that exist; IDs without an entity are simply absent.
+     */
+    List<StatefulEntity> findAllByBusinessIdIn(Collection<String> businessIds);
+
+    /**
+     * Returns which of the given business object IDs already have a stateful entity, in a single query.
+     *
+     * @param businessIds The unique IDs of the business objects.
+     * @return The subset of IDs that already exist.
+     */
+    @Query("SELECT e.businessId FROM StatefulEntity e WHERE e.businessId IN :businessIds")
+    List<String> findExistingBusinessIds(@Param("businessIds") Collection<String> businessIds);
+
+    /**
+     * Updates the current state of an entity if it still has the expected version, incrementing the version.
+     * Pending changes of the persistence context are flushed first and the context is cleared afterwards, so that
+     * other changes of the transaction are kept and no stale managed copy of the entity is flushed later.
+     *
+     * @param businessId      The unique ID of the business object.
+     * @param currentState    The new state.
+     * @param expectedVersion The version the caller read the entity at.
+     * @return The number of updated rows: 1 on success, 0 if the entity was concurrently modified.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE StatefulEntity e SET e.currentState = :currentState, e.version = e.version + 1 "
+            + "WHERE e.businessId = :businessId AND e.version = :expectedVersion")
+    int updateStateIfVersion(@Param("businessId") String businessId,
+                             @Param("currentState") String currentState,
+                             @Param("expectedVersion") Integer expectedVersion);
+
+    /**
+     * Writes a snapshot of an entity's state from the transition log. Never moves an entity back to an older version.
+     *
+     * @return The number of updated rows: 0 if a newer snapshot was already written.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE StatefulEntity e SET e.currentState = :currentState, e.version = :version "
+            + "WHERE e.businessId = :businessId AND e.version < :version")
+    int updateSnapshot(@Param("businessId") String businessId,
+                       @Param("currentState") String currentState,
+                       @Param("version") Integer version);
 }
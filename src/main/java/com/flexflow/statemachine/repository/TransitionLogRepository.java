@@ -0,0 +1,37 @@
+package com.flexflow.statemachine.repository;
+
+import com.flexflow.statemachine.model.db.TransitionLogEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Spring Data JPA repository for the append-only transition log. Entries are inserted by TransitionLog with JDBC.
+ */
+@Repository
+public interface TransitionLogRepository extends JpaRepository<TransitionLogEntry, Long> {
+
+    /**
+     * @return The full history of an entity, oldest first.
+     */
+    List<TransitionLogEntry> findByBusinessIdOrderBySequenceAsc(String businessId);
+
+    /**
+     * @return The transitions of an entity after the given sequence, oldest first.
+     */
+    List<TransitionLogEntry> findByBusinessIdAndSequenceGreaterThanOrderBySequenceAsc(String businessId, Integer sequence);
+
+    /**
+     * Finds the transitions logged after the snapshot of each of the given entities, in a single query.
+     *
+     * @return The tails of all entities, ordered by entity and then oldest first.
+     */
+    @Query("SELECT l FROM TransitionLogEntry l, StatefulEntity e "
+            + "WHERE e.businessId IN :businessIds AND l.businessId = e.businessId AND l.sequence > e.version "
+            + "ORDER BY l.businessId, l.sequence")
+    List<TransitionLogEntry> findTailsAfterSnapshot(@Param("businessIds") Collection<String> businessIds);
+}
@@ -0,0 +1,69 @@
+package com.flexflow.statemachine.service.audit;
+
+/**
+ * One entry of the transition audit trail. Records are created on the hot path with their raw values only;
+ * formatting happens on the audit writer thread.
+ *
+ * @param detail Free-form detail: the guard outcome or the action message. May be null.
+ */
+public record AuditRecord(long timestamp, Type type, String businessId, String machineId, String event,
+                          String source, String target, String name, String detail) {
+
+    public enum Type {
+        /**
+         * An event changed the state of an entity.
+         */
+        TRANSITION,
+        /**
+         * An event was accepted without changing the state of an entity, e.g. by a self-transition.
+         */
+        ACCEPTED,
+        /**
+         * No transition fired for an event.
+         */
+        REJECTED,
+        GUARD,
+        ACTION
+    }
+
+    /**
+     * Appends this record as a single-line JSON object.
+     */
+    public void appendJson(StringBuilder out) {
+        out.append("{\"timestamp\":").append(timestamp);
+        out.append(",\"type\":\"").append(type.name()).append('"');
+        appendField(out, "businessId", businessId);
+        appendField(out, "machineId", machineId);
+        appendField(out, "event", event);
+        appendField(out, "source", source);
+        appendField(out, "target", target);
+        appendField(out, "name", name);
+        appendField(out, "detail", detail);
+        out.append('}');
+    }
+
+    private static void appendField(StringBuilder out, String field, String value) {
+        if (value == null) {
+            return;
+        }
+        out.append(",\"").append(field).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,26 @@
+package com.flexflow.statemachine.service.audit;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+/**
+ * Writes audit records as JSON lines to the 'statemachine.audit' logger at INFO, from the audit writer thread.
+ */
+@Slf4j(topic = "statemachine.audit")
+public class LogAuditSink implements TransitionAuditSink {
+
+    private final StringBuilder line = new StringBuilder(256);
+
+    @Override
+    public void write(List<AuditRecord> records) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        for (AuditRecord record : records) {
+            line.setLength(0);
+            record.appendJson(line);
+            log.info(line.toString());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.flexflow.statemachine.service.audit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends audit records as JSON lines to a file. When the file reaches its maximum size it is renamed to
+ * 'name.1', older files are shifted to 'name.2' and so on, and files beyond the maximum count are deleted.
+ */
+public class RollingFileAuditSink implements TransitionAuditSink {
+
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final StringBuilder line = new StringBuilder(256);
+
+    private Writer writer;
+    private long size;
+
+    public RollingFileAuditSink(Path file, long maxFileSize, int maxFiles) throws IOException {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = Math.max(1, maxFiles);
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        open();
+    }
+
+    @Override
+    public void write(List<AuditRecord> records) throws IOException {
+        for (AuditRecord record : records) {
+            line.setLength(0);
+            record.appendJson(line);
+            line.append('\n');
+            if (size > 0 && size + line.length() > maxFileSize) {
+                roll();
+            }
+            writer.append(line);
+            // Counted in chars rather than bytes; the limit is approximate for non-ASCII values.
+            size += line.length();
+        }
+        writer.flush();
+    }
+
+    private void roll() throws IOException {
+        writer.close();
+        Files.deleteIfExists(rolled(maxFiles - 1));
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            if (Files.exists(rolled(i))) {
+                Files.move(rolled(i), rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 1) {
+            Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = Files.size(file);
+    }
+
+    private Path rolled(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,213 @@
+package com.flexflow.statemachine.service.audit;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The structured, asynchronous audit trail of transitions, guard evaluations and actions.
+ * <p>
+ * Records are offered to a bounded ring buffer and written by a single background thread in batches, so emitting
+ * a record never waits for I/O. When the buffer is full, records are dropped according to the drop policy and
+ * counted in 'statemachine.audit.dropped', rather than slowing down the trigger path.
+ * Records emitted within a transaction are held until it completes and only offered to the buffer if it commits,
+ * so a rolled-back transition leaves no trace in the audit trail.
+ * When auditing is disabled, every emit method returns immediately without allocating.
+ */
+@Component
+@Slf4j
+public class TransitionAudit {
+
+    private final boolean enabled;
+    private final StateMachineProperties.Audit.DropPolicy dropPolicy;
+    private final int batchSize;
+    private final ArrayBlockingQueue<AuditRecord> buffer;
+    private final TransitionAuditSink sink;
+    private final Counter droppedCounter;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public TransitionAudit(StateMachineProperties properties, ObjectProvider<TransitionAuditSink> customSink,
+                           MeterRegistry meterRegistry) {
+        StateMachineProperties.Audit config = properties.getAudit();
+        this.enabled = config.isEnabled();
+        this.dropPolicy = config.getDropPolicy();
+        this.batchSize = Math.max(1, config.getBatchSize());
+        this.droppedCounter = Counter.builder("statemachine.audit.dropped")
+                .description("Audit records dropped because the audit buffer was full")
+                .register(meterRegistry);
+
+        if (!enabled) {
+            this.buffer = null;
+            this.sink = null;
+            this.writer = null;
+            return;
+        }
+
+        this.buffer = new ArrayBlockingQueue<>(config.getBufferSize());
+        this.sink = customSink.getIfUnique(() -> createSink(config));
+        Gauge.builder("statemachine.audit.buffered", buffer, ArrayBlockingQueue::size)
+                .description("Audit records waiting to be written")
+                .register(meterRegistry);
+        this.writer = Thread.ofPlatform().name("sm-audit-writer").daemon().start(this::drain);
+        log.info("Transition audit enabled with sink {} (buffer size {}, drop policy {})",
+                sink.getClass().getSimpleName(), config.getBufferSize(), dropPolicy);
+    }
+
+    private static TransitionAuditSink createSink(StateMachineProperties.Audit config) {
+        if (config.getSink() == StateMachineProperties.Audit.Sink.LOG) {
+            return new LogAuditSink();
+        }
+        try {
+            return new RollingFileAuditSink(Path.of(config.getFile()), config.getMaxFileSize().toBytes(), config.getMaxFiles());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open the audit file " + config.getFile(), e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the outcome of an event.
+     *
+     * @param type TRANSITION, ACCEPTED or REJECTED.
+     */
+    public void transition(String businessId, String machineId, String event, String source, String target, AuditRecord.Type type) {
+        if (enabled) {
+            emit(new AuditRecord(System.currentTimeMillis(), type, businessId, machineId, event, source, target, null, null));
+        }
+    }
+
+    public void guard(String businessId, String event, String source, String target, String guardName, String detail) {
+        if (enabled) {
+            emit(new AuditRecord(System.currentTimeMillis(), AuditRecord.Type.GUARD,
+                    businessId, null, event, source, target, guardName, detail));
+        }
+    }
+
+    public void action(String businessId, String event, String source, String target, String actionName, String detail) {
+        if (enabled) {
+            emit(new AuditRecord(System.currentTimeMillis(), AuditRecord.Type.ACTION,
+                    businessId, null, event, source, target, actionName, detail));
+        }
+    }
+
+    private void emit(AuditRecord record) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            transactionRecords().add(record);
+        } else {
+            offer(record);
+        }
+    }
+
+    /**
+     * @return The records emitted so far in the current transaction; they are offered when it commits.
+     */
+    @SuppressWarnings("unchecked")
+    private List<AuditRecord> transactionRecords() {
+        List<AuditRecord> records = (List<AuditRecord>) TransactionSynchronizationManager.getResource(this);
+        if (records != null) {
+            return records;
+        }
+        List<AuditRecord> pending = new ArrayList<>();
+        TransactionSynchronizationManager.bindResource(this, pending);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void suspend() {
+                TransactionSynchronizationManager.unbindResource(TransitionAudit.this);
+            }
+
+            @Override
+            public void resume() {
+                TransactionSynchronizationManager.bindResource(TransitionAudit.this, pending);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(TransitionAudit.this);
+                if (status == STATUS_COMMITTED) {
+                    pending.forEach(TransitionAudit.this::offer);
+                }
+            }
+        });
+        return pending;
+    }
+
+    private void offer(AuditRecord record) {
+        if (buffer.offer(record)) {
+            return;
+        }
+        if (dropPolicy == StateMachineProperties.Audit.DropPolicy.DROP_OLDEST) {
+            // Make room by discarding the oldest record; under contention the new record may still not fit.
+            buffer.poll();
+            if (buffer.offer(record)) {
+                droppedCounter.increment();
+                return;
+            }
+        }
+        droppedCounter.increment();
+    }
+
+    private void drain() {
+        List<AuditRecord> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                AuditRecord first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                sink.write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.warn("Failed to write {} audit records", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes all buffered records and closes the sink.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!buffer.isEmpty()) {
+            log.warn("Audit writer did not drain within 10s; {} records dropped.", buffer.size());
+        }
+        try {
+            sink.close();
+        } catch (IOException e) {
+            log.warn("Failed to close the audit sink", e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.flexflow.statemachine.service.audit;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where the transition audit trail is written. Called only from the single audit writer thread, with batches of
+ * records in the order they were emitted.
+ * The built-in sinks are selected with 'statemachine.audit.sink'; declaring a bean of this type replaces them.
+ */
+public interface TransitionAuditSink {
+
+    void write(List<AuditRecord> records) throws IOException;
+
+    /**
+     * Called once on shutdown, after the last batch has been written.
+     */
+    default void close() throws IOException {
+    }
+}
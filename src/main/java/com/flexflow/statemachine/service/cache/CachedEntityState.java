@@ -0,0 +1,29 @@
+package com.flexflow.statemachine.service.cache;
+
+import com.flexflow.statemachine.model.db.StatefulEntity;
+
+/**
+ * An immutable snapshot of a StatefulEntity as held by the {@link EntityStateCache}.
+ * A fresh, detached StatefulEntity is materialized from it for every load, so callers never share instances.
+ */
+record CachedEntityState(Long id, String businessId, String machineId, String currentState, Integer version) {
+
+    static CachedEntityState of(StatefulEntity entity) {
+        return new CachedEntityState(entity.getId(), entity.getBusinessId(), entity.getMachineId(),
+                entity.getCurrentState(), entity.getVersion());
+    }
+
+    CachedEntityState withState(String newState, Integer newVersion) {
+        return new CachedEntityState(id, businessId, machineId, newState, newVersion);
+    }
+
+    StatefulEntity toEntity() {
+        StatefulEntity entity = new StatefulEntity();
+        entity.setId(id);
+        entity.setBusinessId(businessId);
+        entity.setMachineId(machineId);
+        entity.setCurrentState(currentState);
+        entity.setVersion(version);
+        return entity;
+    }
+}
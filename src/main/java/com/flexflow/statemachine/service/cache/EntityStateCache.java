@@ -0,0 +1,432 @@
+package com.flexflow.statemachine.service.cache;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.model.db.StatefulEntity;
+import com.flexflow.statemachine.service.cluster.PartitionOwnership;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A bounded in-memory cache of entity state in front of the StatefulEntityRepository.
+ * <p>
+ * In WRITE_THROUGH mode every state change is still written to the database immediately; the cache only
+ * saves the SELECT when loading an entity. In WRITE_BEHIND mode state changes are recorded in memory and
+ * flushed periodically, so repeated transitions of a hot entity are coalesced into one UPDATE.
+ * A state change recorded within a transaction only becomes pending once the transaction commits, so a rolled back
+ * transition is never flushed. Pending writes are kept outside the evicting cache, so cache eviction never loses a
+ * change. Flushes are conditional on the version the changes were based on: if the row was changed behind the
+ * cache's back, the pending write is dropped, counted and the entity reloaded on next use, since writing it anyway
+ * would overwrite a committed transition. All pending writes are flushed on shutdown.
+ * <p>
+ * {@link #evict} flushes and drops entities before they are written elsewhere. A transaction that recorded a change
+ * of an evicted entity and has not started to commit fails when it commits; one that is committing is waited for.
+ * <p>
+ * In cluster mode, only entities in partitions this node owns are cached; others are read and written directly,
+ * since another node may change them. When the node gains or loses a partition, its entities are flushed and
+ * dropped from the cache.
+ */
+@Component
+@Slf4j
+public class EntityStateCache {
+
+    private static final String FLUSH_SQL =
+            "UPDATE stateful_entities SET current_state = ?, version = ? WHERE business_id = ? AND version = ?";
+    private static final long COMMIT_WAIT_SECONDS = 10;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PartitionOwnership ownership;
+    private final boolean enabled;
+    private final StateMachineProperties.StateCache.Mode mode;
+    private final int flushBatchSize;
+
+    private final Cache<String, CachedEntityState> cache;
+    private final Map<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    /**
+     * The state changes recorded in transactions that have not completed yet.
+     */
+    private final Map<String, Reservation> uncommitted = new ConcurrentHashMap<>();
+    private final Counter conflictCounter;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    /**
+     * Serializes flushes. A lock rather than synchronized, so that virtual threads are not pinned during JDBC I/O.
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public EntityStateCache(StateMachineProperties properties, JdbcTemplate jdbcTemplate, PartitionOwnership ownership,
+                            MeterRegistry meterRegistry) {
+        StateMachineProperties.StateCache config = properties.getStateCache();
+        this.jdbcTemplate = jdbcTemplate;
+        this.ownership = ownership;
+        this.enabled = config.isEnabled();
+        this.mode = config.getMode();
+        this.flushBatchSize = config.getFlushBatchSize();
+
+        // Caffeine's size eviction is W-TinyLFU, which keeps bursty hot entities resident.
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "statemachine.entity-state");
+        Gauge.builder("statemachine.entity-state.pending-writes", pendingWrites, Map::size)
+                .description("Number of entities with state changes not yet flushed to the database")
+                .register(meterRegistry);
+        this.conflictCounter = Counter.builder("statemachine.entity-state.flush-conflicts")
+                .description("Pending writes dropped because the entity was modified outside the cache")
+                .register(meterRegistry);
+
+        if (enabled) {
+            ownership.addListener(this::evictPartitions);
+        }
+
+        if (enabled && isWriteBehind()) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("sm-state-flusher").factory());
+            long intervalMillis = config.getFlushInterval().toMillis();
+            flusher.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+            log.info("Entity state cache enabled in WRITE_BEHIND mode (max size {}, flush every {}ms, batch size {})",
+                    config.getMaxSize(), intervalMillis, flushBatchSize);
+        } else {
+            this.flusher = null;
+            if (enabled) {
+                log.info("Entity state cache enabled in WRITE_THROUGH mode (max size {})", config.getMaxSize());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isWriteBehind() {
+        return mode == StateMachineProperties.StateCache.Mode.WRITE_BEHIND;
+    }
+
+    /**
+     * @return true if the cache is enabled and may hold the entity, i.e. this node owns it in cluster mode.
+     */
+    public boolean holds(String businessId) {
+        return enabled && ownership.owns(businessId);
+    }
+
+    /**
+     * Looks up an entity, preferring unflushed state, then the cache, then the given loader.
+     *
+     * @return A detached copy of the entity, safe to modify.
+     */
+    public Optional<StatefulEntity> find(String businessId, Function<String, Optional<StatefulEntity>> loader) {
+        if (!holds(businessId)) {
+            return loader.apply(businessId);
+        }
+        PendingWrite pending = pendingWrites.get(businessId);
+        if (pending != null) {
+            return Optional.of(pending.latest().toEntity());
+        }
+        CachedEntityState cached = cache.getIfPresent(businessId);
+        if (cached != null) {
+            return Optional.of(cached.toEntity());
+        }
+        Optional<StatefulEntity> loaded = loader.apply(businessId);
+        loaded.ifPresent(entity -> cache.put(businessId, CachedEntityState.of(entity)));
+        return loaded;
+    }
+
+    /**
+     * Records a state change that has already been written to the database (write-through).
+     */
+    public void written(StatefulEntity entity) {
+        if (holds(entity.getBusinessId())) {
+            cache.put(entity.getBusinessId(), CachedEntityState.of(entity));
+        }
+    }
+
+    /**
+     * Records a state change in memory, to be flushed later (write-behind).
+     * The entity's version is checked against the latest in-memory version and against changes of the entity in
+     * transactions still in progress, so concurrent changes of the same entity are detected just like with a
+     * database write. Within a transaction, the change is only applied once the transaction commits.
+     *
+     * @throws ObjectOptimisticLockingFailureException if the entity was modified since it was loaded, or, when the
+     *                                                 transaction commits, if the entity was evicted in the meantime.
+     */
+    public void recordTransition(StatefulEntity entity, String newState) {
+        String businessId = entity.getBusinessId();
+        Integer loadedVersion = entity.getVersion();
+        CachedEntityState latest = CachedEntityState.of(entity).withState(newState, loadedVersion + 1);
+        Reservation reservation = new Reservation();
+
+        uncommitted.compute(businessId, (key, reserved) -> {
+            PendingWrite pending = pendingWrites.get(key);
+            CachedEntityState current = pending != null ? pending.latest() : cache.getIfPresent(key);
+            if (reserved != null || (current != null && !current.version().equals(loadedVersion))) {
+                throw new ObjectOptimisticLockingFailureException(StatefulEntity.class, businessId);
+            }
+            return reservation;
+        });
+        entity.setCurrentState(newState);
+        entity.setVersion(loadedVersion + 1);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            try {
+                commit(businessId, reservation);
+                applyTransition(latest, loadedVersion);
+            } finally {
+                complete(businessId, reservation);
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                commit(businessId, reservation);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                try {
+                    if (status == STATUS_COMMITTED) {
+                        applyTransition(latest, loadedVersion);
+                    }
+                } finally {
+                    complete(businessId, reservation);
+                }
+            }
+        });
+    }
+
+    /**
+     * Marks a reservation as committing, so that {@link #evict} waits for it rather than failing it.
+     *
+     * @throws ObjectOptimisticLockingFailureException if the entity was evicted since the change was recorded.
+     */
+    private void commit(String businessId, Reservation reservation) {
+        if (!reservation.startCommit()) {
+            throw new ObjectOptimisticLockingFailureException(StatefulEntity.class, businessId);
+        }
+    }
+
+    private void complete(String businessId, Reservation reservation) {
+        uncommitted.remove(businessId, reservation);
+        reservation.completed.countDown();
+    }
+
+    private void applyTransition(CachedEntityState latest, Integer loadedVersion) {
+        String businessId = latest.businessId();
+        PendingWrite updated = pendingWrites.compute(businessId, (key, pending) ->
+                new PendingWrite(pending != null ? pending.baseVersion() : loadedVersion, latest));
+        cache.put(businessId, updated.latest());
+
+        if (pendingWrites.size() >= flushBatchSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Flushes pending writes for the given entities and drops them from the cache.
+     * Used before the entities are modified directly in the database, e.g. by a batch.
+     * Changes of these entities recorded by transactions that have not started to commit fail when they commit;
+     * those being committed are waited for, so that they are flushed here.
+     */
+    public void evict(Collection<String> businessIds) {
+        if (!enabled) {
+            return;
+        }
+        for (String businessId : businessIds) {
+            Reservation reservation = uncommitted.get(businessId);
+            if (reservation != null && !reservation.evict()) {
+                awaitCommit(businessId, reservation);
+            }
+        }
+        List<Map.Entry<String, PendingWrite>> toFlush = new ArrayList<>();
+        for (String businessId : businessIds) {
+            PendingWrite pending = pendingWrites.get(businessId);
+            if (pending != null) {
+                toFlush.add(Map.entry(businessId, pending));
+            }
+        }
+        flushLock.lock();
+        try {
+            writeBatch(toFlush);
+        } finally {
+            flushLock.unlock();
+        }
+        cache.invalidateAll(businessIds);
+    }
+
+    private static void awaitCommit(String businessId, Reservation reservation) {
+        try {
+            if (!reservation.completed.await(COMMIT_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timed out waiting for a transaction of entity '" + businessId + "' to commit");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a transaction of entity '" + businessId + "' to commit", e);
+        }
+    }
+
+    /**
+     * Flushes and drops the cached entities of partitions this node gained or is about to lose.
+     */
+    private void evictPartitions(Set<Integer> partitions) {
+        Set<String> businessIds = new HashSet<>();
+        for (String businessId : uncommitted.keySet()) {
+            if (partitions.contains(ownership.partitionOf(businessId))) {
+                businessIds.add(businessId);
+            }
+        }
+        for (String businessId : pendingWrites.keySet()) {
+            if (partitions.contains(ownership.partitionOf(businessId))) {
+                businessIds.add(businessId);
+            }
+        }
+        for (String businessId : cache.asMap().keySet()) {
+            if (partitions.contains(ownership.partitionOf(businessId))) {
+                businessIds.add(businessId);
+            }
+        }
+        evict(businessIds);
+        log.debug("Dropped {} cached entities of partitions {}", businessIds.size(), partitions);
+    }
+
+    /**
+     * Writes all pending state changes to the database in JDBC batches.
+     */
+    public void flush() {
+        flushRequested.set(false);
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            List<Map.Entry<String, PendingWrite>> batch = new ArrayList<>(flushBatchSize);
+            for (Map.Entry<String, PendingWrite> entry : pendingWrites.entrySet()) {
+                batch.add(Map.entry(entry.getKey(), entry.getValue()));
+                if (batch.size() == flushBatchSize) {
+                    writeBatch(batch);
+                    batch.clear();
+                }
+            }
+            writeBatch(batch);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to flush pending entity state changes", e);
+        }
+    }
+
+    private void writeBatch(List<Map.Entry<String, PendingWrite>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int[][] counts = jdbcTemplate.batchUpdate(FLUSH_SQL, batch, batch.size(), (ps, entry) -> {
+            PendingWrite pending = entry.getValue();
+            ps.setString(1, pending.latest().currentState());
+            ps.setInt(2, pending.latest().version());
+            ps.setString(3, entry.getKey());
+            ps.setInt(4, pending.baseVersion());
+        });
+        int[] updated = counts[0];
+
+        int conflicts = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            String businessId = batch.get(i).getKey();
+            PendingWrite flushed = batch.get(i).getValue();
+            if (updated[i] == 0) {
+                conflicts++;
+                dropConflict(businessId, flushed);
+                continue;
+            }
+            // Later changes recorded during the flush stay pending, now relative to the version just written.
+            pendingWrites.computeIfPresent(businessId,
+                    (key, current) -> current == flushed ? null : current.rebase(flushed.latest().version()));
+        }
+        log.debug("Flushed {} pending entity state changes", batch.size() - conflicts);
+    }
+
+    /**
+     * Handles a pending write whose row no longer has the version it was based on, or no longer exists: the row was
+     * written outside the cache, so the pending state is dropped and the entity is reloaded on next use.
+     */
+    private void dropConflict(String businessId, PendingWrite flushed) {
+        pendingWrites.remove(businessId);
+        cache.invalidate(businessId);
+        conflictCounter.increment();
+        log.error("Entity '{}' was modified outside the write-behind cache since version {}; its pending state '{}' "
+                + "at version {} was dropped", businessId, flushed.baseVersion(), flushed.latest().currentState(),
+                flushed.latest().version());
+    }
+
+    /**
+     * A state change recorded in a transaction that has not completed yet. Once it starts to commit, it can no
+     * longer be failed by an eviction; before that, an eviction makes it fail.
+     */
+    private static final class Reservation {
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private boolean committing;
+        private boolean evicted;
+
+        /**
+         * @return false if the entity was evicted since the change was recorded.
+         */
+        synchronized boolean startCommit() {
+            committing = !evicted;
+            return committing;
+        }
+
+        /**
+         * @return false if the transaction is already committing and must be waited for.
+         */
+        synchronized boolean evict() {
+            evicted = !committing;
+            return evicted;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Flushing {} pending entity state changes on shutdown", pendingWrites.size());
+        flush();
+    }
+}
@@ -0,0 +1,14 @@
+package com.flexflow.statemachine.service.cache;
+
+/**
+ * A coalesced, not yet flushed state change of one entity in write-behind mode.
+ *
+ * @param baseVersion The version of the row in the database, which the flush checks against.
+ * @param latest      The latest in-memory state, including the version the row will have after the flush.
+ */
+record PendingWrite(Integer baseVersion, CachedEntityState latest) {
+
+    PendingWrite rebase(Integer newBaseVersion) {
+        return new PendingWrite(newBaseVersion, latest);
+    }
+}
@@ -0,0 +1,94 @@
+package com.flexflow.statemachine.service.cluster;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Propagates definition cache invalidations to all nodes through the definition_invalidations table.
+ * Clearing a cache increments the machineId's generation; every node polls the generations and clears its own
+ * cache for each machineId whose generation changed since the last poll. Changed definitions themselves are
+ * detected through their version stamps, see the DefinitionWatcher.
+ * When clustering is disabled, nothing is written and polls return nothing.
+ */
+@Component
+@Slf4j
+public class DefinitionInvalidations {
+
+    private static final String INCREMENT_SQL = "UPDATE definition_invalidations SET generation = generation + 1 WHERE machine_id = ?";
+    private static final String INSERT_SQL = "INSERT INTO definition_invalidations (machine_id, generation) VALUES (?, 1)";
+    private static final String GENERATIONS_SQL = "SELECT machine_id, generation FROM definition_invalidations";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+
+    /**
+     * The generations seen by the last poll, or null before the first poll.
+     */
+    private Map<String, Long> seen;
+    private final ReentrantLock pollLock = new ReentrantLock();
+
+    public DefinitionInvalidations(StateMachineProperties properties, JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = properties.getCluster().isEnabled();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Tells the other nodes to clear their cached definition of the machineId.
+     */
+    public void publish(String machineId) {
+        if (!enabled) {
+            return;
+        }
+        if (jdbcTemplate.update(INCREMENT_SQL, machineId) == 0) {
+            try {
+                jdbcTemplate.update(INSERT_SQL, machineId);
+            } catch (DuplicateKeyException e) {
+                // Inserted by another node at the same time.
+                jdbcTemplate.update(INCREMENT_SQL, machineId);
+            }
+        }
+        log.debug("Published a cache invalidation for machineId: '{}'", machineId);
+    }
+
+    /**
+     * @return The machineIds invalidated since the last poll. The first poll only records the current generations.
+     */
+    public List<String> poll() {
+        if (!enabled) {
+            return List.of();
+        }
+        Map<String, Long> current = new HashMap<>();
+        jdbcTemplate.query(GENERATIONS_SQL, rs -> {
+            current.put(rs.getString("machine_id"), rs.getLong("generation"));
+        });
+
+        pollLock.lock();
+        try {
+            List<String> invalidated = new ArrayList<>();
+            if (seen != null) {
+                current.forEach((machineId, generation) -> {
+                    if (!generation.equals(seen.get(machineId))) {
+                        invalidated.add(machineId);
+                    }
+                });
+            }
+            seen = current;
+            return invalidated;
+        } finally {
+            pollLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.flexflow.statemachine.service.cluster;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Divides the businessIds among the nodes of a cluster through leases in the partition_leases table.
+ * <p>
+ * The 32-bit hash space of businessIds is cut into a fixed number of equal ranges (partitions). Every renew interval,
+ * each node renews its heartbeat in cluster_nodes and the leases it holds, then moves towards an equal share of the
+ * partitions: it releases partitions above its share, so that a node that joins can take them, and takes free or
+ * expired ones below it. Taking a lease is a conditional update, so two nodes never hold the same partition.
+ * A node that stops releases its partitions; one that fails loses them when its leases expire.
+ * <p>
+ * A node considers a partition its own only until the lease it last renewed expires, so it stops caching entities
+ * of a partition before another node can take it over, as long as the nodes' clocks agree to within a fraction of
+ * the lease duration. Listeners are told about partitions gained and lost before the release is written, so cached
+ * state can be flushed and dropped first.
+ * When clustering is disabled, the node owns every businessId and nothing is written.
+ */
+@Component
+@Slf4j
+public class PartitionOwnership {
+
+    private static final String HEARTBEAT_SQL = "UPDATE cluster_nodes SET address = ?, expires_at = ? WHERE node_id = ?";
+    private static final String REGISTER_SQL = "INSERT INTO cluster_nodes (node_id, address, expires_at) VALUES (?, ?, ?)";
+    private static final String LEAVE_SQL = "DELETE FROM cluster_nodes WHERE node_id = ?";
+    private static final String LIVE_NODES_SQL = "SELECT node_id, address FROM cluster_nodes WHERE expires_at > ?";
+    private static final String CREATE_PARTITION_SQL = "INSERT INTO partition_leases (partition_id) VALUES (?)";
+    private static final String PARTITIONS_SQL = "SELECT partition_id, owner_node, expires_at FROM partition_leases";
+    private static final String RENEW_SQL = "UPDATE partition_leases SET expires_at = ? WHERE owner_node = ?";
+    private static final String ACQUIRE_SQL = "UPDATE partition_leases SET owner_node = ?, expires_at = ? "
+            + "WHERE partition_id = ? AND (owner_node IS NULL OR expires_at IS NULL OR expires_at <= ?)";
+    private static final String RELEASE_SQL = "UPDATE partition_leases SET owner_node = NULL, expires_at = NULL "
+            + "WHERE partition_id = ? AND owner_node = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final String nodeId;
+    private final String address;
+    private final int partitions;
+    private final Duration leaseDuration;
+
+    private final List<Consumer<Set<Integer>>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService renewer;
+
+    /**
+     * Written by the renewer thread only; read by request threads.
+     */
+    private volatile Set<Integer> owned = Set.of();
+    private volatile Instant ownedUntil = Instant.MIN;
+    private volatile Map<Integer, String> ownerAddresses = Map.of();
+    private volatile int liveNodes;
+
+    public PartitionOwnership(StateMachineProperties properties, JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        StateMachineProperties.Cluster config = properties.getCluster();
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = config.isEnabled();
+        this.nodeId = config.getNodeId().isBlank() ? defaultNodeId() : config.getNodeId();
+        this.address = config.getAddress().isBlank() ? null : config.getAddress();
+        this.partitions = Math.max(1, config.getPartitions());
+        this.leaseDuration = config.getLeaseDuration();
+
+        if (!enabled) {
+            this.renewer = null;
+            return;
+        }
+        if (config.getRenewInterval().compareTo(leaseDuration) >= 0) {
+            throw new IllegalStateException("statemachine.cluster.renew-interval must be shorter than the lease duration");
+        }
+
+        Gauge.builder("statemachine.cluster.partitions.owned", this, ownership -> ownership.owned.size())
+                .description("Partitions of the businessId hash space leased to this node")
+                .register(meterRegistry);
+        Gauge.builder("statemachine.cluster.nodes", this, ownership -> ownership.liveNodes)
+                .description("Nodes with a live heartbeat, including this one")
+                .register(meterRegistry);
+
+        this.renewer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("sm-cluster-leases").factory());
+        long intervalMillis = config.getRenewInterval().toMillis();
+        renewer.scheduleWithFixedDelay(this::renewQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Cluster mode enabled as node '{}' ({} partitions, lease {}, renewed every {}ms)",
+                nodeId, partitions, leaseDuration, intervalMillis);
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Registers a listener called with the partitions this node gained or is about to lose, on the renewer thread.
+     * After the call, entities of those partitions may have been written by another node.
+     */
+    public void addListener(Consumer<Set<Integer>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return The partition of the businessId: the range of the hash space its hash falls into.
+     */
+    public int partitionOf(String businessId) {
+        int h = businessId.hashCode();
+        // Spread the bits first, so that similar ids (e.g. sequential numbers) fall into different ranges.
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (int) (((h & 0xffffffffL) * partitions) >>> 32);
+    }
+
+    /**
+     * @return true if this node holds a valid lease on the businessId's partition, or clustering is disabled.
+     */
+    public boolean owns(String businessId) {
+        return !enabled || (owned.contains(partitionOf(businessId)) && Instant.now().isBefore(ownedUntil));
+    }
+
+    /**
+     * @return The address of the node that owns the businessId, or null if this node owns it, the partition is free,
+     * or its owner does not accept forwarded requests.
+     */
+    public String remoteOwnerAddress(String businessId) {
+        if (owns(businessId)) {
+            return null;
+        }
+        return ownerAddresses.get(partitionOf(businessId));
+    }
+
+    /**
+     * @return This node, the live nodes, and the partitions this node owns, for diagnostics.
+     */
+    public Map<String, Object> describe() {
+        return Map.of("enabled", enabled, "nodeId", nodeId, "liveNodes", liveNodes, "partitions", partitions,
+                "ownedPartitions", new TreeSet<>(owned));
+    }
+
+    /**
+     * Renews this node's heartbeat and leases, then takes or releases partitions towards an equal share.
+     */
+    public void renew() {
+        Instant now = Instant.now();
+        Instant expiresAt = now.plus(leaseDuration);
+        boolean lapsed = !now.isBefore(ownedUntil);
+        Timestamp nowTs = Timestamp.from(now);
+        Timestamp expiresTs = Timestamp.from(expiresAt);
+
+        if (jdbcTemplate.update(HEARTBEAT_SQL, address, expiresTs, nodeId) == 0) {
+            jdbcTemplate.update(REGISTER_SQL, nodeId, address, expiresTs);
+        }
+        jdbcTemplate.update(RENEW_SQL, expiresTs, nodeId);
+
+        Map<String, String> live = new HashMap<>();
+        jdbcTemplate.query(LIVE_NODES_SQL, rs -> {
+            live.put(rs.getString("node_id"), rs.getString("address"));
+        }, nowTs);
+        live.putIfAbsent(nodeId, address);
+
+        List<Lease> leases = loadLeases();
+        Set<Integer> mine = new TreeSet<>();
+        List<Integer> free = new ArrayList<>();
+        Map<Integer, String> addresses = new HashMap<>();
+        for (Lease lease : leases) {
+            boolean expired = lease.owner() == null || lease.expiresAt() == null || !lease.expiresAt().isAfter(now);
+            if (nodeId.equals(lease.owner()) && !expired) {
+                mine.add(lease.partition());
+            } else if (expired) {
+                free.add(lease.partition());
+            } else if (live.get(lease.owner()) != null) {
+                addresses.put(lease.partition(), live.get(lease.owner()));
+            }
+        }
+
+        int share = (partitions + live.size() - 1) / live.size();
+        Set<Integer> released = new HashSet<>();
+        if (mine.size() > share) {
+            for (Integer partition : new ArrayList<>(mine).subList(share, mine.size())) {
+                released.add(partition);
+                mine.remove(partition);
+            }
+            // Stop treating the partitions as owned and let listeners flush their state before anyone can take them.
+            owned = Set.copyOf(mine);
+            notifyListeners(released);
+            for (Integer partition : released) {
+                jdbcTemplate.update(RELEASE_SQL, partition, nodeId);
+            }
+        }
+
+        // After a lapse, other nodes may have written entities of partitions this node still holds in the table.
+        Set<Integer> acquired = lapsed ? new HashSet<>(mine) : new HashSet<>();
+        for (int i = 0; i < free.size() && mine.size() < share; i++) {
+            if (jdbcTemplate.update(ACQUIRE_SQL, nodeId, expiresTs, free.get(i), nowTs) == 1) {
+                mine.add(free.get(i));
+                acquired.add(free.get(i));
+            }
+        }
+        if (!acquired.isEmpty()) {
+            // Anything cached for these partitions from an earlier lease may have been changed by their previous owner.
+            notifyListeners(acquired);
+        }
+
+        owned = Set.copyOf(mine);
+        ownedUntil = expiresAt;
+        ownerAddresses = Map.copyOf(addresses);
+        liveNodes = live.size();
+        if (!released.isEmpty() || !acquired.isEmpty()) {
+            log.info("Node '{}' now owns {} of {} partitions ({} live nodes): acquired {}, released {}",
+                    nodeId, mine.size(), partitions, live.size(), new TreeSet<>(acquired), new TreeSet<>(released));
+        }
+    }
+
+    private List<Lease> loadLeases() {
+        List<Lease> leases = jdbcTemplate.query(PARTITIONS_SQL, (rs, rowNum) -> new Lease(
+                rs.getInt("partition_id"),
+                rs.getString("owner_node"),
+                rs.getTimestamp("expires_at") != null ? rs.getTimestamp("expires_at").toInstant() : null));
+        if (leases.size() >= partitions) {
+            return leases;
+        }
+
+        // First start of the cluster, or more partitions configured: create the missing rows.
+        Set<Integer> existing = new HashSet<>();
+        leases.forEach(lease -> existing.add(lease.partition()));
+        for (int partition = 0; partition < partitions; partition++) {
+            if (!existing.contains(partition)) {
+                try {
+                    jdbcTemplate.update(CREATE_PARTITION_SQL, partition);
+                } catch (DuplicateKeyException e) {
+                    // Created by another node at the same time.
+                }
+                leases.add(new Lease(partition, null, null));
+            }
+        }
+        return leases;
+    }
+
+    private void notifyListeners(Set<Integer> changed) {
+        for (Consumer<Set<Integer>> listener : listeners) {
+            listener.accept(changed);
+        }
+    }
+
+    private void renewQuietly() {
+        try {
+            renew();
+        } catch (Exception e) {
+            // Leases that are not renewed expire; until then this node keeps using the partitions it holds.
+            log.error("Failed to renew cluster leases of node '{}'", nodeId, e);
+        }
+    }
+
+    /**
+     * Releases all partitions and leaves the cluster, so that the remaining nodes take over without waiting
+     * for the leases to expire.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        renewer.shutdownNow();
+        try {
+            renewer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Set<Integer> released = owned;
+        owned = Set.of();
+        try {
+            notifyListeners(released);
+            for (Integer partition : released) {
+                jdbcTemplate.update(RELEASE_SQL, partition, nodeId);
+            }
+            jdbcTemplate.update(LEAVE_SQL, nodeId);
+            log.info("Node '{}' left the cluster and released {} partitions", nodeId, released.size());
+        } catch (Exception e) {
+            log.warn("Failed to release the partitions of node '{}'; they are taken over when their leases expire", nodeId, e);
+        }
+    }
+
+    private record Lease(int partition, String owner, Instant expiresAt) {
+    }
+}
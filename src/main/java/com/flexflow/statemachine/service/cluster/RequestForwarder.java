@@ -0,0 +1,124 @@
+package com.flexflow.statemachine.service.cluster;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Forwards requests for an entity to the node that owns it in cluster mode, so that all events of an entity are
+ * processed by one node, through its dispatcher lane and state cache, rather than racing on the entity's version.
+ * <p>
+ * A request is processed locally if this node owns the entity, the entity's partition is being moved between
+ * nodes, or the owner has no address. If the owner refuses the connection, the request fails with 503 and a
+ * Retry-After of the lease duration: the owner may still hold unflushed state of the entity, so the request must not
+ * be processed elsewhere until its lease has expired and another node has taken the partition over. If the owner
+ * accepted the request but did not respond in time, the request fails with 504, since it may have been processed.
+ * Forwarded requests carry {@value #FORWARDED_HEADER} and are never forwarded again, even if ownership moved in the
+ * meantime.
+ * <p>
+ * Requests for many entities are split by owner: the items of each other node are forwarded to it as one request,
+ * with {@link #ownerToForwardTo} and {@link #forwardTo}, and the rest are processed locally.
+ */
+@Component
+@Slf4j
+public class RequestForwarder {
+
+    public static final String FORWARDED_HEADER = "X-Statemachine-Forwarded-By";
+
+    private final PartitionOwnership ownership;
+    private final RestClient restClient;
+    private final long retryAfterSeconds;
+    private final Meter.MeterProvider<Counter> forwardCounters;
+
+    public RequestForwarder(StateMachineProperties properties, PartitionOwnership ownership,
+                            RestClient.Builder restClientBuilder, MeterRegistry meterRegistry) {
+        this.ownership = ownership;
+        this.retryAfterSeconds = Math.max(1, properties.getCluster().getLeaseDuration().toSeconds());
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(properties.getCluster().getForwardTimeout());
+        requestFactory.setReadTimeout(properties.getCluster().getForwardTimeout());
+        this.restClient = restClientBuilder.requestFactory(requestFactory).build();
+        this.forwardCounters = Counter.builder("statemachine.cluster.forwarded")
+                .description("Requests forwarded to the owner of their entity, by result: forwarded, unreachable or failed")
+                .withRegistry(meterRegistry);
+    }
+
+    /**
+     * @param forwardedBy The {@value #FORWARDED_HEADER} header of the incoming request, or null.
+     * @param path        The path of the request, with a {businessId} placeholder.
+     * @param body        The request body, or null.
+     * @return The owner's response, or empty if the request is to be processed on this node.
+     */
+    public Optional<ResponseEntity<Object>> forward(String businessId, String forwardedBy, HttpMethod method,
+                                                    String path, Object body) {
+        String owner = ownerToForwardTo(businessId, forwardedBy);
+        if (owner == null) {
+            return Optional.empty();
+        }
+        return Optional.of(forwardTo(owner, "entity '" + businessId + "'", method, path, body, businessId));
+    }
+
+    /**
+     * @param forwardedBy The {@value #FORWARDED_HEADER} header of the incoming request, or null.
+     * @return The address of the node to forward a request for the businessId to, or null if it is to be processed
+     * on this node.
+     */
+    public String ownerToForwardTo(String businessId, String forwardedBy) {
+        if (!ownership.isEnabled() || forwardedBy != null) {
+            return null;
+        }
+        return ownership.remoteOwnerAddress(businessId);
+    }
+
+    /**
+     * Sends a request to the given owner, as returned by {@link #ownerToForwardTo}.
+     *
+     * @param subject What the request is for, in error messages, e.g. "entity 'ORD-1'".
+     * @param path    The path of the request, with placeholders for the uriVariables.
+     * @param body    The request body, or null.
+     * @return The owner's response, or a 503 or 504 response if the owner could not be reached or did not respond.
+     */
+    public ResponseEntity<Object> forwardTo(String owner, String subject, HttpMethod method, String path,
+                                                      Object body, Object... uriVariables) {
+        try {
+            RestClient.RequestBodySpec request = restClient.method(method)
+                    .uri(owner + path, uriVariables)
+                    .header(FORWARDED_HEADER, ownership.getNodeId());
+            if (body != null) {
+                request.body(body);
+            }
+            ResponseEntity<Object> response = request.exchange((clientRequest, clientResponse) ->
+                    ResponseEntity.status(clientResponse.getStatusCode()).body(clientResponse.bodyTo(Object.class)));
+            forwardCounters.withTags("result", "forwarded").increment();
+            return response;
+        } catch (ResourceAccessException e) {
+            if (!(e.getCause() instanceof ConnectException)) {
+                // The owner may have processed the request; processing it here too could apply the event twice.
+                forwardCounters.withTags("result", "failed").increment();
+                return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                        .body(Map.of("error", "No response from the owner of " + subject + ": " + e.getMessage()));
+            }
+            forwardCounters.withTags("result", "unreachable").increment();
+            log.warn("Owner {} of {} is unreachable; rejecting the request until its lease expires: {}",
+                    owner, subject, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(Map.of("error", "The owner of " + subject + " is unreachable; retry after its lease expires"));
+        }
+    }
+}
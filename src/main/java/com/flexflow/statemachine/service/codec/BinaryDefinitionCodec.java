@@ -0,0 +1,438 @@
+package com.flexflow.statemachine.service.codec;
+
+import com.flexflow.statemachine.model.db.StateMachineDefinition;
+import com.flexflow.statemachine.model.json.ActionGuardJson;
+import com.flexflow.statemachine.model.json.CompositeStateJson;
+import com.flexflow.statemachine.model.json.PseudoStateJson;
+import com.flexflow.statemachine.model.json.RegionJson;
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import com.flexflow.statemachine.model.json.TransitionJson;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A compact binary encoding of a state machine definition, stored next to the JSON so that loading a
+ * definition does not need Jackson.
+ * <p>
+ * Every string (states, events, guard and action names, param keys and values) is stored once in a string
+ * table; the rest of the definition refers to strings by their index. Decoding reads the stored bytes in place
+ * through a ByteBuffer and creates each distinct string once, so all references share the same instances.
+ * <pre>
+ * magic 'SMDB' | format version | string count | (length, UTF-8 bytes)* |
+ * machineId | initialState | states | endStates |
+ * composite count | (name, region count, (name, initialState, states)*)* |
+ * pseudo-state count | (name, kind, branch count, (target, guard, action)*)* |
+ * transition count | (source, target, event, after, guard, action)*
+ * </pre>
+ * A guard or action is its name index (-1 if absent), its params as a tagged value and its mode index.
+ * Absent lists are stored with a count of -1.
+ * <p>
+ * Next to the binary, a hash of the JSON it was encoded from is stored, so that a binary left behind by a direct
+ * edit of the JSON is recognized as stale.
+ */
+@Component
+@Slf4j
+public class BinaryDefinitionCodec {
+
+    private static final int MAGIC = 0x534D4442; // "SMDB"
+
+    /**
+     * Incremented whenever the layout changes; binaries of another version are ignored and the JSON is used.
+     */
+    private static final int FORMAT_VERSION = 4;
+
+    private static final int NO_STRING = -1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_DOUBLE = 5;
+    private static final byte TAG_STRING = 6;
+    private static final byte TAG_LIST = 7;
+    private static final byte TAG_MAP = 8;
+
+    /**
+     * Stores the binary encoding, its checksum and the hash of the entity's JSON on the entity, next to the JSON.
+     * The JSON must already be set. If the definition cannot be encoded, the binary is cleared and the JSON alone
+     * is used.
+     */
+    public void attach(StateMachineDefinition entity, StateMachineDefinitionJson definition) {
+        try {
+            byte[] encoded = encode(definition);
+            entity.setDefinitionBinary(encoded);
+            entity.setDefinitionChecksum(checksum(encoded));
+            entity.setDefinitionSourceHash(sourceHash(entity.getDefinitionJson()));
+        } catch (IllegalArgumentException e) {
+            log.warn("Definition for machineId '{}' has no binary encoding: {}", definition.getMachineId(), e.getMessage());
+            entity.setDefinitionBinary(null);
+            entity.setDefinitionChecksum(null);
+            entity.setDefinitionSourceHash(null);
+        }
+    }
+
+    public static long checksum(byte[] encoded) {
+        CRC32C crc = new CRC32C();
+        crc.update(encoded);
+        return crc.getValue();
+    }
+
+    /**
+     * @return The hash of the JSON a binary is encoded from, stored to detect later changes of the JSON.
+     */
+    public static long sourceHash(String definitionJson) {
+        return checksum(definitionJson.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if a param value has a type that cannot be encoded.
+     */
+    public byte[] encode(StateMachineDefinitionJson definition) {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream body = new DataOutputStream(bodyBytes)) {
+            body.writeInt(intern(strings, definition.getMachineId()));
+            body.writeInt(intern(strings, definition.getInitialState()));
+            writeStrings(body, strings, definition.getStates());
+            writeStrings(body, strings, definition.getEndStates());
+            writeCompositeStates(body, strings, definition.getCompositeStates());
+            writePseudoStates(body, strings, definition.getPseudoStates());
+
+            List<TransitionJson> transitions = definition.getTransitions() != null ? definition.getTransitions() : List.of();
+            body.writeInt(transitions.size());
+            for (TransitionJson transition : transitions) {
+                body.writeInt(intern(strings, transition.getSource()));
+                body.writeInt(intern(strings, transition.getTarget()));
+                body.writeInt(intern(strings, transition.getEvent()));
+                body.writeInt(intern(strings, transition.getAfter()));
+                writeBlock(body, strings, transition.getGuard());
+                writeBlock(body, strings, transition.getAction());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode definition", e);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bodyBytes.size() + strings.size() * 16);
+        try (DataOutputStream data = new DataOutputStream(out)) {
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT_VERSION);
+            data.writeInt(strings.size());
+            for (String value : strings.keySet()) {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                data.writeInt(utf8.length);
+                data.write(utf8);
+            }
+            bodyBytes.writeTo(data);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode definition", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is not a binary definition of the current format version.
+     */
+    public StateMachineDefinitionJson decode(byte[] encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a binary state machine definition");
+            }
+            int formatVersion = buffer.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported binary definition format version: " + formatVersion);
+            }
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                int length = buffer.getInt();
+                strings[i] = new String(encoded, buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            }
+
+            StateMachineDefinitionJson definition = new StateMachineDefinitionJson();
+            definition.setMachineId(readString(buffer, strings));
+            definition.setInitialState(readString(buffer, strings));
+            definition.setStates(readStrings(buffer, strings));
+            definition.setEndStates(readStrings(buffer, strings));
+            definition.setCompositeStates(readCompositeStates(buffer, strings));
+            definition.setPseudoStates(readPseudoStates(buffer, strings));
+
+            int transitionCount = buffer.getInt();
+            List<TransitionJson> transitions = new ArrayList<>(transitionCount);
+            for (int i = 0; i < transitionCount; i++) {
+                TransitionJson transition = new TransitionJson();
+                transition.setSource(readString(buffer, strings));
+                transition.setTarget(readString(buffer, strings));
+                transition.setEvent(readString(buffer, strings));
+                transition.setAfter(readString(buffer, strings));
+                transition.setGuard(readBlock(buffer, strings));
+                transition.setAction(readBlock(buffer, strings));
+                transitions.add(transition);
+            }
+            definition.setTransitions(transitions);
+
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Unexpected trailing data in binary definition");
+            }
+            return definition;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or corrupt binary definition", e);
+        }
+    }
+
+    private static int intern(Map<String, Integer> strings, String value) {
+        if (value == null) {
+            return NO_STRING;
+        }
+        return strings.computeIfAbsent(value, v -> strings.size());
+    }
+
+    private static void writeStrings(DataOutputStream out, Map<String, Integer> strings, List<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeInt(intern(strings, value));
+        }
+    }
+
+    private static void writeCompositeStates(DataOutputStream out, Map<String, Integer> strings,
+                                             List<CompositeStateJson> composites) throws IOException {
+        if (composites == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(composites.size());
+        for (CompositeStateJson composite : composites) {
+            out.writeInt(intern(strings, composite.getName()));
+            if (composite.getRegions() == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            out.writeInt(composite.getRegions().size());
+            for (RegionJson region : composite.getRegions()) {
+                out.writeInt(intern(strings, region.getName()));
+                out.writeInt(intern(strings, region.getInitialState()));
+                writeStrings(out, strings, region.getStates());
+            }
+        }
+    }
+
+    private static void writePseudoStates(DataOutputStream out, Map<String, Integer> strings,
+                                          List<PseudoStateJson> pseudoStates) throws IOException {
+        if (pseudoStates == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(pseudoStates.size());
+        for (PseudoStateJson pseudoState : pseudoStates) {
+            out.writeInt(intern(strings, pseudoState.getName()));
+            out.writeInt(intern(strings, pseudoState.getKind()));
+            if (pseudoState.getBranches() == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            out.writeInt(pseudoState.getBranches().size());
+            for (PseudoStateJson.BranchJson branch : pseudoState.getBranches()) {
+                out.writeInt(intern(strings, branch.getTarget()));
+                writeBlock(out, strings, branch.getGuard());
+                writeBlock(out, strings, branch.getAction());
+            }
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, Map<String, Integer> strings, ActionGuardJson block) throws IOException {
+        if (block == null) {
+            out.writeInt(NO_STRING);
+            out.writeByte(TAG_NULL);
+            out.writeInt(NO_STRING);
+            return;
+        }
+        out.writeInt(intern(strings, block.getName()));
+        writeValue(out, strings, block.getParams());
+        out.writeInt(intern(strings, block.getMode()));
+    }
+
+    private static void writeValue(DataOutputStream out, Map<String, Integer> strings, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Boolean b) {
+            out.writeByte(b ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer i) {
+            out.writeByte(TAG_INT);
+            out.writeInt(i);
+        } else if (value instanceof Long l) {
+            out.writeByte(TAG_LONG);
+            out.writeLong(l);
+        } else if (value instanceof Double d) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(d);
+        } else if (value instanceof String s) {
+            out.writeByte(TAG_STRING);
+            out.writeInt(intern(strings, s));
+        } else if (value instanceof List<?> list) {
+            out.writeByte(TAG_LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, strings, element);
+            }
+        } else if (value instanceof Map<?, ?> map) {
+            out.writeByte(TAG_MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                out.writeInt(intern(strings, String.valueOf(entry.getKey())));
+                writeValue(out, strings, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported param type: " + value.getClass().getName());
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, String[] strings) {
+        int index = buffer.getInt();
+        return index == NO_STRING ? null : strings[index];
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer, String[] strings) {
+        int count = buffer.getInt();
+        if (count < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(buffer, strings));
+        }
+        return values;
+    }
+
+    private static List<CompositeStateJson> readCompositeStates(ByteBuffer buffer, String[] strings) {
+        int count = buffer.getInt();
+        if (count < 0) {
+            return null;
+        }
+        List<CompositeStateJson> composites = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CompositeStateJson composite = new CompositeStateJson();
+            composite.setName(readString(buffer, strings));
+            int regionCount = buffer.getInt();
+            if (regionCount >= 0) {
+                List<RegionJson> regions = new ArrayList<>(regionCount);
+                for (int j = 0; j < regionCount; j++) {
+                    RegionJson region = new RegionJson();
+                    region.setName(readString(buffer, strings));
+                    region.setInitialState(readString(buffer, strings));
+                    region.setStates(readStrings(buffer, strings));
+                    regions.add(region);
+                }
+                composite.setRegions(regions);
+            }
+            composites.add(composite);
+        }
+        return composites;
+    }
+
+    private static List<PseudoStateJson> readPseudoStates(ByteBuffer buffer, String[] strings) {
+        int count = buffer.getInt();
+        if (count < 0) {
+            return null;
+        }
+        List<PseudoStateJson> pseudoStates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PseudoStateJson pseudoState = new PseudoStateJson();
+            pseudoState.setName(readString(buffer, strings));
+            pseudoState.setKind(readString(buffer, strings));
+            int branchCount = buffer.getInt();
+            if (branchCount >= 0) {
+                List<PseudoStateJson.BranchJson> branches = new ArrayList<>(branchCount);
+                for (int j = 0; j < branchCount; j++) {
+                    PseudoStateJson.BranchJson branch = new PseudoStateJson.BranchJson();
+                    branch.setTarget(readString(buffer, strings));
+                    branch.setGuard(readBlock(buffer, strings));
+                    branch.setAction(readBlock(buffer, strings));
+                    branches.add(branch);
+                }
+                pseudoState.setBranches(branches);
+            }
+            pseudoStates.add(pseudoState);
+        }
+        return pseudoStates;
+    }
+
+    private static ActionGuardJson readBlock(ByteBuffer buffer, String[] strings) {
+        String name = readString(buffer, strings);
+        Object params = readValue(buffer, strings);
+        String mode = readString(buffer, strings);
+        if (name == null && params == null && mode == null) {
+            return null;
+        }
+        ActionGuardJson block = new ActionGuardJson();
+        block.setName(name);
+        block.setParams(asParams(params));
+        block.setMode(mode);
+        return block;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asParams(Object params) {
+        if (params != null && !(params instanceof Map)) {
+            throw new IllegalArgumentException("Params of a guard or action must be a map");
+        }
+        return (Map<String, Object>) params;
+    }
+
+    private static Object readValue(ByteBuffer buffer, String[] strings) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_INT:
+                return buffer.getInt();
+            case TAG_LONG:
+                return buffer.getLong();
+            case TAG_DOUBLE:
+                return buffer.getDouble();
+            case TAG_STRING:
+                return readString(buffer, strings);
+            case TAG_LIST: {
+                int size = buffer.getInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer, strings));
+                }
+                return list;
+            }
+            case TAG_MAP: {
+                int size = buffer.getInt();
+                Map<String, Object> map = LinkedHashMap.newLinkedHashMap(size);
+                for (int i = 0; i < size; i++) {
+                    String key = readString(buffer, strings);
+                    map.put(key, readValue(buffer, strings));
+                }
+                return map;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown value tag in binary definition: " + tag);
+        }
+    }
+}
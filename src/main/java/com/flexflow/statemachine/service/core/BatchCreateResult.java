@@ -0,0 +1,23 @@
+package com.flexflow.statemachine.service.core;
+
+import lombok.Value;
+
+/**
+ * The outcome of a single item of a bulk entity creation request.
+ */
+@Value
+public class BatchCreateResult {
+    String businessId;
+    String machineId;
+    boolean success;
+    String currentState;
+    String error;
+
+    public static BatchCreateResult created(String businessId, String machineId, String currentState) {
+        return new BatchCreateResult(businessId, machineId, true, currentState, null);
+    }
+
+    public static BatchCreateResult failed(String businessId, String machineId, String error) {
+        return new BatchCreateResult(businessId, machineId, false, null, error);
+    }
+}
@@ -0,0 +1,35 @@
+package com.flexflow.statemachine.service.core;
+
+import lombok.Value;
+
+/**
+ * The outcome of a single item of a batch event request.
+ */
+@Value
+public class BatchEventResult {
+    String businessId;
+    String event;
+    boolean success;
+    boolean stateChanged;
+    /**
+     * What the event did, or null if the item failed.
+     */
+    TransitionResult.Outcome outcome;
+    String previousState;
+    String currentState;
+    String error;
+
+    /**
+     * @param accepted true if a transition fired, whether or not it changed the state.
+     */
+    public static BatchEventResult processed(String businessId, String event, String previousState, String currentState,
+                                             boolean accepted) {
+        TransitionResult.Outcome outcome = TransitionResult.Outcome.of(accepted, previousState, currentState);
+        return new BatchEventResult(businessId, event, true, outcome == TransitionResult.Outcome.STATE_CHANGED, outcome,
+                previousState, currentState, null);
+    }
+
+    public static BatchEventResult failed(String businessId, String event, String error) {
+        return new BatchEventResult(businessId, event, false, false, null, null, null, error);
+    }
+}
@@ -0,0 +1,97 @@
+package com.flexflow.statemachine.service.core;
+
+import com.flexflow.statemachine.config.DataLoader;
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.repository.DefinitionVersion;
+import com.flexflow.statemachine.repository.StateMachineDefinitionRepository;
+import com.flexflow.statemachine.service.engine.CompiledStateMachine;
+import com.flexflow.statemachine.service.engine.CompiledTransition;
+import com.flexflow.statemachine.service.metrics.StateMachineMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles every stored definition in parallel at startup, so the first event for a machineId does not pay
+ * for the database read, the JSON parse and the first build.
+ * <p>
+ * Spring Boot only reports the application ready (readiness probe ACCEPTING_TRAFFIC) after all runners
+ * have completed, so traffic is not routed to an instance until the warm-up is done. If any definition fails
+ * to compile, startup fails, rather than reporting ready with a definition that every event would fail on.
+ */
+@Component
+@Order(DataLoader.ORDER + 1)
+@RequiredArgsConstructor
+@Slf4j
+public class DefinitionWarmup implements ApplicationRunner {
+
+    private final StateMachineProperties properties;
+    private final StateMachineDefinitionRepository definitionRepository;
+    private final StateMachineBuilderFactory builderFactory;
+    private final StateMachineMetrics metrics;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        StateMachineProperties.Warmup config = properties.getWarmup();
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<DefinitionVersion> definitions = definitionRepository.findAllVersions();
+        int parallelism = config.getParallelism() > 0 ? config.getParallelism() : Runtime.getRuntime().availableProcessors();
+
+        int failures = 0;
+        try (ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(parallelism, definitions.size())),
+                Thread.ofPlatform().name("sm-warmup-", 0).factory())) {
+            List<Future<?>> futures = new ArrayList<>(definitions.size());
+            for (DefinitionVersion definition : definitions) {
+                futures.add(executor.submit(() -> warmUp(definition.getMachineId(), config.getIterations())));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (Exception e) {
+                    failures++;
+                    log.error("Failed to warm up definition for machineId: '{}'", definitions.get(i).getMachineId(), e);
+                }
+            }
+        }
+
+        metrics.recordWarmup(start, failures == 0);
+        if (failures > 0) {
+            throw new IllegalStateException("Failed to warm up " + failures + " of " + definitions.size()
+                    + " state machine definitions; see the errors above");
+        }
+        log.info("Warmed up {} state machine definitions in {}ms",
+                definitions.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void warmUp(String machineId, int iterations) {
+        CompiledStateMachine compiled = builderFactory.getCompiledMachine(machineId);
+        if (properties.getEngine() == StateMachineProperties.Engine.SPRING && compiled.isFlat()) {
+            // Build one machine, which stays in the pool if pooling is enabled.
+            PooledStateMachineFactory factory = builderFactory.getFactory(machineId);
+            StateMachine<String, String> stateMachine = factory.borrow();
+            factory.release(stateMachine);
+            return;
+        }
+
+        for (int i = 0; i < iterations; i++) {
+            for (CompiledTransition transition : compiled.getTransitions()) {
+                compiled.getTransitions(compiled.stateId(transition.getSource()), compiled.eventId(transition.getEvent()));
+            }
+        }
+    }
+}
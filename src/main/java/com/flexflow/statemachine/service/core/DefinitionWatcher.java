@@ -0,0 +1,86 @@
+package com.flexflow.statemachine.service.core;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.repository.DefinitionVersion;
+import com.flexflow.statemachine.repository.StateMachineDefinitionRepository;
+import com.flexflow.statemachine.service.cluster.DefinitionInvalidations;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the version stamps of all definitions and reloads those that changed since they were cached.
+ * Reloads run on the watcher thread, so requests keep using the cached version until the new one is swapped in.
+ * In cluster mode, the watcher always runs, so definitions updated on one node are installed on all of them, and it
+ * also clears the caches that another node cleared.
+ */
+@Component
+@Slf4j
+public class DefinitionWatcher {
+
+    private final StateMachineDefinitionRepository definitionRepository;
+    private final StateMachineBuilderFactory builderFactory;
+    private final DefinitionInvalidations invalidations;
+    private final ScheduledExecutorService poller;
+
+    public DefinitionWatcher(StateMachineProperties properties,
+                             StateMachineDefinitionRepository definitionRepository,
+                             StateMachineBuilderFactory builderFactory,
+                             DefinitionInvalidations invalidations) {
+        this.definitionRepository = definitionRepository;
+        this.builderFactory = builderFactory;
+        this.invalidations = invalidations;
+
+        StateMachineProperties.Reload config = properties.getReload();
+        if (config.isEnabled() || invalidations.isEnabled()) {
+            this.poller = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("sm-definition-watcher").factory());
+            long intervalMillis = config.getPollInterval().toMillis();
+            poller.scheduleWithFixedDelay(this::pollQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+            log.info("Definition hot reload enabled (poll every {}ms)", intervalMillis);
+        } else {
+            this.poller = null;
+        }
+    }
+
+    /**
+     * Clears the caches invalidated on other nodes, then reloads every cached definition whose version in the
+     * database is newer.
+     */
+    public void poll() {
+        for (String machineId : invalidations.poll()) {
+            builderFactory.clearLocalCache(machineId);
+        }
+
+        for (DefinitionVersion definition : definitionRepository.findAllVersions()) {
+            long version = definition.getVersion() != null ? definition.getVersion() : 0L;
+            if (!builderFactory.isStale(definition.getMachineId(), version)) {
+                continue;
+            }
+            try {
+                builderFactory.reloadIfStale(definition.getMachineId());
+            } catch (Exception e) {
+                log.error("Failed to reload definition for machineId: '{}'. Keeping the current version.",
+                        definition.getMachineId(), e);
+            }
+        }
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (Exception e) {
+            log.error("Failed to poll state machine definitions for changes", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+}
@@ -1,20 +1,54 @@
 package com.flexflow.statemachine.service.core;
 
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.controller.dto.BatchEventItem;
+import com.flexflow.statemachine.controller.dto.CreateEntityRequest;
+import com.flexflow.statemachine.machine.actions.ReactiveDynamicAction;
 import com.flexflow.statemachine.model.db.StatefulEntity;
+import com.flexflow.statemachine.model.db.TransitionLogEntry;
 import com.flexflow.statemachine.repository.StatefulEntityRepository;
-import com.flexflow.statemachine.service.persister.DynamicStateMachinePersister;
+import com.flexflow.statemachine.service.audit.AuditRecord;
+import com.flexflow.statemachine.service.audit.TransitionAudit;
+import com.flexflow.statemachine.service.cache.EntityStateCache;
+import com.flexflow.statemachine.service.dispatch.EntityEventDispatcher;
+import com.flexflow.statemachine.service.engine.CompiledStateMachine;
+import com.flexflow.statemachine.service.engine.CompiledStateMachineEngine;
+import com.flexflow.statemachine.service.history.TransitionLog;
+import com.flexflow.statemachine.service.metrics.StateMachineMetrics;
+import com.flexflow.statemachine.service.outbox.AsyncActionExecutor;
+import com.flexflow.statemachine.service.outbox.PendingAction;
+import com.flexflow.statemachine.service.persister.EntityStatePersister;
+import com.flexflow.statemachine.service.timer.TransitionTimers;
+import io.micrometer.observation.Observation;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.statemachine.StateMachine;
-import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.StateMachineEventResult;
 import org.springframework.statemachine.persist.DefaultStateMachinePersister;
 import org.springframework.statemachine.state.State;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The main service for interacting with the dynamic state machine system.
@@ -25,9 +59,29 @@ import java.util.Objects;
 @Slf4j
 public class DynamicStateMachineService {
 
+    /**
+     * Maximum number of business IDs per IN query when loading or creating entities in a batch.
+     */
+    private static final int IN_CLAUSE_CHUNK_SIZE = 1000;
+
+    private static final String BATCH_UPDATE_SQL =
+            "UPDATE stateful_entities SET current_state = ?, version = version + 1 WHERE business_id = ? AND version = ?";
+
     private final StateMachineBuilderFactory builderFactory;
     private final StatefulEntityRepository entityRepository;
-    private final DynamicStateMachinePersister persister;
+    private final EntityStatePersister persister;
+    private final CompiledStateMachineEngine compiledEngine;
+    private final StateMachineProperties properties;
+    private final EntityManager entityManager;
+    private final EntityStateCache stateCache;
+    private final EntityEventDispatcher dispatcher;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final StateMachineMetrics metrics;
+    private final TransitionLog transitionLog;
+    private final AsyncActionExecutor asyncActions;
+    private final TransitionAudit audit;
+    private final TransitionTimers timers;
 
     /**
      * Creates a new stateful entity and persists its initial state.
@@ -43,18 +97,91 @@ public class DynamicStateMachineService {
             throw new IllegalArgumentException("Entity with businessId '" + businessId + "' already exists.");
         }
 
-        StateMachineFactory<String, String> factory = builderFactory.getFactory(machineId);
-        StateMachine<String, String> stateMachine = factory.getStateMachine();
+        StatefulEntity newEntity = newEntity(businessId, machineId);
+
+        log.info("Creating new entity with businessId '{}', machineId '{}', initialState '{}'",
+                businessId, machineId, newEntity.getCurrentState());
+
+        return entityRepository.save(newEntity);
+    }
+
+    /**
+     * Creates many stateful entities at once.
+     * Existence is checked with one query per chunk, the initial state comes from the cached compiled definition,
+     * and the inserts of each chunk are JDBC-batched. The persistence context is cleared after every chunk,
+     * so memory use does not grow with the size of the request.
+     *
+     * @param requests The entities to create, each with a businessId and machineId.
+     * @return One result per request, in the same order. Duplicates and unknown machineIds are reported as failures.
+     */
+    @Transactional
+    public List<BatchCreateResult> createEntities(List<CreateEntityRequest> requests) {
+        log.info("Creating a batch of {} entities", requests.size());
+
+        List<BatchCreateResult> results = new ArrayList<>(requests.size());
+        Set<String> seen = new HashSet<>();
+
+        for (int i = 0; i < requests.size(); i += IN_CLAUSE_CHUNK_SIZE) {
+            List<CreateEntityRequest> chunk = requests.subList(i, Math.min(i + IN_CLAUSE_CHUNK_SIZE, requests.size()));
+
+            List<String> chunkIds = new ArrayList<>(chunk.size());
+            for (CreateEntityRequest request : chunk) {
+                if (request.getBusinessId() != null) {
+                    chunkIds.add(request.getBusinessId());
+                }
+            }
+            Set<String> existing = new HashSet<>(entityRepository.findExistingBusinessIds(chunkIds));
+
+            List<StatefulEntity> toInsert = new ArrayList<>(chunk.size());
+            for (CreateEntityRequest request : chunk) {
+                String businessId = request.getBusinessId();
+                if (businessId == null || request.getMachineId() == null) {
+                    results.add(BatchCreateResult.failed(businessId, request.getMachineId(), "businessId and machineId are required."));
+                } else if (existing.contains(businessId) || !seen.add(businessId)) {
+                    results.add(BatchCreateResult.failed(businessId, request.getMachineId(),
+                            "Entity with businessId '" + businessId + "' already exists."));
+                } else {
+                    try {
+                        StatefulEntity entity = newEntity(businessId, request.getMachineId());
+                        toInsert.add(entity);
+                        results.add(BatchCreateResult.created(businessId, entity.getMachineId(), entity.getCurrentState()));
+                    } catch (Exception e) {
+                        results.add(BatchCreateResult.failed(businessId, request.getMachineId(), e.getMessage()));
+                    }
+                }
+            }
+
+            entityRepository.saveAll(toInsert);
+            entityRepository.flush();
+            entityManager.clear();
+        }
+        return results;
+    }
 
+    private StatefulEntity newEntity(String businessId, String machineId) {
         StatefulEntity newEntity = new StatefulEntity();
         newEntity.setBusinessId(businessId);
         newEntity.setMachineId(machineId);
-        newEntity.setCurrentState(stateMachine.getInitialState().getId());
+        newEntity.setCurrentState(builderFactory.getCompiledMachine(machineId).getInitialState());
+        timers.initialize(newEntity);
+        return newEntity;
+    }
 
-        log.info("Creating new entity with businessId '{}', machineId '{}', initialState '{}'",
-                businessId, machineId, newEntity.getCurrentState());
+    /**
+     * Finds a stateful entity by its business ID, reflecting state changes not yet flushed to the database.
+     */
+    public Optional<StatefulEntity> findEntity(String businessId) {
+        return persister.find(businessId);
+    }
 
-        return entityRepository.save(newEntity);
+    /**
+     * Returns the transition history of an entity from the event log, oldest first.
+     */
+    public List<TransitionLogEntry> getHistory(String businessId) {
+        if (!transitionLog.isEnabled()) {
+            throw new IllegalStateException("The event log is not enabled.");
+        }
+        return transitionLog.history(businessId);
     }
 
     /**
@@ -63,54 +190,448 @@ public class DynamicStateMachineService {
      * @param businessId The ID of the entity to trigger the event on.
      * @param event      The event to trigger.
      * @param headers    A map of headers to pass to the state machine context (for guards/actions).
-     * @return true if the event was accepted AND resulted in a state change, false otherwise.
+     * @return The result of the event; {@link TransitionResult#getOutcome()} tells apart events that changed the state,
+     * were accepted without changing it (self-transitions), and were rejected.
      */
     @Transactional
-    public boolean triggerEvent(String businessId, String event, Map<String, Object> headers) {
-        log.info("Attempting to trigger event '{}' for entity '{}'", event, businessId);
-        try {
-            StatefulEntity entity = entityRepository.findByBusinessId(businessId)
-                    .orElseThrow(() -> new IllegalArgumentException("Entity not found: " + businessId));
+    public TransitionResult triggerEvent(String businessId, String event, Map<String, Object> headers) {
+        return doTriggerEvent(businessId, event, headers);
+    }
+
+    /**
+     * Triggers an event without blocking the caller.
+     * The event runs on the entity's dispatcher lane if the dispatcher is enabled, otherwise on a virtual thread,
+     * in its own transaction. Callers can fan out large numbers of concurrent triggers without exhausting a thread pool.
+     *
+     * @return A future completed with the result of the event, or exceptionally if it failed.
+     */
+    public CompletableFuture<TransitionResult> triggerEventAsync(String businessId, String event, Map<String, Object> headers) {
+        return dispatcher.dispatch(businessId,
+                () -> transactionTemplate.execute(status -> doTriggerEvent(businessId, event, headers)));
+    }
+
+    private TransitionResult doTriggerEvent(String businessId, String event, Map<String, Object> headers) {
+        log.debug("Attempting to trigger event '{}' for entity '{}'", event, businessId);
+        Observation observation = metrics.startTrigger();
+        try (Observation.Scope scope = observation.openScope()) {
+            StatefulEntity entity = persister.load(businessId);
+            observation.lowCardinalityKeyValue("machineId", entity.getMachineId());
+            observation.lowCardinalityKeyValue("event", eventTag(entity.getMachineId(), event));
+
+            TransitionResult result;
+            if (properties.getEngine() == StateMachineProperties.Engine.COMPILED || runsOnCompiledTable(entity, event)) {
+                result = triggerCompiled(entity, event, headers);
+            } else {
+                PooledStateMachineFactory factory = builderFactory.getFactory(entity.getMachineId());
+                StateMachine<String, String> stateMachine = factory.borrow();
+                try {
+                    result = sendEvent(stateMachine, entity, event, headers);
+                } finally {
+                    factory.release(stateMachine);
+                }
+            }
+
+            recordResult(entity.getMachineId(), result);
+            observation.lowCardinalityKeyValue("stateChanged", String.valueOf(result.isStateChanged()));
+            observation.lowCardinalityKeyValue("outcome", result.getOutcome().name());
+            return result;
+
+        } catch (Exception e) {
+            observation.error(e);
+            log.error("Error triggering event for businessId: {}", businessId, e);
+            throw new RuntimeException("Failed to trigger event for " + businessId, e);
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * On the spring engine, two kinds of events take the compiled path.
+     * Self-transitions without a guard or action cannot change anything, so no StateMachine is borrowed or restored
+     * and nothing is written; they are detected per (state, event) when the definition is compiled, see
+     * {@link CompiledStateMachine#isSelfLoop}. Guarded or actioned self-transitions still run on the StateMachine,
+     * so that their guards and actions see the same context as on any other transition. Definitions with composite states or pseudo-states always run
+     * on the compiled table, which stores the entity's configuration of regions in a single column.
+     */
+    private boolean runsOnCompiledTable(StatefulEntity entity, String event) {
+        CompiledStateMachine machine = builderFactory.getCompiledMachine(entity.getMachineId());
+        return !machine.isFlat() || machine.isSelfLoop(machine.stateId(entity.getCurrentState()), machine.eventId(event));
+    }
+
+    /**
+     * Triggers an event on the reactive path. With the compiled engine, the entity is loaded and the new state
+     * persisted on the bounded elastic scheduler, and {@link ReactiveDynamicAction}s run without holding any thread
+     * or database connection while they wait. The persist runs in its own short
+     * transaction and relies on the entity's version to detect concurrent changes; async actions of the
+     * transition are recorded in the action outbox in that same transaction.
+     * With the spring engine, the blocking trigger runs on the bounded elastic scheduler.
+     *
+     * @return A Mono of the result of the event, or an error if it failed.
+     */
+    public Mono<TransitionResult> triggerEventReactive(String businessId, String event, Map<String, Object> headers) {
+        if (properties.getEngine() != StateMachineProperties.Engine.COMPILED) {
+            return Mono.fromCallable(() -> transactionTemplate.execute(status -> doTriggerEvent(businessId, event, headers)))
+                    .subscribeOn(Schedulers.boundedElastic());
+        }
+
+        return Mono.fromCallable(() -> persister.load(businessId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(entity -> {
+                    CompiledStateMachine machine = builderFactory.getCompiledMachine(entity.getMachineId());
+                    String beforeState = entity.getCurrentState();
+                    List<PendingAction> pendingActions = new ArrayList<>(1);
+                    return compiledEngine.fireReactive(machine, businessId, beforeState, event, headers)
+                            .map(Optional::of)
+                            .defaultIfEmpty(Optional.empty())
+                            .contextWrite(Context.of(AsyncActionExecutor.PENDING_CONTEXT_KEY, pendingActions))
+                            .publishOn(Schedulers.boundedElastic())
+                            .map(afterState -> persistReactive(entity, beforeState, afterState.orElse(null), event, headers,
+                                    pendingActions));
+                })
+                .doOnError(e -> log.error("Error triggering event for businessId: {}", businessId, e));
+    }
+
+    private TransitionResult persistReactive(StatefulEntity entity, String beforeState, String afterState,
+                                             String event, Map<String, Object> headers, List<PendingAction> pendingActions) {
+        TransitionResult.Outcome outcome = TransitionResult.Outcome.of(afterState != null, beforeState, afterState);
+        boolean stateChanged = outcome == TransitionResult.Outcome.STATE_CHANGED;
+        if (stateChanged || !pendingActions.isEmpty()) {
+            long phaseStart = System.nanoTime();
+            transactionTemplate.executeWithoutResult(status -> {
+                if (stateChanged) {
+                    persister.persistState(entity, afterState, event, headers);
+                    timers.stateChanged(entity);
+                }
+                asyncActions.enqueueAll(pendingActions);
+            });
+            metrics.recordPhase(entity.getMachineId(), StateMachineMetrics.PHASE_PERSIST, phaseStart);
+        }
+        TransitionResult result = new TransitionResult(entity.getBusinessId(), event, beforeState, entity.getCurrentState(), outcome);
+        recordResult(entity.getMachineId(), result);
+        return result;
+    }
+
+    /**
+     * Audits the outcome of an event and records its metrics. Within a transaction, the audit record is only
+     * written once the transaction commits.
+     */
+    private void recordResult(String machineId, TransitionResult result) {
+        audit.transition(result.getBusinessId(), machineId, result.getEvent(), result.getPreviousState(),
+                result.getCurrentState(), switch (result.getOutcome()) {
+                    case STATE_CHANGED -> AuditRecord.Type.TRANSITION;
+                    case ACCEPTED -> AuditRecord.Type.ACCEPTED;
+                    case REJECTED -> AuditRecord.Type.REJECTED;
+                });
+        if (result.isAccepted()) {
+            metrics.recordTransition(machineId, result.getEvent(), result.getPreviousState(), result.getCurrentState());
+        } else {
+            metrics.recordRejected(machineId, eventTag(machineId, result.getEvent()), result.getPreviousState());
+        }
+    }
+
+    /**
+     * @return The event if the machine defines it, otherwise {@link StateMachineMetrics#UNKNOWN_EVENT}, so that
+     * arbitrary event names from requests never become tag values.
+     */
+    private String eventTag(String machineId, String event) {
+        CompiledStateMachine machine = builderFactory.getCompiledMachine(machineId);
+        return machine.eventId(event) != CompiledStateMachine.UNKNOWN ? event : StateMachineMetrics.UNKNOWN_EVENT;
+    }
+
+    /**
+     * Restores the machine to the entity's persisted state, sends the event and persists the result.
+     * The new state is persisted directly rather than through the StateMachinePersister, so that the event and
+     * its headers reach the event log.
+     */
+    private TransitionResult sendEvent(StateMachine<String, String> stateMachine, StatefulEntity entity,
+                                       String event, Map<String, Object> headers) throws Exception {
+        String businessId = entity.getBusinessId();
+        String machineId = entity.getMachineId();
+        long phaseStart = System.nanoTime();
+        new DefaultStateMachinePersister<>(persister).restore(stateMachine, entity);
+        metrics.recordPhase(machineId, StateMachineMetrics.PHASE_RESTORE, phaseStart);
+
+        // 1. Get the state before the event is sent.
+        State<String, String> beforeState = stateMachine.getState();
+
+        MessageBuilder<String> messageBuilder = MessageBuilder
+                .withPayload(event)
+                .setHeader("entityId", businessId);
+
+        if (headers != null) {
+            headers.forEach(messageBuilder::setHeader);
+        }
+
+        // 2. Send the event.
+        phaseStart = System.nanoTime();
+        StateMachineEventResult<String, String> eventResult = stateMachine.sendEvent(Mono.just(messageBuilder.build())).blockLast();
+        boolean accepted = eventResult != null && eventResult.getResultType() == StateMachineEventResult.ResultType.ACCEPTED;
+        metrics.recordPhase(machineId, StateMachineMetrics.PHASE_SEND_EVENT, phaseStart);
+
+        // 3. Get the state AFTER the event.
+        State<String, String> afterState = stateMachine.getState();
 
-            StateMachineFactory<String, String> factory = builderFactory.getFactory(entity.getMachineId());
-            StateMachine<String, String> stateMachine = factory.getStateMachine();
+        // 4. Compare the states. Only persist if the state has actually changed.
+        boolean stateChanged = !Objects.equals(beforeState.getId(), afterState.getId());
+        TransitionResult.Outcome outcome = stateChanged ? TransitionResult.Outcome.STATE_CHANGED
+                : accepted ? TransitionResult.Outcome.ACCEPTED : TransitionResult.Outcome.REJECTED;
+
+        if (stateChanged) {
+            log.debug("Event '{}' accepted for entity '{}'. Persisting new state.", event, businessId);
+            phaseStart = System.nanoTime();
+            persister.persistState(entity, afterState.getId(), event, headers);
+            timers.stateChanged(entity);
+            metrics.recordPhase(machineId, StateMachineMetrics.PHASE_PERSIST, phaseStart);
+        } else {
+            log.debug("Event '{}' was handled but did not result in a state change for entity '{}'. Current state: {}",
+                    event, businessId, stateMachine.getState().getId());
+        }
+
+        return new TransitionResult(businessId, event, beforeState.getId(), afterState.getId(), outcome);
+    }
+
+    /**
+     * Processes an event using the pre-compiled transition table instead of building a StateMachine.
+     * There is no restore phase; the lookup plus guard and action calls are recorded as the sendEvent phase.
+     */
+    private TransitionResult triggerCompiled(StatefulEntity entity, String event, Map<String, Object> headers) {
+        CompiledStateMachine machine = builderFactory.getCompiledMachine(entity.getMachineId());
+        String beforeState = entity.getCurrentState();
+
+        long phaseStart = System.nanoTime();
+        String afterState = compiledEngine.fire(machine, entity.getBusinessId(), beforeState, event, headers);
+        metrics.recordPhase(entity.getMachineId(), StateMachineMetrics.PHASE_SEND_EVENT, phaseStart);
+
+        TransitionResult.Outcome outcome = TransitionResult.Outcome.of(afterState != null, beforeState, afterState);
+
+        if (outcome == TransitionResult.Outcome.STATE_CHANGED) {
+            log.debug("Event '{}' accepted for entity '{}'. Persisting new state.", event, entity.getBusinessId());
+            phaseStart = System.nanoTime();
+            persister.persistState(entity, afterState, event, headers);
+            timers.stateChanged(entity);
+            metrics.recordPhase(entity.getMachineId(), StateMachineMetrics.PHASE_PERSIST, phaseStart);
+        } else {
+            log.debug("Event '{}' was {} without a state change for entity '{}'. Current state: {}",
+                    event, outcome == TransitionResult.Outcome.ACCEPTED ? "accepted" : "rejected", entity.getBusinessId(), beforeState);
+        }
 
-            DefaultStateMachinePersister<String, String, String> smp = new DefaultStateMachinePersister<>(persister);
-            smp.restore(stateMachine, businessId);
+        return new TransitionResult(entity.getBusinessId(), event, beforeState, entity.getCurrentState(), outcome);
+    }
 
-            // 1. Get the state before the event is sent.
-            State<String, String> beforeState = stateMachine.getState();
+    /**
+     * Triggers a batch of events in a single transaction.
+     * All entities are loaded with IN queries, transitions run in memory on the compiled transition table,
+     * and changed entities are written at the end as one JDBC batch of conditional, versioned updates.
+     * Several events for the same entity are applied in order and result in a single update.
+     * If an entity was modified concurrently, its items fail with a conflict and the rest of the batch is written.
+     *
+     * @param items The events to trigger, in processing order.
+     * @return One result per item, in the same order as the items.
+     */
+    @Transactional
+    public List<BatchEventResult> triggerEvents(List<BatchEventItem> items) {
+        log.info("Attempting to trigger a batch of {} events", items.size());
 
-            MessageBuilder<String> messageBuilder = MessageBuilder
-                    .withPayload(event)
-                    .setHeader("entityId", businessId);
+        if (!persister.writesEntityRows()) {
+            return triggerEventsThroughPersister(items);
+        }
 
-            if (headers != null) {
-                headers.forEach(messageBuilder::setHeader);
+        Set<String> businessIds = new LinkedHashSet<>();
+        for (BatchEventItem item : items) {
+            if (item.getBusinessId() != null) {
+                businessIds.add(item.getBusinessId());
             }
+        }
 
-            // 2. Send the event.
-            stateMachine.sendEvent(messageBuilder.build());
+        // The batch writes through JPA, so any cached or unflushed state for these entities must be settled first.
+        stateCache.evict(businessIds);
 
-            // 3. Get the state AFTER the event.
-            State<String, String> afterState = stateMachine.getState();
+        Map<String, StatefulEntity> entities = new HashMap<>(businessIds.size() * 2);
+        List<String> ids = new ArrayList<>(businessIds);
+        for (int i = 0; i < ids.size(); i += IN_CLAUSE_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(i, Math.min(i + IN_CLAUSE_CHUNK_SIZE, ids.size()));
+            entityRepository.findAllByBusinessIdIn(chunk)
+                    .forEach(entity -> entities.put(entity.getBusinessId(), entity));
+        }
+        // Changes are written with conditional updates at the end, never by a JPA flush.
+        entities.values().forEach(entityManager::detach);
 
-            // 4. Compare the states. Only persist if the state has actually changed.
-            boolean stateChanged = !Objects.equals(beforeState.getId(), afterState.getId());
+        // With the event log, the loaded rows are snapshots: replay them, and append the transitions to the log.
+        List<TransitionLogEntry> logEntries = transitionLog.isEnabled() ? new ArrayList<>() : null;
+        if (logEntries != null) {
+            transitionLog.replayAll(entities.values());
+        }
 
-            if (stateChanged) {
-                log.info("Event '{}' accepted for entity '{}'. Persisting new state.", event, businessId);
-                smp.persist(stateMachine, businessId);
+        List<BatchEventResult> results = new ArrayList<>(items.size());
+        Set<StatefulEntity> changed = new LinkedHashSet<>();
+        // Async actions are recorded in the outbox only for the entities that are written.
+        Map<String, List<PendingAction>> pendingActions = new LinkedHashMap<>();
+        for (BatchEventItem item : items) {
+            results.add(applyBatchItem(item, entities.get(item.getBusinessId()), logEntries, changed, pendingActions));
+        }
+
+        Set<String> conflicts = logEntries != null ? appendBatchToLog(logEntries, entities) : writeBatch(changed);
+        if (!conflicts.isEmpty()) {
+            log.warn("{} entities of the batch were modified concurrently; their events were not applied", conflicts.size());
+            for (int i = 0; i < items.size(); i++) {
+                String businessId = items.get(i).getBusinessId();
+                if (conflicts.contains(businessId) && results.get(i).isSuccess()) {
+                    results.set(i, BatchEventResult.failed(businessId, items.get(i).getEvent(),
+                            "Entity '" + businessId + "' was modified concurrently; the event was not applied."));
+                }
+            }
+            changed.removeIf(entity -> conflicts.contains(entity.getBusinessId()));
+        }
+        pendingActions.forEach((businessId, actions) -> {
+            if (!conflicts.contains(businessId)) {
+                asyncActions.enqueueAll(actions);
+            }
+        });
+        for (BatchEventResult result : results) {
+            if (result.isSuccess()) {
+                recordResult(entities.get(result.getBusinessId()).getMachineId(), new TransitionResult(result.getBusinessId(),
+                        result.getEvent(), result.getPreviousState(), result.getCurrentState(), result.getOutcome()));
+            }
+        }
+        timers.stateChanged(changed);
+        return results;
+    }
+
+    /**
+     * Writes the changed entities of a batch with one JDBC batch of updates conditional on the version they were
+     * loaded at.
+     *
+     * @return The businessIds of the entities that were modified concurrently and not written.
+     */
+    private Set<String> writeBatch(Set<StatefulEntity> changed) {
+        if (changed.isEmpty()) {
+            return Set.of();
+        }
+        List<StatefulEntity> writes = new ArrayList<>(changed);
+        List<Object[]> args = new ArrayList<>(writes.size());
+        for (StatefulEntity entity : writes) {
+            args.add(new Object[]{entity.getCurrentState(), entity.getBusinessId(), entity.getVersion()});
+        }
+        int[] counts = jdbcTemplate.batchUpdate(BATCH_UPDATE_SQL, args);
+
+        Set<String> conflicts = new HashSet<>();
+        for (int i = 0; i < writes.size(); i++) {
+            StatefulEntity entity = writes.get(i);
+            if (counts[i] == 0) {
+                conflicts.add(entity.getBusinessId());
             } else {
-                log.warn("Event '{}' was handled but did not result in a state change for entity '{}'. Current state: {}",
-                        event, businessId, stateMachine.getState().getId());
+                entity.setVersion(entity.getVersion() + 1);
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * Applies a batch item by item through the persister, for persisters that do not store state in the entity rows.
+     */
+    private List<BatchEventResult> triggerEventsThroughPersister(List<BatchEventItem> items) {
+        List<BatchEventResult> results = new ArrayList<>(items.size());
+        for (BatchEventItem item : items) {
+            Optional<StatefulEntity> entity = item.getBusinessId() != null ? persister.find(item.getBusinessId()) : Optional.empty();
+            if (entity.isEmpty()) {
+                results.add(BatchEventResult.failed(item.getBusinessId(), item.getEvent(), "Entity not found: " + item.getBusinessId()));
+                continue;
+            }
+            try {
+                // Async actions of an item that fails, e.g. on a version conflict, must not be recorded in the outbox.
+                List<PendingAction> pendingActions = new ArrayList<>();
+                TransitionResult result = asyncActions.collecting(pendingActions,
+                        () -> triggerCompiled(entity.get(), item.getEvent(), item.getHeaders()));
+                asyncActions.enqueueAll(pendingActions);
+                recordResult(entity.get().getMachineId(), result);
+                results.add(BatchEventResult.processed(result.getBusinessId(), item.getEvent(),
+                        result.getPreviousState(), result.getCurrentState(), result.isAccepted()));
+            } catch (Exception e) {
+                log.error("Error triggering event '{}' for businessId: {} in batch", item.getEvent(), item.getBusinessId(), e);
+                results.add(BatchEventResult.failed(item.getBusinessId(), item.getEvent(), e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Appends the transitions of a batch to the event log in one JDBC batch and refreshes the snapshots that are due.
+     * The append runs in a savepoint; if an entity was modified concurrently, the entries are appended again entity
+     * by entity, each in its own savepoint, to find out which entities conflict.
+     *
+     * @return The businessIds of the entities that were modified concurrently and not written.
+     */
+    private Set<String> appendBatchToLog(List<TransitionLogEntry> logEntries, Map<String, StatefulEntity> entities) {
+        TransactionTemplate savepoint = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        savepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+
+        Set<String> conflicts = new HashSet<>();
+        try {
+            savepoint.executeWithoutResult(status -> transitionLog.append(logEntries));
+        } catch (ObjectOptimisticLockingFailureException e) {
+            Map<String, List<TransitionLogEntry>> byEntity = new LinkedHashMap<>();
+            for (TransitionLogEntry entry : logEntries) {
+                byEntity.computeIfAbsent(entry.getBusinessId(), id -> new ArrayList<>()).add(entry);
             }
+            byEntity.forEach((businessId, entries) -> {
+                try {
+                    savepoint.executeWithoutResult(status -> transitionLog.append(entries));
+                } catch (ObjectOptimisticLockingFailureException conflict) {
+                    conflicts.add(businessId);
+                }
+            });
+        }
 
-            return stateChanged;
+        Set<String> snapshotDue = new HashSet<>();
+        for (TransitionLogEntry entry : logEntries) {
+            if (transitionLog.isSnapshotDue(entry.getSequence()) && !conflicts.contains(entry.getBusinessId())) {
+                snapshotDue.add(entry.getBusinessId());
+            }
+        }
+        for (String businessId : snapshotDue) {
+            StatefulEntity entity = entities.get(businessId);
+            entityRepository.updateSnapshot(businessId, entity.getCurrentState(), entity.getVersion());
+        }
+        return conflicts;
+    }
 
+    /**
+     * @param pendingActions Collects the async actions of the item's transition, by businessId, to be enqueued once
+     *                       the entity is written.
+     */
+    private BatchEventResult applyBatchItem(BatchEventItem item, StatefulEntity entity, List<TransitionLogEntry> logEntries,
+                                            Set<StatefulEntity> changed, Map<String, List<PendingAction>> pendingActions) {
+        if (entity == null) {
+            return BatchEventResult.failed(item.getBusinessId(), item.getEvent(), "Entity not found: " + item.getBusinessId());
+        }
+        try {
+            CompiledStateMachine machine = builderFactory.getCompiledMachine(entity.getMachineId());
+            String beforeState = entity.getCurrentState();
+            List<PendingAction> actions = new ArrayList<>();
+            String afterState = asyncActions.collecting(actions,
+                    () -> compiledEngine.fire(machine, entity.getBusinessId(), beforeState, item.getEvent(), item.getHeaders()));
+            if (!actions.isEmpty()) {
+                pendingActions.computeIfAbsent(entity.getBusinessId(), id -> new ArrayList<>()).addAll(actions);
+            }
+
+            boolean stateChanged = afterState != null && !afterState.equals(beforeState);
+            if (stateChanged) {
+                changed.add(entity);
+            }
+            if (stateChanged && logEntries != null) {
+                // The entity is detached; the change is written to the event log at the end of the batch.
+                logEntries.add(transitionLog.entry(entity, afterState, item.getEvent(), item.getHeaders()));
+                entity.setCurrentState(afterState);
+                entity.setVersion(entity.getVersion() + 1);
+            } else if (stateChanged) {
+                // The entity is detached; the change is written with a conditional update at the end of the batch.
+                entity.setCurrentState(afterState);
+            }
+            return BatchEventResult.processed(entity.getBusinessId(), item.getEvent(), beforeState, entity.getCurrentState(),
+                    afterState != null);
         } catch (Exception e) {
-            log.error("Error triggering event for businessId: {}", businessId, e);
-            throw new RuntimeException("Failed to trigger event for " + businessId, e);
+            log.error("Error triggering event '{}' for businessId: {} in batch", item.getEvent(), item.getBusinessId(), e);
+            return BatchEventResult.failed(item.getBusinessId(), item.getEvent(), e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
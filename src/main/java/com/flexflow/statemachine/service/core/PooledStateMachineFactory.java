@@ -0,0 +1,148 @@
+package com.flexflow.statemachine.service.core;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A StateMachineFactory for a single machineId that keeps a bounded pool of built machines.
+ * Callers {@link #borrow()} a machine, restore it to the entity's state, and {@link #release(StateMachine)} it afterwards,
+ * so machines are reused across events instead of being built and discarded every time.
+ * When pooling is disabled, borrow builds a new machine and release simply drops it.
+ */
+@Slf4j
+public class PooledStateMachineFactory implements StateMachineFactory<String, String> {
+
+    private final String machineId;
+    private final Supplier<StateMachine<String, String>> machineBuilder;
+    private final boolean pooled;
+    private final Duration checkoutTimeout;
+
+    private final BlockingQueue<StateMachine<String, String>> idle;
+    private final Semaphore permits;
+    private volatile boolean closed;
+
+    /**
+     * Shared by all pools of the machineId, including those of later versions, so they are not removed on close.
+     */
+    private final Timer checkoutTimer;
+    private final Counter checkoutTimeouts;
+
+    public PooledStateMachineFactory(String machineId, Supplier<StateMachine<String, String>> machineBuilder,
+                                     boolean pooled, int maxSize, Duration checkoutTimeout, MeterRegistry meterRegistry) {
+        this.machineId = machineId;
+        this.machineBuilder = machineBuilder;
+        this.pooled = pooled;
+        this.checkoutTimeout = checkoutTimeout;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+        this.permits = new Semaphore(maxSize);
+
+        this.checkoutTimer = Timer.builder("statemachine.pool.checkout")
+                .description("Time spent waiting to borrow a pooled state machine")
+                .tag("machineId", machineId)
+                .register(meterRegistry);
+        this.checkoutTimeouts = Counter.builder("statemachine.pool.checkout.timeouts")
+                .description("Number of borrow attempts that timed out")
+                .tag("machineId", machineId)
+                .register(meterRegistry);
+    }
+
+    public int idleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Builds a new, unpooled machine. Callers of this method own the machine and must not release it.
+     */
+    @Override
+    public StateMachine<String, String> getStateMachine() {
+        return machineBuilder.get();
+    }
+
+    @Override
+    public StateMachine<String, String> getStateMachine(String id) {
+        return getStateMachine();
+    }
+
+    @Override
+    public StateMachine<String, String> getStateMachine(UUID uuid) {
+        return getStateMachine();
+    }
+
+    /**
+     * Checks a machine out of the pool, building a new one if no idle machine is available.
+     * The returned machine is in an undefined state and must be restored before use.
+     *
+     * @throws IllegalStateException if no machine becomes available within the checkout timeout.
+     */
+    public StateMachine<String, String> borrow() {
+        if (!pooled) {
+            return machineBuilder.get();
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(checkoutTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                checkoutTimeouts.increment();
+                throw new IllegalStateException("Timed out after " + checkoutTimeout.toMillis()
+                        + "ms waiting for a state machine for machineId: " + machineId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a state machine for machineId: " + machineId, e);
+        } finally {
+            checkoutTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        try {
+            StateMachine<String, String> stateMachine = idle.poll();
+            return stateMachine != null ? stateMachine : machineBuilder.get();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a borrowed machine to the pool. Machines that are in error, or that are returned
+     * after the pool has been closed, are stopped and discarded.
+     */
+    public void release(StateMachine<String, String> stateMachine) {
+        if (!pooled) {
+            return;
+        }
+
+        try {
+            if (closed || stateMachine.hasStateMachineError() || !idle.offer(stateMachine)) {
+                stateMachine.stopReactively().block();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes the pool. Idle machines are stopped immediately; machines still checked out are
+     * stopped when they are released.
+     */
+    public void close() {
+        closed = true;
+        List<StateMachine<String, String>> drained = new ArrayList<>();
+        idle.drainTo(drained);
+        drained.forEach(stateMachine -> stateMachine.stopReactively().block());
+        log.info("Closed state machine pool for machineId: '{}' ({} idle machines discarded)", machineId, drained.size());
+    }
+}
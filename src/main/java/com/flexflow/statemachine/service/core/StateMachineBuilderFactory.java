@@ -1,24 +1,36 @@
 package com.flexflow.statemachine.service.core;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flexflow.statemachine.config.StateMachineProperties;
 import com.flexflow.statemachine.model.db.StateMachineDefinition;
 import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
-import com.flexflow.statemachine.model.json.TransitionJson;
+import com.flexflow.statemachine.repository.DefinitionBinary;
 import com.flexflow.statemachine.repository.StateMachineDefinitionRepository;
-import com.flexflow.statemachine.service.registry.ActionRegistry;
-import com.flexflow.statemachine.service.registry.GuardRegistry;
+import com.flexflow.statemachine.service.cluster.DefinitionInvalidations;
+import com.flexflow.statemachine.service.codec.BinaryDefinitionCodec;
+import com.flexflow.statemachine.service.engine.CompiledStateMachine;
+import com.flexflow.statemachine.service.engine.CompiledTransition;
+import com.flexflow.statemachine.service.engine.StateMachineCompiler;
+import com.flexflow.statemachine.service.metrics.StateMachineMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.config.StateMachineBuilder;
-import org.springframework.statemachine.config.StateMachineFactory;
 import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
+import org.springframework.statemachine.config.configurers.StateConfigurer;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.Collections;
 import java.util.Set;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -31,114 +43,322 @@ import java.util.stream.Collectors;
 public class StateMachineBuilderFactory {
 
     private final StateMachineDefinitionRepository definitionRepository;
-    private final ActionRegistry actionRegistry;
-    private final GuardRegistry guardRegistry;
+    private final StateMachineCompiler compiler;
+    private final StateMachineProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final StateMachineMetrics metrics;
+    private final BinaryDefinitionCodec codec;
+    private final DefinitionInvalidations invalidations;
+    private final TransactionTemplate transactionTemplate;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private final ConcurrentHashMap<String, StateMachineFactory<String, String>> factoryCache = new ConcurrentHashMap<>();
+    /**
+     * Re-encodes stale binaries off the request path: loads run inside cache computations and callers' transactions,
+     * where a write would hold the map lock during I/O, take row locks, and be rolled back with a failed trigger.
+     */
+    private final ExecutorService binaryRefresher =
+            Executors.newSingleThreadExecutor(Thread.ofPlatform().name("sm-definition-binary").factory());
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Cache entries are replaced as a whole when a newer definition is reloaded. Triggers that already
+     * obtained the previous factory or compiled machine complete on that version.
+     */
+    private final ConcurrentHashMap<String, Versioned<PooledStateMachineFactory>> factoryCache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Versioned<CompiledStateMachine>> compiledCache = new ConcurrentHashMap<>();
 
-    public StateMachineFactory<String, String> getFactory(String machineId) {
-        return factoryCache.computeIfAbsent(machineId, this::buildFactory);
+    public PooledStateMachineFactory getFactory(String machineId) {
+        Versioned<PooledStateMachineFactory> factory = factoryCache.get(machineId);
+        metrics.recordCacheLookup("factory", factory != null);
+        return (factory != null ? factory : factoryCache.computeIfAbsent(machineId, this::buildFactory)).value();
     }
 
-    private StateMachineFactory<String, String> buildFactory(String machineId) {
-        log.info("Cache miss for machineId: '{}'. Building new StateMachineFactory.", machineId);
+    /**
+     * Returns the compiled transition table for a machineId, compiling it on first use.
+     */
+    public CompiledStateMachine getCompiledMachine(String machineId) {
+        Versioned<CompiledStateMachine> compiled = compiledCache.get(machineId);
+        metrics.recordCacheLookup("compiled", compiled != null);
+        return (compiled != null ? compiled : compiledCache.computeIfAbsent(machineId, this::compileMachine)).value();
+    }
+
+    /**
+     * @return true if a factory or compiled machine is cached for the machineId and was built from an older version.
+     */
+    public boolean isStale(String machineId, long version) {
+        Versioned<PooledStateMachineFactory> factory = factoryCache.get(machineId);
+        Versioned<CompiledStateMachine> compiled = compiledCache.get(machineId);
+        return (factory != null && factory.version() < version) || (compiled != null && compiled.version() < version);
+    }
+
+    /**
+     * Validates a new definition, stores it and installs it in the caches.
+     * An invalid definition is rejected before anything is written.
+     *
+     * @return The version of the stored definition.
+     * @throws IllegalArgumentException if the definition is invalid or its machineId does not match.
+     */
+    public long updateDefinition(String machineId, String definitionJson) {
+        StateMachineDefinitionJson parsed = parseDefinition(machineId, definitionJson);
+        if (!machineId.equals(parsed.getMachineId())) {
+            throw new IllegalArgumentException("The machineId in the definition does not match: " + parsed.getMachineId());
+        }
+        compiler.compile(parsed);
+
+        StateMachineDefinition definition = definitionRepository.findByMachineId(machineId)
+                .orElseGet(StateMachineDefinition::new);
+        definition.setMachineId(machineId);
+        definition.setDefinitionJson(definitionJson);
+        codec.attach(definition, parsed);
+        long version = definitionRepository.save(definition).getVersion();
+
+        install(machineId, loadDefinition(machineId));
+        return version;
+    }
+
+    /**
+     * Re-reads a definition, compiles it and swaps it into the caches, even if its version did not change, so that
+     * definitions changed directly in the database are picked up. In cluster mode, the other nodes drop their
+     * cached version and rebuild it on next use.
+     *
+     * @return The version that was installed.
+     * @throws IllegalArgumentException if the definition does not exist or is invalid.
+     */
+    public long reload(String machineId) {
+        LoadedDefinition definition = loadDefinition(machineId);
+        install(machineId, definition);
+        invalidations.publish(machineId);
+        return definition.version();
+    }
+
+    /**
+     * Re-reads a definition and, if it is newer than what is cached, compiles it and swaps it into the caches.
+     *
+     * @return true if a new version was installed.
+     * @throws IllegalArgumentException if the definition does not exist or is invalid.
+     */
+    public boolean reloadIfStale(String machineId) {
+        LoadedDefinition definition = loadDefinition(machineId);
+        if (!isStale(machineId, definition.version()) && compiledCache.containsKey(machineId)) {
+            return false;
+        }
+        install(machineId, definition);
+        return true;
+    }
+
+    /**
+     * Compiles a definition and swaps it into the caches, unless a newer version was installed meanwhile.
+     * The new version is built completely before the swap, so callers never wait for a rebuild and an invalid
+     * definition leaves the current version in place. The previous pool is closed once its machines are returned.
+     */
+    private void install(String machineId, LoadedDefinition definition) {
+        long version = definition.version();
+        CompiledStateMachine compiled;
+        try {
+            compiled = compiler.compile(definition.json());
+        } catch (RuntimeException e) {
+            metrics.recordReload(machineId, "failed");
+            throw e;
+        }
+
+        Versioned<CompiledStateMachine> freshCompiled = new Versioned<>(version, compiled);
+        compiledCache.merge(machineId, freshCompiled, (current, fresh) -> fresh.version() >= current.version() ? fresh : current);
+
+        // Only replace a factory that is in use; otherwise it is built on first use, from the new version.
+        Versioned<PooledStateMachineFactory> currentFactory = factoryCache.get(machineId);
+        if (currentFactory != null && currentFactory.version() <= version) {
+            Versioned<PooledStateMachineFactory> freshFactory =
+                    new Versioned<>(version, createFactory(machineId, definition.json(), compiled));
+            if (factoryCache.replace(machineId, currentFactory, freshFactory)) {
+                currentFactory.value().close();
+            } else {
+                freshFactory.value().close();
+            }
+        }
+
+        log.info("Installed version {} of the definition for machineId: '{}'", version, machineId);
+        metrics.recordReload(machineId, "installed");
+    }
+
+    private Versioned<CompiledStateMachine> compileMachine(String machineId) {
+        log.info("Cache miss for machineId: '{}'. Compiling transition table.", machineId);
+        LoadedDefinition definition = loadDefinition(machineId);
+        return new Versioned<>(definition.version(), compiler.compile(definition.json()));
+    }
+
+    private LoadedDefinition loadDefinition(String machineId) {
+        if (properties.isBinaryDefinitions()) {
+            DefinitionBinary binary = definitionRepository.findBinaryByMachineId(machineId)
+                    .orElseThrow(() -> new IllegalArgumentException("No state machine definition found for machineId: " + machineId));
+            StateMachineDefinitionJson decoded = decodeBinary(machineId, binary);
+            if (decoded != null) {
+                return new LoadedDefinition(versionOf(binary.getVersion()), decoded);
+            }
+            StateMachineDefinitionJson parsed = parseDefinition(machineId, binary.getDefinitionJson());
+            refreshBinary(machineId, binary, parsed);
+            return new LoadedDefinition(versionOf(binary.getVersion()), parsed);
+        }
 
         StateMachineDefinition definition = definitionRepository.findByMachineId(machineId)
                 .orElseThrow(() -> new IllegalArgumentException("No state machine definition found for machineId: " + machineId));
 
+        return new LoadedDefinition(versionOf(definition.getVersion()), parseDefinition(machineId, definition.getDefinitionJson()));
+    }
+
+    /**
+     * @return The decoded definition, or null if there is no usable binary and the JSON must be parsed instead.
+     */
+    private StateMachineDefinitionJson decodeBinary(String machineId, DefinitionBinary binary) {
+        byte[] encoded = binary.getDefinitionBinary();
+        if (encoded == null) {
+            return null;
+        }
+        if (binary.getDefinitionChecksum() == null || BinaryDefinitionCodec.checksum(encoded) != binary.getDefinitionChecksum()) {
+            log.warn("Checksum mismatch in the binary definition for machineId: '{}'. Parsing the JSON instead.", machineId);
+            return null;
+        }
+        if (binary.getDefinitionSourceHash() == null
+                || BinaryDefinitionCodec.sourceHash(binary.getDefinitionJson()) != binary.getDefinitionSourceHash()) {
+            log.warn("The JSON definition for machineId: '{}' changed since its binary was encoded. Parsing the JSON instead.", machineId);
+            return null;
+        }
         try {
-            StateMachineDefinitionJson jsonDefinition = objectMapper.readValue(
-                    definition.getDefinitionJson(),
-                    StateMachineDefinitionJson.class
-            );
-
-            // Return a factory that builds new machines from json on demand.
-            return new StateMachineFactory<>() {
-                @Override
-                public StateMachine<String, String> getStateMachine() {
-                    try {
-                        return buildStateMachine(jsonDefinition);
-                    } catch (Exception e) {
-                        throw new RuntimeException("Failed to build state machine for machineId: " + machineId, e);
-                    }
-                }
+            return codec.decode(encoded);
+        } catch (IllegalArgumentException e) {
+            log.warn("Cannot decode the binary definition for machineId: '{}' ({}). Parsing the JSON instead.", machineId, e.getMessage());
+            return null;
+        }
+    }
 
-                @Override
-                public StateMachine<String, String> getStateMachine(String id) {
-                    return getStateMachine();
+    /**
+     * Re-encodes a definition whose binary was unusable or stale in the background, in a transaction of its own, so
+     * that later loads can use the binary again. The update is conditional on the version, so a definition changed
+     * meanwhile is left alone.
+     */
+    private void refreshBinary(String machineId, DefinitionBinary stale, StateMachineDefinitionJson parsed) {
+        if (!refreshing.add(machineId)) {
+            return;
+        }
+        try {
+            binaryRefresher.execute(() -> {
+                try {
+                    byte[] encoded = codec.encode(parsed);
+                    TransactionTemplate refresh = new TransactionTemplate(transactionTemplate.getTransactionManager());
+                    refresh.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+                    refresh.executeWithoutResult(status -> definitionRepository.updateBinary(machineId, stale.getVersion(),
+                            encoded, BinaryDefinitionCodec.checksum(encoded), BinaryDefinitionCodec.sourceHash(stale.getDefinitionJson())));
+                } catch (RuntimeException e) {
+                    log.warn("Could not refresh the binary definition for machineId: '{}': {}", machineId, e.getMessage());
+                } finally {
+                    refreshing.remove(machineId);
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the next start refreshes it.
+            refreshing.remove(machineId);
+        }
+    }
 
-                @Override
-                public StateMachine<String, String> getStateMachine(UUID uuid) {
-                    return getStateMachine();
-                }
-            };
+    @PreDestroy
+    public void shutdown() {
+        binaryRefresher.shutdown();
+        try {
+            binaryRefresher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long versionOf(Long version) {
+        return version != null ? version : 0L;
+    }
 
+    private StateMachineDefinitionJson parseDefinition(String machineId, String definitionJson) {
+        try {
+            return objectMapper.readValue(definitionJson, StateMachineDefinitionJson.class);
         } catch (Exception e) {
-            log.error("Failed to build StateMachineFactory for machineId: {}", machineId, e);
-            throw new RuntimeException("Failed to build state machine factory for " + machineId, e);
+            log.error("Failed to parse state machine definition for machineId: {}", machineId, e);
+            throw new RuntimeException("Failed to parse state machine definition for " + machineId, e);
         }
     }
 
+    private Versioned<PooledStateMachineFactory> buildFactory(String machineId) {
+        log.info("Cache miss for machineId: '{}'. Building new StateMachineFactory.", machineId);
+
+        LoadedDefinition definition = loadDefinition(machineId);
+        // Bind guards and actions once for all machines of this factory; unknown names fail here.
+        CompiledStateMachine bindings = compiler.compile(definition.json());
+        return new Versioned<>(definition.version(), createFactory(machineId, definition.json(), bindings));
+    }
+
+    private PooledStateMachineFactory createFactory(String machineId, StateMachineDefinitionJson jsonDefinition,
+                                                    CompiledStateMachine bindings) {
+        StateMachineProperties.Pool pool = properties.getPool();
+
+        // Registered once per machineId and read from whichever pool is current, so it survives reloads.
+        Gauge.builder("statemachine.pool.idle", factoryCache, cache -> {
+                    Versioned<PooledStateMachineFactory> current = cache.get(machineId);
+                    return current != null ? current.value().idleCount() : 0;
+                })
+                .description("Number of idle machines in the pool")
+                .tag("machineId", machineId)
+                .register(meterRegistry);
+
+        // Return a factory that builds new machines from json on demand, pooling them if enabled.
+        return new PooledStateMachineFactory(
+                machineId,
+                () -> {
+                    try {
+                        return buildStateMachine(jsonDefinition, bindings);
+                    } catch (Exception e) {
+                        throw new RuntimeException("Failed to build state machine for machineId: " + machineId, e);
+                    }
+                },
+                pool.isEnabled(),
+                pool.getMaxSize(),
+                pool.getCheckoutTimeout(),
+                meterRegistry
+        );
+    }
+
     /**
      * This helper method contains the actual logic for building a single StateMachine instance.
+     * Only flat definitions are built; see {@link CompiledStateMachine#isFlat()}.
      * @param jsonDefinition The parsed JSON definition.
+     * @param bindings       The compiled definition, providing the bound guard and action of each transition.
      * @return A fully configured StateMachine.
      * @throws Exception if configuration fails.
      */
-    private StateMachine<String, String> buildStateMachine(StateMachineDefinitionJson jsonDefinition) throws Exception {
+    private StateMachine<String, String> buildStateMachine(StateMachineDefinitionJson jsonDefinition,
+                                                           CompiledStateMachine bindings) throws Exception {
+        if (!bindings.isFlat()) {
+            throw new IllegalStateException("Definitions with composite states or pseudo-states run on the compiled table");
+        }
         StateMachineBuilder.Builder<String, String> builder = StateMachineBuilder.builder();
 
-        // 1. Configure States
+        // 1. Configure States. All end states go on the same configurer; another withStates() would add a region.
         Set<String> states = jsonDefinition.getStates().stream().collect(Collectors.toSet());
-        builder.configureStates()
+        StateConfigurer<String, String> stateConfigurer = builder.configureStates()
                 .withStates()
                 .initial(jsonDefinition.getInitialState())
                 .states(states);
 
-        if (jsonDefinition.getEndStates() != null && !jsonDefinition.getEndStates().isEmpty()) {
-            // Re-get the configurer to add the end state.
-            builder.configureStates().withStates().end(jsonDefinition.getEndStates().get(0));
+        if (jsonDefinition.getEndStates() != null) {
+            for (String endState : jsonDefinition.getEndStates()) {
+                stateConfigurer.end(endState);
+            }
         }
 
-        // 2. Configure Transitions
+        // 2. Configure Transitions. The guard and action are already bound, so there is no lookup per event.
         StateMachineTransitionConfigurer<String, String> transitions = builder.configureTransitions();
-        for (TransitionJson transition : jsonDefinition.getTransitions()) {
+        for (CompiledTransition transition : bindings.getTransitions()) {
             transitions
                     .withExternal()
                     .source(transition.getSource())
                     .target(transition.getTarget())
                     .event(transition.getEvent())
-                    .guard(context -> {
-                        if (transition.getGuard() == null || transition.getGuard().getName() == null) {
-                            return true; // No guard defined, so allow transition.
-                        }
-                        return guardRegistry.getGuard(transition.getGuard().getName())
-                                .map(guard -> guard.evaluate(
-                                        context,
-                                        transition.getGuard().getParams() != null
-                                                ? transition.getGuard().getParams()
-                                                : Collections.emptyMap()
-                                ))
-                                .orElseThrow(() -> new RuntimeException("Guard not found: " + transition.getGuard().getName()));
-                    })
-                    .action(context -> {
-                        if (transition.getAction() != null && transition.getAction().getName() != null) {
-                            actionRegistry.getAction(transition.getAction().getName())
-                                    .ifPresentOrElse(
-                                            action -> action.execute(
-                                                    context,
-                                                    transition.getAction().getParams() != null
-                                                            ? transition.getAction().getParams()
-                                                            : Collections.emptyMap()
-                                            ),
-                                            () -> {
-                                                throw new RuntimeException("Action not found: " + transition.getAction().getName());
-                                            }
-                                    );
-                        }
-                    })
+                    .guard(transition::evaluateGuard)
+                    .action(transition::executeAction)
                     .and(); //finalize and prepare for next
         }
 
@@ -146,8 +366,27 @@ public class StateMachineBuilderFactory {
         return builder.build();
     }
 
+    /**
+     * Drops the cached factory and compiled machine of a definition, on this node and, in cluster mode, on all nodes.
+     * They are rebuilt from the database on next use.
+     */
     public void clearCache(String machineId) {
+        clearLocalCache(machineId);
+        invalidations.publish(machineId);
+    }
+
+    /**
+     * Drops the cached factory and compiled machine of a definition on this node only.
+     */
+    public void clearLocalCache(String machineId) {
         log.info("Clearing cache for machineId: '{}'", machineId);
-        factoryCache.remove(machineId);
+        Versioned<PooledStateMachineFactory> factory = factoryCache.remove(machineId);
+        if (factory != null) {
+            factory.value().close();
+        }
+        compiledCache.remove(machineId);
+    }
+
+    private record LoadedDefinition(long version, StateMachineDefinitionJson json) {
     }
 }
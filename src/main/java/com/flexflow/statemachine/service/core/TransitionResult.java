@@ -0,0 +1,52 @@
+package com.flexflow.statemachine.service.core;
+
+import lombok.Value;
+
+/**
+ * The outcome of triggering an event on a stateful entity.
+ */
+@Value
+public class TransitionResult {
+    String businessId;
+    String event;
+    String previousState;
+    String currentState;
+    Outcome outcome;
+
+    public enum Outcome {
+        /**
+         * A transition fired and moved the entity to another state.
+         */
+        STATE_CHANGED,
+        /**
+         * A transition fired but the entity stayed in its state, e.g. a self-transition such as ADD_COMMENT.
+         * The event was processed; sending it again runs its action again.
+         */
+        ACCEPTED,
+        /**
+         * No transition fired: the event is not handled in the current state, or every guard denied it.
+         */
+        REJECTED;
+
+        public static Outcome of(boolean accepted, String previousState, String currentState) {
+            if (!accepted) {
+                return REJECTED;
+            }
+            return previousState.equals(currentState) ? ACCEPTED : STATE_CHANGED;
+        }
+    }
+
+    /**
+     * true if the event was accepted AND resulted in a state change.
+     */
+    public boolean isStateChanged() {
+        return outcome == Outcome.STATE_CHANGED;
+    }
+
+    /**
+     * true if a transition fired, whether or not it changed the state.
+     */
+    public boolean isAccepted() {
+        return outcome != Outcome.REJECTED;
+    }
+}
@@ -0,0 +1,7 @@
+package com.flexflow.statemachine.service.core;
+
+/**
+ * A cached value together with the version of the definition it was built from.
+ */
+record Versioned<T>(long version, T value) {
+}
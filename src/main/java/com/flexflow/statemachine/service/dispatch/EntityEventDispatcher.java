@@ -0,0 +1,135 @@
+package com.flexflow.statemachine.service.dispatch;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Serializes events per entity by hashing the businessId onto a fixed number of single-threaded lanes.
+ * Events for the same entity always run on the same lane, one after another, so they never race on the
+ * entity's version. Events for different entities run in parallel across lanes.
+ * Each lane has a bounded queue; when it is full the event is rejected with a {@link LaneSaturatedException}.
+ * When the dispatcher is disabled, {@link #execute} runs tasks directly on the calling thread and
+ * {@link #dispatch} runs them on a new virtual thread each.
+ */
+@Component
+@Slf4j
+public class EntityEventDispatcher {
+
+    private final boolean enabled;
+    private final ThreadPoolExecutor[] lanes;
+    private final ExecutorService unorderedExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter rejectedCounter;
+
+    public EntityEventDispatcher(StateMachineProperties properties, MeterRegistry meterRegistry) {
+        StateMachineProperties.Dispatcher config = properties.getDispatcher();
+        this.enabled = config.isEnabled();
+        this.rejectedCounter = Counter.builder("statemachine.dispatcher.rejected")
+                .description("Events rejected because their lane was saturated")
+                .register(meterRegistry);
+
+        if (!enabled) {
+            this.lanes = new ThreadPoolExecutor[0];
+            return;
+        }
+
+        int laneCount = config.getLanes() > 0 ? config.getLanes() : Runtime.getRuntime().availableProcessors();
+        ThreadFactory threadFactory = config.isVirtualThreads()
+                ? Thread.ofVirtual().name("sm-lane-", 0).factory()
+                : Thread.ofPlatform().name("sm-lane-", 0).factory();
+
+        this.lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(config.getQueueCapacity()), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+            lanes[i] = lane;
+            Gauge.builder("statemachine.dispatcher.queue.depth", lane, l -> l.getQueue().size())
+                    .description("Number of events waiting in a dispatcher lane")
+                    .tag("lane", String.valueOf(i))
+                    .register(meterRegistry);
+        }
+        log.info("Started entity event dispatcher with {} lanes (queue capacity {}, virtual threads: {})",
+                laneCount, config.getQueueCapacity(), config.isVirtualThreads());
+    }
+
+    /**
+     * Schedules a task on the lane owning the given businessId.
+     *
+     * @param businessId The entity the task operates on.
+     * @param task       The work to run.
+     * @return A future completed with the task's result.
+     * @throws LaneSaturatedException if the lane's queue is full.
+     */
+    public <T> CompletableFuture<T> dispatch(String businessId, Supplier<T> task) {
+        if (!enabled) {
+            return CompletableFuture.supplyAsync(task, unorderedExecutor);
+        }
+
+        int laneIndex = laneFor(businessId);
+        try {
+            return CompletableFuture.supplyAsync(task, lanes[laneIndex]);
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw new LaneSaturatedException("Too many pending events for entity '" + businessId
+                    + "' (lane " + laneIndex + " is full). Retry later.");
+        }
+    }
+
+    /**
+     * Runs a task on the lane owning the given businessId and waits for its result.
+     * Exceptions thrown by the task are rethrown unwrapped.
+     *
+     * @throws LaneSaturatedException if the lane's queue is full.
+     */
+    public <T> T execute(String businessId, Supplier<T> task) {
+        if (!enabled) {
+            return task.get();
+        }
+        try {
+            return dispatch(businessId, task).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private int laneFor(String businessId) {
+        int h = businessId.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), lanes.length);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        unorderedExecutor.shutdown();
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            try {
+                if (!lane.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("Dispatcher lane did not drain within 10s; {} events dropped.", lane.shutdownNow().size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.flexflow.statemachine.service.dispatch;
+
+/**
+ * Thrown when an event cannot be accepted because the dispatcher lane for its entity is full.
+ * Callers should back off and retry later.
+ */
+public class LaneSaturatedException extends RuntimeException {
+
+    public LaneSaturatedException(String message) {
+        super(message);
+    }
+}
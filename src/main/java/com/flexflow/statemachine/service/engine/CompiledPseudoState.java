@@ -0,0 +1,33 @@
+package com.flexflow.statemachine.service.engine;
+
+import lombok.Getter;
+
+/**
+ * A choice or junction pseudo-state of a {@link CompiledStateMachine}.
+ * Its branches are compiled as transitions without an event, whose source is the pseudo-state.
+ */
+@Getter
+public class CompiledPseudoState {
+
+    private final String name;
+
+    /**
+     * true if the branch guards are evaluated before the incoming transition is taken, false for a choice,
+     * which evaluates them after the incoming transition's action.
+     */
+    private final boolean junction;
+
+    private final CompiledTransition[] branches;
+
+    /**
+     * The innermost region that contains the targets of all branches, following chained pseudo-states.
+     */
+    private final int scopeRegion;
+
+    CompiledPseudoState(String name, boolean junction, CompiledTransition[] branches, int scopeRegion) {
+        this.name = name;
+        this.junction = junction;
+        this.branches = branches;
+        this.scopeRegion = scopeRegion;
+    }
+}
@@ -0,0 +1,345 @@
+package com.flexflow.statemachine.service.engine;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable, pre-compiled representation of a state machine definition.
+ * States and events are interned into dense int ids when the definition is compiled, and transitions are
+ * stored in an array indexed by (state id, event id), so processing an event is an array lookup instead of
+ * building a new Spring StateMachine or hashing Strings. Strings are only used at the API and persistence boundary.
+ * <p>
+ * Definitions with composite states or pseudo-states also carry their {@link StateHierarchy}; an entity of such a
+ * definition is in a configuration of states, one per active region, rather than in a single state.
+ * <p>
+ * Timer transitions are also indexed by their source state, so the timers that start when an entity enters a state
+ * are found without scanning the transitions. Each timer counts from when its own state was entered, so changes
+ * within a composite state do not restart the timers of the composite state or of other regions.
+ */
+@Getter
+public class CompiledStateMachine {
+
+    /**
+     * The id of a state or event that is not part of the definition.
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final CompiledTransition[] NO_TRANSITIONS = new CompiledTransition[0];
+    private static final CompiledTimer[] NO_TIMERS = new CompiledTimer[0];
+    private static final Comparator<CompiledTimer> BY_DELAY = Comparator.comparing(CompiledTimer::after);
+
+    private final String machineId;
+
+    /**
+     * The state of a new entity; with composite states, its initial configuration as stored on the entity.
+     */
+    private final String initialState;
+
+    /**
+     * All transitions, in the order they were declared in the definition.
+     */
+    private final List<CompiledTransition> transitions;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Integer> stateIds;
+    @Getter(AccessLevel.NONE)
+    private final String[] stateNames;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Integer> eventIds;
+    @Getter(AccessLevel.NONE)
+    private final String[] eventNames;
+    @Getter(AccessLevel.NONE)
+    private final boolean[] endStates;
+
+    /**
+     * stateId * eventCount + eventId -> candidate transitions in declaration order, or null if none.
+     */
+    @Getter(AccessLevel.NONE)
+    private final CompiledTransition[][] slots;
+
+    /**
+     * Per slot, true if every candidate transition is a self-loop without a guard or action, so handling the event
+     * can neither change the state nor run any code.
+     */
+    @Getter(AccessLevel.NONE)
+    private final boolean[] selfLoopSlots;
+
+    /**
+     * null for flat definitions.
+     */
+    @Getter(AccessLevel.PACKAGE)
+    private final StateHierarchy hierarchy;
+
+    /**
+     * By state: the completion transitions of a composite state, in declaration order, or null if it has none.
+     */
+    @Getter(AccessLevel.NONE)
+    private final CompiledTransition[][] completions;
+
+    /**
+     * The composite states that have completion transitions, the most deeply nested first.
+     */
+    @Getter(AccessLevel.NONE)
+    private final int[] completionSources;
+
+    /**
+     * By state: the timers of its timer transitions, shortest delay first, or null if it has none.
+     */
+    @Getter(AccessLevel.NONE)
+    private final CompiledTimer[][] timers;
+
+    @Getter(AccessLevel.NONE)
+    private final boolean hasTimers;
+
+    CompiledStateMachine(String machineId, String initialState, Map<String, Integer> stateIds,
+                         Map<String, Integer> eventIds, boolean[] endStates, List<CompiledTransition> transitions,
+                         StateHierarchy hierarchy) {
+        this.machineId = machineId;
+        this.transitions = transitions;
+        this.stateIds = Map.copyOf(stateIds);
+        this.eventIds = Map.copyOf(eventIds);
+        this.stateNames = namesOf(stateIds);
+        this.eventNames = namesOf(eventIds);
+        this.endStates = endStates;
+        this.hierarchy = hierarchy;
+        this.initialState = hierarchy != null
+                ? hierarchy.encode(hierarchy.initialConfiguration(stateId(initialState)))
+                : initialState;
+
+        this.slots = new CompiledTransition[stateNames.length * eventNames.length][];
+        this.completions = new CompiledTransition[stateNames.length][];
+        for (CompiledTransition transition : transitions) {
+            if (transition.getEventId() == UNKNOWN) {
+                completions[transition.getSourceId()] = append(completions[transition.getSourceId()], transition);
+            } else {
+                int slot = slot(transition.getSourceId(), transition.getEventId());
+                slots[slot] = append(slots[slot], transition);
+            }
+        }
+        this.completionSources = IntStream.range(0, stateNames.length)
+                .filter(state -> completions[state] != null)
+                .boxed()
+                .sorted(Comparator.comparingInt((Integer state) -> hierarchy.depth(state)).reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        this.timers = new CompiledTimer[stateNames.length][];
+        for (CompiledTransition transition : transitions) {
+            if (transition.getAfter() != null) {
+                CompiledTimer timer = new CompiledTimer(transition.getSource(), transition.getAfter(), transition.getEvent());
+                CompiledTimer[] declared = timers[transition.getSourceId()];
+                if (declared == null || !Arrays.asList(declared).contains(timer)) {
+                    declared = declared == null ? new CompiledTimer[]{timer} : Arrays.copyOf(declared, declared.length + 1);
+                    declared[declared.length - 1] = timer;
+                    Arrays.sort(declared, BY_DELAY);
+                    timers[transition.getSourceId()] = declared;
+                }
+            }
+        }
+        this.hasTimers = Arrays.stream(timers).anyMatch(Objects::nonNull);
+
+        // Nested states also take the transitions of their ancestors, and a composite state's self-transition
+        // re-enters its regions, so only top-level leaf states have self-loop slots.
+        this.selfLoopSlots = new boolean[slots.length];
+        for (int slot = 0; slot < slots.length; slot++) {
+            int state = slot / eventNames.length;
+            selfLoopSlots[slot] = slots[slot] != null
+                    && Arrays.stream(slots[slot]).allMatch(transition -> transition.isSelfLoop()
+                            && transition.getGuard() == null && transition.getAction() == null)
+                    && (hierarchy == null || (hierarchy.parent(state) == UNKNOWN && !hierarchy.isComposite(state)));
+        }
+    }
+
+    private static CompiledTransition[] append(CompiledTransition[] candidates, CompiledTransition transition) {
+        if (candidates == null) {
+            return new CompiledTransition[]{transition};
+        }
+        CompiledTransition[] extended = Arrays.copyOf(candidates, candidates.length + 1);
+        extended[candidates.length] = transition;
+        return extended;
+    }
+
+    private static String[] namesOf(Map<String, Integer> ids) {
+        String[] names = new String[ids.size()];
+        ids.forEach((name, id) -> names[id] = name);
+        return names;
+    }
+
+    private int slot(int stateId, int eventId) {
+        return stateId * eventNames.length + eventId;
+    }
+
+    /**
+     * @return The id of the state, or {@link #UNKNOWN} if it is not part of the definition.
+     */
+    public int stateId(String state) {
+        Integer id = state != null ? stateIds.get(state) : null;
+        return id != null ? id : UNKNOWN;
+    }
+
+    /**
+     * @return The id of the event, or {@link #UNKNOWN} if no transition handles it.
+     */
+    public int eventId(String event) {
+        Integer id = event != null ? eventIds.get(event) : null;
+        return id != null ? id : UNKNOWN;
+    }
+
+    public String stateName(int stateId) {
+        return stateNames[stateId];
+    }
+
+    public String eventName(int eventId) {
+        return eventNames[eventId];
+    }
+
+    /**
+     * Looks up the candidate transitions for an event in a given state.
+     * The returned array is shared and must not be modified.
+     *
+     * @return The transitions in declaration order, or an empty array if the event is not handled in that state.
+     */
+    public CompiledTransition[] getTransitions(int stateId, int eventId) {
+        if (stateId == UNKNOWN || eventId == UNKNOWN) {
+            return NO_TRANSITIONS;
+        }
+        CompiledTransition[] candidates = slots[slot(stateId, eventId)];
+        return candidates != null ? candidates : NO_TRANSITIONS;
+    }
+
+    /**
+     * @return true if the event is handled in the state only by self-transitions without a guard or action, so it can
+     * be processed without building a StateMachine or writing the entity.
+     */
+    public boolean isSelfLoop(int stateId, int eventId) {
+        return stateId != UNKNOWN && eventId != UNKNOWN && selfLoopSlots[slot(stateId, eventId)];
+    }
+
+    public boolean isEndState(int stateId) {
+        return stateId != UNKNOWN && endStates[stateId];
+    }
+
+    public boolean isEndState(String state) {
+        return isEndState(stateId(state));
+    }
+
+    /**
+     * @return true if the definition has no composite states and no pseudo-states, so an entity is always in
+     * exactly one state and events can be fired by state id.
+     */
+    public boolean isFlat() {
+        return hierarchy == null;
+    }
+
+    /**
+     * @return The completion transitions of a composite state, or an empty array if it has none.
+     */
+    CompiledTransition[] getCompletions(int stateId) {
+        CompiledTransition[] candidates = completions[stateId];
+        return candidates != null ? candidates : NO_TRANSITIONS;
+    }
+
+    int[] getCompletionSources() {
+        return completionSources;
+    }
+
+    /**
+     * @return true if every region of the composite state is in an end state.
+     */
+    boolean isCompleted(int[] configuration, int stateId) {
+        for (int region : hierarchy.regions(stateId)) {
+            if (!isEndState(configuration[region])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if any transition of the definition is a timer transition.
+     */
+    public boolean hasTimers() {
+        return hasTimers;
+    }
+
+    /**
+     * @param state An entity's state; with composite states, its stored configuration.
+     * @return The timers started when the entity entered the state, shortest delay first. With composite states,
+     * these are the timers of every active state, including the composite states the entity is in.
+     */
+    public CompiledTimer[] getTimers(String state) {
+        if (!hasTimers) {
+            return NO_TIMERS;
+        }
+        if (hierarchy == null) {
+            int stateId = stateId(state);
+            CompiledTimer[] declared = stateId != UNKNOWN ? timers[stateId] : null;
+            return declared != null ? declared : NO_TIMERS;
+        }
+
+        int[] configuration = hierarchy.decode(state);
+        if (configuration == null) {
+            return NO_TIMERS;
+        }
+        List<CompiledTimer> active = new ArrayList<>();
+        for (int stateId : configuration) {
+            if (stateId != UNKNOWN && timers[stateId] != null) {
+                active.addAll(Arrays.asList(timers[stateId]));
+            }
+        }
+        active.sort(BY_DELAY);
+        return active.toArray(NO_TIMERS);
+    }
+
+    /**
+     * Carries the entry times of the active states with timers over to a new state or configuration.
+     * A state that was already active keeps the time it was entered; a state that has become active was entered now.
+     *
+     * @param state    The entity's new state; with composite states, its new configuration.
+     * @param previous When each state with timers of the previous configuration was entered, by state name.
+     * @return When each active state with timers was entered, by state name.
+     */
+    public Map<String, Instant> timerStatesEntered(String state, Map<String, Instant> previous, Instant now) {
+        Map<String, Instant> entered = new LinkedHashMap<>();
+        for (CompiledTimer timer : getTimers(state)) {
+            entered.computeIfAbsent(timer.state(), name -> previous.getOrDefault(name, now));
+        }
+        return entered;
+    }
+
+    /**
+     * Finds the timer that expires first, counting each timer from when its own state was entered.
+     *
+     * @param state      An entity's state; with composite states, its stored configuration.
+     * @param entered    When each active state with timers was entered, see {@link #timerStatesEntered}.
+     * @param firedUntil When the last timer that fired without leaving its state was due, or null. Timers due up to
+     *                   then have already fired and are skipped.
+     * @return The timer, or null if no active state has a timer left.
+     */
+    public CompiledTimer nextTimer(String state, Map<String, Instant> entered, Instant firedUntil) {
+        CompiledTimer next = null;
+        Instant nextDueAt = null;
+        for (CompiledTimer timer : getTimers(state)) {
+            Instant enteredAt = entered.get(timer.state());
+            if (enteredAt == null) {
+                continue;
+            }
+            Instant dueAt = enteredAt.plus(timer.after());
+            if ((firedUntil == null || dueAt.isAfter(firedUntil)) && (nextDueAt == null || dueAt.isBefore(nextDueAt))) {
+                next = timer;
+                nextDueAt = dueAt;
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,326 @@
+package com.flexflow.statemachine.service.engine;
+
+import com.flexflow.statemachine.machine.actions.CompiledAction;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateContext;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes events against a {@link CompiledStateMachine}.
+ * Processing an event is a table lookup followed by guard and action calls; no StateMachine is built.
+ * Guards and actions receive a regular {@link StateContext}, so existing implementations work unchanged.
+ * Definitions with composite states or pseudo-states are fired against the entity's active configuration;
+ * see {@link #fireConfiguration}.
+ */
+@Component
+@Slf4j
+public class CompiledStateMachineEngine {
+
+    /**
+     * Fires an event from the given state.
+     *
+     * @param machine      The compiled definition.
+     * @param businessId   The ID of the entity, exposed to guards and actions as the 'entityId' header.
+     * @param currentState The state the entity is currently in; with composite states, its stored configuration.
+     * @param event        The event to process.
+     * @param headers      Additional message headers for guards and actions.
+     * @return The new state, or null if the event was not accepted.
+     */
+    public String fire(CompiledStateMachine machine, String businessId, String currentState,
+                       String event, Map<String, Object> headers) {
+        if (!machine.isFlat()) {
+            return fireConfiguration(machine, businessId, currentState, event, headers, false).block();
+        }
+        int targetId = fire(machine, businessId, machine.stateId(currentState), machine.eventId(event), headers);
+        return targetId != CompiledStateMachine.UNKNOWN ? machine.stateName(targetId) : null;
+    }
+
+    /**
+     * Fires an event by interned ids; see {@link CompiledStateMachine#stateId(String)} and
+     * {@link CompiledStateMachine#eventId(String)}. Only for flat definitions.
+     *
+     * @return The id of the target state of the transition that fired, or {@link CompiledStateMachine#UNKNOWN}
+     * if the event was not accepted.
+     */
+    public int fire(CompiledStateMachine machine, String businessId, int stateId, int eventId, Map<String, Object> headers) {
+        requireFlat(machine);
+        Selection selection = select(machine, businessId, stateId, eventId, headers);
+        if (selection == null) {
+            return CompiledStateMachine.UNKNOWN;
+        }
+        selection.transition().executeAction(selection.context());
+        return selection.transition().getTargetId();
+    }
+
+    /**
+     * Fires an event without blocking on the actions; see {@link CompiledAction#executeReactive}.
+     * Guards are evaluated on the calling thread, since they only inspect the event; those of a choice are evaluated
+     * once the actions leading to it have completed.
+     *
+     * @return A Mono of the new state, emitted once the actions have completed, or an empty Mono if the event
+     * was not accepted.
+     */
+    public Mono<String> fireReactive(CompiledStateMachine machine, String businessId, String currentState,
+                                     String event, Map<String, Object> headers) {
+        if (!machine.isFlat()) {
+            return fireConfiguration(machine, businessId, currentState, event, headers, true);
+        }
+        return fireReactive(machine, businessId, machine.stateId(currentState), machine.eventId(event), headers)
+                .filter(targetId -> targetId != CompiledStateMachine.UNKNOWN)
+                .map(machine::stateName);
+    }
+
+    /**
+     * Fires an event by interned ids without blocking on the action; see {@link CompiledAction#executeReactive}.
+     * Guards are evaluated on the calling thread, since they only inspect the event. Only for flat definitions.
+     *
+     * @return A Mono of the id of the target state, emitted once the action has completed,
+     * or of {@link CompiledStateMachine#UNKNOWN} if the event was not accepted.
+     */
+    public Mono<Integer> fireReactive(CompiledStateMachine machine, String businessId, int stateId, int eventId,
+                                      Map<String, Object> headers) {
+        requireFlat(machine);
+        Selection selection = select(machine, businessId, stateId, eventId, headers);
+        if (selection == null) {
+            return Mono.just(CompiledStateMachine.UNKNOWN);
+        }
+        return selection.transition().executeActionReactive(selection.context())
+                .thenReturn(selection.transition().getTargetId());
+    }
+
+    /**
+     * Finds the first transition from the state on the event whose guard allows it.
+     *
+     * @return The transition with the context its action is executed with, or null if the event is not accepted.
+     */
+    private Selection select(CompiledStateMachine machine, String businessId, int stateId, int eventId,
+                             Map<String, Object> headers) {
+        if (machine.isEndState(stateId)) {
+            log.debug("Entity '{}' is in end state '{}'. Ignoring event.", businessId, machine.stateName(stateId));
+            return null;
+        }
+
+        CompiledTransition[] candidates = machine.getTransitions(stateId, eventId);
+        if (candidates.length == 0) {
+            return null;
+        }
+
+        Message<String> message = buildMessage(businessId, machine.eventName(eventId), headers);
+        return selectEnabled(candidates, message, new DefaultExtendedState());
+    }
+
+    /**
+     * @return The first candidate whose guard allows it, and if it leads to a junction, whose junction has a branch
+     * that allows it; or null if there is none.
+     */
+    private Selection selectEnabled(CompiledTransition[] candidates, Message<String> message,
+                                    DefaultExtendedState extendedState) {
+        for (CompiledTransition transition : candidates) {
+            StateContext<String, String> context = new DefaultStateContext<>(
+                    StateContext.Stage.TRANSITION, message, message.getHeaders(), extendedState,
+                    null, null, transition.getSourceState(), transition.getTargetState(), null);
+
+            if (transition.evaluateGuard(context)) {
+                CompiledPseudoState pseudo = transition.getTargetPseudo();
+                if (pseudo == null || !pseudo.isJunction()) {
+                    return new Selection(transition, context, null);
+                }
+                Selection branch = selectEnabled(pseudo.getBranches(), message, extendedState);
+                if (branch != null) {
+                    return new Selection(transition, context, branch);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void requireFlat(CompiledStateMachine machine) {
+        if (!machine.isFlat()) {
+            throw new IllegalArgumentException("Events of machineId '" + machine.getMachineId()
+                    + "' must be fired by state name, since it has composite states or pseudo-states.");
+        }
+    }
+
+    /**
+     * Fires an event against the active configuration of a definition with composite states or pseudo-states.
+     * <p>
+     * For every active region, the states from its active leaf state upwards are searched for an enabled
+     * transition, so a substate's transitions take priority over those of the composite states it is nested in.
+     * Transitions found in orthogonal regions all fire, unless one exits the source of another; then the more deeply
+     * nested one wins. Each transition exits its source up to the innermost region containing its target, runs its
+     * action, resolves the pseudo-states it leads to and enters its target. Afterwards, completion transitions fire
+     * for composite states whose regions have all reached an end state.
+     *
+     * @param reactive true to run actions with {@link CompiledAction#executeReactive}, false to run them on the
+     *                 calling thread while subscribing.
+     * @return A Mono of the new configuration, or an empty Mono if the event was not accepted.
+     */
+    private Mono<String> fireConfiguration(CompiledStateMachine machine, String businessId, String currentState,
+                                           String event, Map<String, Object> headers, boolean reactive) {
+        StateHierarchy hierarchy = machine.getHierarchy();
+        int[] configuration = hierarchy.decode(currentState);
+        int eventId = machine.eventId(event);
+        if (configuration == null || eventId == CompiledStateMachine.UNKNOWN) {
+            return Mono.empty();
+        }
+
+        Message<String> message = buildMessage(businessId, event, headers);
+        DefaultExtendedState extendedState = new DefaultExtendedState();
+        List<Selection> selections = selectInConfiguration(machine, configuration, eventId, message, extendedState);
+        if (selections.isEmpty()) {
+            return Mono.empty();
+        }
+
+        return Flux.fromIterable(selections)
+                .concatMap(selection -> take(hierarchy, configuration, selection, message, extendedState, reactive))
+                .then(completions(machine, configuration, message, extendedState, reactive, hierarchy.stateCount()))
+                .then(Mono.fromSupplier(() -> hierarchy.encode(configuration)));
+    }
+
+    private List<Selection> selectInConfiguration(CompiledStateMachine machine, int[] configuration, int eventId,
+                                                  Message<String> message, DefaultExtendedState extendedState) {
+        StateHierarchy hierarchy = machine.getHierarchy();
+        boolean[] visited = new boolean[hierarchy.stateCount()];
+        List<Selection> selections = new ArrayList<>(1);
+
+        for (int state : configuration) {
+            if (state == CompiledStateMachine.UNKNOWN || hierarchy.isComposite(state)) {
+                continue;
+            }
+            // Stop at an ancestor already searched from another region. An end state takes no events itself,
+            // but within a region, the composite states around it still do.
+            for (; state != CompiledStateMachine.UNKNOWN && !visited[state]; state = hierarchy.parent(state)) {
+                visited[state] = true;
+                if (machine.isEndState(state)) {
+                    continue;
+                }
+                Selection selection = selectEnabled(machine.getTransitions(state, eventId), message, extendedState);
+                if (selection != null) {
+                    selections.add(selection);
+                    break;
+                }
+            }
+        }
+
+        if (selections.size() < 2) {
+            return selections;
+        }
+        selections.sort(Comparator.comparingInt(
+                (Selection selection) -> hierarchy.depth(selection.transition().getSourceId())).reversed());
+        List<Selection> compatible = new ArrayList<>(selections.size());
+        for (Selection selection : selections) {
+            if (compatible.stream().noneMatch(fired -> conflict(hierarchy, fired.transition(), selection.transition()))) {
+                compatible.add(selection);
+            }
+        }
+        return compatible;
+    }
+
+    private static boolean conflict(StateHierarchy hierarchy, CompiledTransition first, CompiledTransition second) {
+        return hierarchy.contains(first.getExitRootId(), second.getSourceId())
+                || hierarchy.contains(second.getExitRootId(), first.getSourceId());
+    }
+
+    /**
+     * Exits the source of a selected transition, runs the actions along it, including those of the branches of the
+     * pseudo-states it leads to, and enters the state it ends in.
+     */
+    private Mono<Void> take(StateHierarchy hierarchy, int[] configuration, Selection selection, Message<String> message,
+                            DefaultExtendedState extendedState, boolean reactive) {
+        CompiledTransition transition = selection.transition();
+        hierarchy.exit(configuration, transition.getExitRootId());
+        return follow(selection, message, extendedState, reactive)
+                .doOnNext(targetId -> hierarchy.enter(configuration, transition.getScopeRegion(), targetId))
+                .then();
+    }
+
+    /**
+     * @return A Mono of the id of the state the selection ends in, emitted once its actions have completed.
+     */
+    private Mono<Integer> follow(Selection selection, Message<String> message, DefaultExtendedState extendedState,
+                                 boolean reactive) {
+        CompiledTransition transition = selection.transition();
+        Mono<Void> action = reactive
+                ? transition.executeActionReactive(selection.context())
+                : Mono.fromRunnable(() -> transition.executeAction(selection.context()));
+
+        return action.then(Mono.defer(() -> {
+            if (selection.next() != null) {
+                return follow(selection.next(), message, extendedState, reactive);
+            }
+            CompiledPseudoState pseudo = transition.getTargetPseudo();
+            if (pseudo == null) {
+                return Mono.just(transition.getTargetId());
+            }
+            // A choice, or a junction reached through a choice, is resolved after the actions that led to it.
+            Selection branch = selectEnabled(pseudo.getBranches(), message, extendedState);
+            if (branch == null) {
+                return Mono.error(new IllegalStateException("No branch of pseudo-state '" + pseudo.getName()
+                        + "' allows the transition from '" + selection.context().getSource().getId() + "'"));
+            }
+            return follow(branch, message, extendedState, reactive);
+        }));
+    }
+
+    /**
+     * Fires the completion transition of the most deeply nested completed composite state, and repeats
+     * until there is none, or fails after the given number of rounds.
+     */
+    private Mono<Void> completions(CompiledStateMachine machine, int[] configuration, Message<String> message,
+                                   DefaultExtendedState extendedState, boolean reactive, int remaining) {
+        return Mono.defer(() -> {
+            Selection selection = selectCompletion(machine, configuration, message, extendedState);
+            if (selection == null) {
+                return Mono.empty();
+            }
+            if (remaining == 0) {
+                return Mono.error(new IllegalStateException("Completion transitions of machineId '"
+                        + machine.getMachineId() + "' do not reach a stable configuration"));
+            }
+            return take(machine.getHierarchy(), configuration, selection, message, extendedState, reactive)
+                    .then(completions(machine, configuration, message, extendedState, reactive, remaining - 1));
+        });
+    }
+
+    private Selection selectCompletion(CompiledStateMachine machine, int[] configuration, Message<String> message,
+                                       DefaultExtendedState extendedState) {
+        StateHierarchy hierarchy = machine.getHierarchy();
+        for (int composite : machine.getCompletionSources()) {
+            if (configuration[hierarchy.regionOf(composite)] == composite && machine.isCompleted(configuration, composite)) {
+                Selection selection = selectEnabled(machine.getCompletions(composite), message, extendedState);
+                if (selection != null) {
+                    return selection;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Message<String> buildMessage(String businessId, String event, Map<String, Object> headers) {
+        MessageBuilder<String> messageBuilder = MessageBuilder
+                .withPayload(event)
+                .setHeader("entityId", businessId);
+
+        if (headers != null) {
+            headers.forEach(messageBuilder::setHeader);
+        }
+        return messageBuilder.build();
+    }
+
+    /**
+     * @param next The selected branch of the junction the transition leads to, or null.
+     */
+    private record Selection(CompiledTransition transition, StateContext<String, String> context, Selection next) {
+    }
+}
@@ -0,0 +1,13 @@
+package com.flexflow.statemachine.service.engine;
+
+import java.time.Duration;
+
+/**
+ * A timer of a state: the event sent to an entity once it has been in the state for the given time.
+ *
+ * @param state The state the timer transition leaves; a composite state for timers that apply to all its substates.
+ * @param after How long after the state was entered the event is sent.
+ * @param event The event of the state's timer transition.
+ */
+public record CompiledTimer(String state, Duration after, String event) {
+}
@@ -0,0 +1,121 @@
+package com.flexflow.statemachine.service.engine;
+
+import com.flexflow.statemachine.machine.actions.CompiledAction;
+import com.flexflow.statemachine.machine.guards.CompiledGuard;
+import com.flexflow.statemachine.service.metrics.StateMachineMetrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.state.ObjectState;
+import org.springframework.statemachine.state.State;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * A single transition of a {@link CompiledStateMachine} with its guard and action already resolved
+ * and bound to their params.
+ * Instances are immutable and shared by all events processed against the same definition.
+ */
+@Getter
+@Slf4j
+public class CompiledTransition {
+
+    private final String source;
+    private final String target;
+    /**
+     * null for completion transitions of composite states and for the branches of pseudo-states.
+     */
+    private final String event;
+
+    /**
+     * For timer transitions, how long after entering the source state the event is sent; null otherwise.
+     */
+    private final Duration after;
+
+    private final int sourceId;
+    private final int targetId;
+    private final int eventId;
+
+    /**
+     * The pseudo-state the transition leads to, or null if its target is a state.
+     */
+    private final CompiledPseudoState targetPseudo;
+
+    /**
+     * true if the transition leads back to its source state, so firing it can never change the state.
+     */
+    private final boolean selfLoop;
+
+    /**
+     * In definitions with composite states or pseudo-states: the innermost region containing the source and every
+     * possible target, and the state in that region that is exited when the transition fires. UNKNOWN otherwise.
+     */
+    private final int scopeRegion;
+    private final int exitRootId;
+
+    private final State<String, String> sourceState;
+    private final State<String, String> targetState;
+
+    private final CompiledGuard guard;
+    private final CompiledAction action;
+
+    private final Timer guardTimer;
+    private final Timer actionTimer;
+
+    CompiledTransition(String source, String target, String event, Duration after, int sourceId, int targetId,
+                       CompiledPseudoState targetPseudo, int eventId, CompiledGuard guard, Timer guardTimer,
+                       CompiledAction action, Timer actionTimer, int scopeRegion, int exitRootId) {
+        this.source = source;
+        this.target = target;
+        this.event = event;
+        this.after = after;
+        this.sourceId = sourceId;
+        this.targetId = targetId;
+        this.targetPseudo = targetPseudo;
+        this.eventId = eventId;
+        this.selfLoop = targetPseudo == null && sourceId == targetId;
+        this.scopeRegion = scopeRegion;
+        this.exitRootId = exitRootId;
+        this.sourceState = new ObjectState<>(source);
+        this.targetState = new ObjectState<>(target);
+        this.guard = guard;
+        this.action = action;
+        this.guardTimer = guardTimer;
+        this.actionTimer = actionTimer;
+    }
+
+    /**
+     * @return true if no guard is configured or the configured guard allows the transition.
+     * A guard that throws denies the transition, as it does in a Spring StateMachine.
+     */
+    public boolean evaluateGuard(StateContext<String, String> context) {
+        if (guard == null) {
+            return true;
+        }
+        try {
+            return StateMachineMetrics.timeGuard(guardTimer, () -> guard.evaluate(context));
+        } catch (Exception e) {
+            log.warn("Guard of transition '{}' -> '{}' on event '{}' failed; denying the transition",
+                    source, target, event, e);
+            return false;
+        }
+    }
+
+    public void executeAction(StateContext<String, String> context) {
+        if (action != null) {
+            StateMachineMetrics.timeAction(actionTimer, () -> action.execute(context));
+        }
+    }
+
+    /**
+     * Executes the action on the reactive trigger path; completes immediately if no action is configured.
+     */
+    public Mono<Void> executeActionReactive(StateContext<String, String> context) {
+        if (action == null) {
+            return Mono.empty();
+        }
+        return StateMachineMetrics.timeReactiveAction(actionTimer, () -> action.executeReactive(context));
+    }
+}
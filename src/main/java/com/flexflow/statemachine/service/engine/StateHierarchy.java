@@ -0,0 +1,359 @@
+package com.flexflow.statemachine.service.engine;
+
+import com.flexflow.statemachine.model.json.CompositeStateJson;
+import com.flexflow.statemachine.model.json.RegionJson;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.flexflow.statemachine.service.engine.CompiledStateMachine.UNKNOWN;
+
+/**
+ * The nesting of the states of a {@link CompiledStateMachine} into composite states and their regions.
+ * <p>
+ * Region 0 is the top level; every other region is owned by a composite state. The active configuration of an
+ * entity is an int array indexed by region id, holding the active state of each active region and
+ * {@link CompiledStateMachine#UNKNOWN} for the regions of inactive composite states. It is stored on the entity as
+ * the names of the active leaf states joined by commas, in region order, e.g. "LEGAL_REVIEW,TECH_APPROVED".
+ * A definition without composite states therefore stores a single state name, as before.
+ */
+final class StateHierarchy {
+
+    static final int ROOT_REGION = 0;
+    static final char SEPARATOR = ',';
+
+    private static final int[] NO_REGIONS = new int[0];
+
+    private final String[] stateNames;
+    private final Map<String, Integer> stateIds;
+
+    /**
+     * By state: the composite state owning its region, or UNKNOWN at the top level.
+     */
+    private final int[] parent;
+    /**
+     * By state: the region the state belongs to.
+     */
+    private final int[] regionOf;
+    /**
+     * By state: the regions of a composite state, empty for leaf states.
+     */
+    private final int[][] regions;
+
+    /**
+     * By region: the composite state owning the region, UNKNOWN for the top level.
+     */
+    private final int[] regionOwner;
+    /**
+     * By region: the state entered when the region is entered without a target inside it.
+     */
+    private final int[] regionInitial;
+    /**
+     * By region: the number of composite states the region is nested in.
+     */
+    private final int[] regionDepth;
+
+    private StateHierarchy(String[] stateNames, Map<String, Integer> stateIds, int[] parent, int[] regionOf,
+                           int[][] regions, int[] regionOwner, int[] regionInitial, int[] regionDepth) {
+        this.stateNames = stateNames;
+        this.stateIds = stateIds;
+        this.parent = parent;
+        this.regionOf = regionOf;
+        this.regions = regions;
+        this.regionOwner = regionOwner;
+        this.regionInitial = regionInitial;
+        this.regionDepth = regionDepth;
+    }
+
+    /**
+     * @param stateIds   The interned states of the definition.
+     * @param composites The composite states of the definition, or null if it has none.
+     * @throws IllegalArgumentException if the composite states do not form a tree of declared states.
+     */
+    static StateHierarchy build(String machineId, Map<String, Integer> stateIds, List<CompositeStateJson> composites) {
+        int stateCount = stateIds.size();
+        String[] stateNames = new String[stateCount];
+        stateIds.forEach((name, id) -> stateNames[id] = name);
+        for (String name : stateNames) {
+            if (name.indexOf(SEPARATOR) >= 0) {
+                throw new IllegalArgumentException("State '" + name + "' in machineId: " + machineId
+                        + " contains '" + SEPARATOR + "', which separates the states of orthogonal regions.");
+            }
+        }
+
+        List<CompositeStateJson> declared = composites != null ? composites : List.of();
+        int regionCount = 1 + declared.stream().mapToInt(c -> c.getRegions() != null ? c.getRegions().size() : 0).sum();
+
+        int[] parent = new int[stateCount];
+        int[] regionOf = new int[stateCount];
+        int[][] regions = new int[stateCount][];
+        Arrays.fill(parent, UNKNOWN);
+        Arrays.fill(regions, NO_REGIONS);
+        int[] regionOwner = new int[regionCount];
+        int[] regionInitial = new int[regionCount];
+        regionOwner[ROOT_REGION] = UNKNOWN;
+        regionInitial[ROOT_REGION] = UNKNOWN;
+
+        int region = ROOT_REGION + 1;
+        for (CompositeStateJson composite : declared) {
+            int owner = requireState(stateIds, composite.getName(), machineId);
+            if (regions[owner].length > 0) {
+                throw new IllegalArgumentException("Composite state '" + composite.getName()
+                        + "' is declared more than once in machineId: " + machineId);
+            }
+            if (composite.getRegions() == null || composite.getRegions().isEmpty()) {
+                throw new IllegalArgumentException("Composite state '" + composite.getName()
+                        + "' has no regions in machineId: " + machineId);
+            }
+
+            regions[owner] = new int[composite.getRegions().size()];
+            for (int i = 0; i < regions[owner].length; i++, region++) {
+                RegionJson regionJson = composite.getRegions().get(i);
+                String regionName = composite.getName() + "/" + (regionJson.getName() != null ? regionJson.getName() : i);
+                if (regionJson.getStates() == null || regionJson.getStates().isEmpty()) {
+                    throw new IllegalArgumentException("Region '" + regionName + "' has no states in machineId: " + machineId);
+                }
+                if (!regionJson.getStates().contains(regionJson.getInitialState())) {
+                    throw new IllegalArgumentException("The initial state of region '" + regionName
+                            + "' must be one of its states in machineId: " + machineId);
+                }
+
+                regions[owner][i] = region;
+                regionOwner[region] = owner;
+                regionInitial[region] = requireState(stateIds, regionJson.getInitialState(), machineId);
+                for (String state : regionJson.getStates()) {
+                    int id = requireState(stateIds, state, machineId);
+                    if (parent[id] != UNKNOWN) {
+                        throw new IllegalArgumentException("State '" + state + "' is declared in more than one region in machineId: " + machineId);
+                    }
+                    parent[id] = owner;
+                    regionOf[id] = region;
+                }
+            }
+        }
+
+        // Regions are numbered in declaration order, so depths are computed by walking up rather than in one pass.
+        int[] regionDepth = new int[regionCount];
+        for (int r = ROOT_REGION + 1; r < regionCount; r++) {
+            int depth = 1;
+            for (int state = regionOwner[r]; parent[state] != UNKNOWN; state = parent[state]) {
+                if (++depth > stateCount) {
+                    throw new IllegalArgumentException("Composite state '" + stateNames[regionOwner[r]]
+                            + "' is nested in itself in machineId: " + machineId);
+                }
+            }
+            regionDepth[r] = depth;
+        }
+
+        return new StateHierarchy(stateNames, stateIds, parent, regionOf, regions, regionOwner, regionInitial, regionDepth);
+    }
+
+    private static int requireState(Map<String, Integer> stateIds, String state, String machineId) {
+        Integer id = state != null ? stateIds.get(state) : null;
+        if (id == null) {
+            throw new IllegalArgumentException("State '" + state + "' is not declared in the states of machineId: " + machineId);
+        }
+        return id;
+    }
+
+    int regionCount() {
+        return regionOwner.length;
+    }
+
+    int stateCount() {
+        return parent.length;
+    }
+
+    int parent(int state) {
+        return parent[state];
+    }
+
+    int regionOf(int state) {
+        return regionOf[state];
+    }
+
+    int[] regions(int state) {
+        return regions[state];
+    }
+
+    boolean isComposite(int state) {
+        return regions[state].length > 0;
+    }
+
+    /**
+     * @return The number of composite states the state is nested in.
+     */
+    int depth(int state) {
+        return regionDepth[regionOf[state]];
+    }
+
+    /**
+     * @return true if the state is the given ancestor or nested in it.
+     */
+    boolean contains(int ancestor, int state) {
+        for (int s = state; s != UNKNOWN; s = parent[s]) {
+            if (s == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The innermost region that contains both regions, or one of them if it contains the other.
+     */
+    int commonRegion(int first, int second) {
+        while (regionDepth[first] > regionDepth[second]) {
+            first = regionOf[regionOwner[first]];
+        }
+        while (regionDepth[second] > regionDepth[first]) {
+            second = regionOf[regionOwner[second]];
+        }
+        while (first != second) {
+            first = regionOf[regionOwner[first]];
+            second = regionOf[regionOwner[second]];
+        }
+        return first;
+    }
+
+    /**
+     * @return The state, or its ancestor, that belongs to the region. The region must contain the state.
+     */
+    int ancestorIn(int state, int region) {
+        while (regionOf[state] != region) {
+            state = parent[state];
+        }
+        return state;
+    }
+
+    int[] initialConfiguration(int initialState) {
+        int[] configuration = new int[regionCount()];
+        Arrays.fill(configuration, UNKNOWN);
+        enter(configuration, ROOT_REGION, initialState);
+        return configuration;
+    }
+
+    /**
+     * Parses a stored configuration. Regions of active composite states that are missing, e.g. because they were
+     * added to the definition later, are in their initial state.
+     *
+     * @return The configuration, or null if it names an unknown state or two states of the same region.
+     */
+    int[] decode(String state) {
+        if (state == null) {
+            return null;
+        }
+        int[] configuration = new int[regionCount()];
+        Arrays.fill(configuration, UNKNOWN);
+
+        int start = 0;
+        while (true) {
+            int end = state.indexOf(SEPARATOR, start);
+            Integer id = stateIds.get(end < 0 ? state.substring(start) : state.substring(start, end));
+            if (id == null || !activate(configuration, id)) {
+                return null;
+            }
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+        }
+
+        if (configuration[ROOT_REGION] == UNKNOWN) {
+            return null;
+        }
+        for (int region = ROOT_REGION + 1; region < configuration.length; region++) {
+            int owner = regionOwner[region];
+            if (configuration[region] == UNKNOWN && configuration[regionOf[owner]] == owner) {
+                enterInitial(configuration, region);
+            }
+        }
+        return configuration;
+    }
+
+    private boolean activate(int[] configuration, int state) {
+        for (int s = state; s != UNKNOWN; s = parent[s]) {
+            int active = configuration[regionOf[s]];
+            if (active == s) {
+                return true;
+            }
+            if (active != UNKNOWN) {
+                return false;
+            }
+            configuration[regionOf[s]] = s;
+        }
+        return true;
+    }
+
+    /**
+     * @return The names of the active leaf states, joined by commas in region order.
+     */
+    String encode(int[] configuration) {
+        String single = null;
+        StringBuilder joined = null;
+        for (int state : configuration) {
+            if (state == UNKNOWN || isComposite(state)) {
+                continue;
+            }
+            if (single == null) {
+                single = stateNames[state];
+            } else {
+                if (joined == null) {
+                    joined = new StringBuilder(single);
+                }
+                joined.append(SEPARATOR).append(stateNames[state]);
+            }
+        }
+        return joined != null ? joined.toString() : single;
+    }
+
+    /**
+     * Deactivates the state and everything nested in it.
+     */
+    void exit(int[] configuration, int state) {
+        exitRegions(configuration, state);
+        configuration[regionOf[state]] = UNKNOWN;
+    }
+
+    private void exitRegions(int[] configuration, int state) {
+        for (int region : regions[state]) {
+            int active = configuration[region];
+            if (active != UNKNOWN) {
+                exitRegions(configuration, active);
+                configuration[region] = UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * Activates the target and its ancestors up to the region, then the initial states of every region on the way
+     * that the target is not in. The region must contain the target and its states must have been exited.
+     */
+    void enter(int[] configuration, int region, int target) {
+        for (int s = target; ; s = parent[s]) {
+            configuration[regionOf[s]] = s;
+            if (regionOf[s] == region) {
+                break;
+            }
+        }
+        for (int s = target; ; s = parent[s]) {
+            for (int nested : regions[s]) {
+                if (configuration[nested] == UNKNOWN) {
+                    enterInitial(configuration, nested);
+                }
+            }
+            if (regionOf[s] == region) {
+                break;
+            }
+        }
+    }
+
+    private void enterInitial(int[] configuration, int region) {
+        int state = regionInitial[region];
+        configuration[region] = state;
+        for (int nested : regions[state]) {
+            enterInitial(configuration, nested);
+        }
+    }
+}
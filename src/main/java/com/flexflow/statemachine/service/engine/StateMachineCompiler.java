@@ -0,0 +1,271 @@
+package com.flexflow.statemachine.service.engine;
+
+import com.flexflow.statemachine.machine.actions.CompiledAction;
+import com.flexflow.statemachine.model.json.ActionGuardJson;
+import com.flexflow.statemachine.model.json.PseudoStateJson;
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import com.flexflow.statemachine.model.json.TransitionJson;
+import com.flexflow.statemachine.service.metrics.StateMachineMetrics;
+import com.flexflow.statemachine.service.outbox.AsyncActionExecutor;
+import com.flexflow.statemachine.service.registry.ActionRegistry;
+import com.flexflow.statemachine.service.registry.GuardRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles a parsed JSON definition into an immutable {@link CompiledStateMachine}.
+ * Guards and actions are resolved against the registries and bound to their params once, at compile time,
+ * so an unknown name or invalid params are reported when the definition is loaded rather than when an
+ * event is processed. Actions declared with "mode": "async" are bound to record themselves in the action outbox.
+ * Composite states, their regions and pseudo-states are validated here and resolved into a {@link StateHierarchy}
+ * and per-transition exit scopes, so firing an event needs no search of the definition.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StateMachineCompiler {
+
+    private final GuardRegistry guardRegistry;
+    private final ActionRegistry actionRegistry;
+    private final StateMachineMetrics metrics;
+    private final AsyncActionExecutor asyncActions;
+
+    public CompiledStateMachine compile(StateMachineDefinitionJson jsonDefinition) {
+        String machineId = jsonDefinition.getMachineId();
+
+        // Intern states and events into dense ids, in declaration order.
+        Map<String, Integer> stateIds = new LinkedHashMap<>();
+        for (String state : jsonDefinition.getStates()) {
+            stateIds.putIfAbsent(state, stateIds.size());
+        }
+        Map<String, Integer> eventIds = new LinkedHashMap<>();
+        for (TransitionJson transition : jsonDefinition.getTransitions()) {
+            if (transition.getEvent() != null) {
+                eventIds.putIfAbsent(transition.getEvent(), eventIds.size());
+            }
+        }
+
+        if (!stateIds.containsKey(jsonDefinition.getInitialState())) {
+            throw new IllegalArgumentException("Initial state '" + jsonDefinition.getInitialState()
+                    + "' is not declared in the states of machineId: " + machineId);
+        }
+
+        boolean flat = isEmpty(jsonDefinition.getCompositeStates()) && isEmpty(jsonDefinition.getPseudoStates());
+        StateHierarchy hierarchy = flat ? null : StateHierarchy.build(machineId, stateIds, jsonDefinition.getCompositeStates());
+
+        boolean[] endStates = new boolean[stateIds.size()];
+        if (jsonDefinition.getEndStates() != null) {
+            for (String endState : jsonDefinition.getEndStates()) {
+                int id = requireState(stateIds, endState, machineId);
+                if (hierarchy != null && hierarchy.isComposite(id)) {
+                    throw new IllegalArgumentException("End state '" + endState + "' cannot be a composite state in machineId: " + machineId);
+                }
+                endStates[id] = true;
+            }
+        }
+
+        Map<String, CompiledPseudoState> pseudoStates = compilePseudoStates(machineId, jsonDefinition.getPseudoStates(),
+                stateIds, hierarchy);
+
+        List<CompiledTransition> transitions = new ArrayList<>(jsonDefinition.getTransitions().size());
+        for (TransitionJson transition : jsonDefinition.getTransitions()) {
+            requireSyncGuard(machineId, transition.getGuard());
+            int sourceId = requireState(stateIds, transition.getSource(), machineId);
+            if (transition.getEvent() == null && (hierarchy == null || !hierarchy.isComposite(sourceId))) {
+                throw new IllegalArgumentException("Transition from '" + transition.getSource() + "' has no event in machineId: "
+                        + machineId + ". Only composite states have completion transitions without an event.");
+            }
+            Duration after = parseAfter(machineId, transition);
+
+            CompiledPseudoState targetPseudo = pseudoStates.get(transition.getTarget());
+            int targetId = targetPseudo == null ? requireState(stateIds, transition.getTarget(), machineId) : CompiledStateMachine.UNKNOWN;
+            int scopeRegion = CompiledStateMachine.UNKNOWN;
+            int exitRootId = CompiledStateMachine.UNKNOWN;
+            if (hierarchy != null) {
+                scopeRegion = hierarchy.commonRegion(hierarchy.regionOf(sourceId),
+                        targetPseudo != null ? targetPseudo.getScopeRegion() : hierarchy.regionOf(targetId));
+                exitRootId = hierarchy.ancestorIn(sourceId, scopeRegion);
+            }
+
+            transitions.add(new CompiledTransition(
+                    transition.getSource(),
+                    transition.getTarget(),
+                    transition.getEvent(),
+                    after,
+                    sourceId,
+                    targetId,
+                    targetPseudo,
+                    transition.getEvent() != null ? eventIds.get(transition.getEvent()) : CompiledStateMachine.UNKNOWN,
+                    guardRegistry.bind(transition.getGuard()),
+                    isNamed(transition.getGuard()) ? metrics.guardTimer(machineId, transition.getGuard().getName()) : null,
+                    bindAction(machineId, transition.getAction()),
+                    isNamed(transition.getAction()) ? metrics.actionTimer(machineId, transition.getAction().getName()) : null,
+                    scopeRegion,
+                    exitRootId
+            ));
+        }
+
+        log.debug("Compiled transition table for machineId='{}' with {} states, {} events and {} transitions", machineId,
+                stateIds.size(), eventIds.size(), transitions.size());
+        return new CompiledStateMachine(machineId, jsonDefinition.getInitialState(), stateIds, eventIds, endStates,
+                List.copyOf(transitions), hierarchy);
+    }
+
+    private Map<String, CompiledPseudoState> compilePseudoStates(String machineId, List<PseudoStateJson> declared,
+                                                                 Map<String, Integer> stateIds, StateHierarchy hierarchy) {
+        if (isEmpty(declared)) {
+            return Map.of();
+        }
+        Map<String, PseudoStateJson> byName = new LinkedHashMap<>();
+        for (PseudoStateJson pseudoState : declared) {
+            if (pseudoState.getName() == null || stateIds.containsKey(pseudoState.getName())
+                    || byName.putIfAbsent(pseudoState.getName(), pseudoState) != null) {
+                throw new IllegalArgumentException("Pseudo-state '" + pseudoState.getName()
+                        + "' must have a name that no other state or pseudo-state has in machineId: " + machineId);
+            }
+        }
+
+        Map<String, CompiledPseudoState> compiled = new LinkedHashMap<>();
+        for (String name : byName.keySet()) {
+            compilePseudoState(machineId, name, byName, compiled, new LinkedHashSet<>(), stateIds, hierarchy);
+        }
+        return compiled;
+    }
+
+    /**
+     * Compiles a pseudo-state after the pseudo-states its branches lead to, so that its scope covers their targets.
+     *
+     * @param resolving The pseudo-states whose branches are being compiled, to detect cycles.
+     */
+    private CompiledPseudoState compilePseudoState(String machineId, String name, Map<String, PseudoStateJson> declared,
+                                                   Map<String, CompiledPseudoState> compiled, Set<String> resolving,
+                                                   Map<String, Integer> stateIds, StateHierarchy hierarchy) {
+        CompiledPseudoState done = compiled.get(name);
+        if (done != null) {
+            return done;
+        }
+        if (!resolving.add(name)) {
+            throw new IllegalArgumentException("Pseudo-states " + resolving + " lead back to '" + name + "' in machineId: " + machineId);
+        }
+
+        PseudoStateJson json = declared.get(name);
+        String kind = json.getKind() != null ? json.getKind() : PseudoStateJson.KIND_CHOICE;
+        if (!PseudoStateJson.KIND_CHOICE.equals(kind) && !PseudoStateJson.KIND_JUNCTION.equals(kind)) {
+            throw new IllegalArgumentException("Unknown kind '" + kind + "' of pseudo-state '" + name + "' in machineId: "
+                    + machineId + ". Expected 'choice' or 'junction'.");
+        }
+        if (isEmpty(json.getBranches())) {
+            throw new IllegalArgumentException("Pseudo-state '" + name + "' has no branches in machineId: " + machineId);
+        }
+        if (PseudoStateJson.KIND_CHOICE.equals(kind) && json.getBranches().get(json.getBranches().size() - 1).getGuard() != null) {
+            throw new IllegalArgumentException("The last branch of choice '" + name + "' must have no guard in machineId: " + machineId);
+        }
+
+        CompiledTransition[] branches = new CompiledTransition[json.getBranches().size()];
+        int scopeRegion = CompiledStateMachine.UNKNOWN;
+        for (int i = 0; i < branches.length; i++) {
+            PseudoStateJson.BranchJson branch = json.getBranches().get(i);
+            requireSyncGuard(machineId, branch.getGuard());
+            CompiledPseudoState next = declared.containsKey(branch.getTarget())
+                    ? compilePseudoState(machineId, branch.getTarget(), declared, compiled, resolving, stateIds, hierarchy)
+                    : null;
+            int targetId = next == null ? requireState(stateIds, branch.getTarget(), machineId) : CompiledStateMachine.UNKNOWN;
+            int targetRegion = next != null ? next.getScopeRegion() : hierarchy.regionOf(targetId);
+            scopeRegion = scopeRegion == CompiledStateMachine.UNKNOWN ? targetRegion : hierarchy.commonRegion(scopeRegion, targetRegion);
+
+            branches[i] = new CompiledTransition(
+                    name,
+                    branch.getTarget(),
+                    null,
+                    null,
+                    CompiledStateMachine.UNKNOWN,
+                    targetId,
+                    next,
+                    CompiledStateMachine.UNKNOWN,
+                    guardRegistry.bind(branch.getGuard()),
+                    isNamed(branch.getGuard()) ? metrics.guardTimer(machineId, branch.getGuard().getName()) : null,
+                    bindAction(machineId, branch.getAction()),
+                    isNamed(branch.getAction()) ? metrics.actionTimer(machineId, branch.getAction().getName()) : null,
+                    CompiledStateMachine.UNKNOWN,
+                    CompiledStateMachine.UNKNOWN
+            );
+        }
+
+        resolving.remove(name);
+        CompiledPseudoState pseudoState = new CompiledPseudoState(name, PseudoStateJson.KIND_JUNCTION.equals(kind),
+                branches, scopeRegion);
+        compiled.put(name, pseudoState);
+        return pseudoState;
+    }
+
+    /**
+     * @return The delay of a timer transition, or null if the transition has no timer.
+     */
+    private Duration parseAfter(String machineId, TransitionJson transition) {
+        if (transition.getAfter() == null) {
+            return null;
+        }
+        if (transition.getEvent() == null) {
+            throw new IllegalArgumentException("Timer transition from '" + transition.getSource() + "' has no event in machineId: "
+                    + machineId + ". The event is what the timer sends.");
+        }
+        Duration after;
+        try {
+            after = DurationStyle.detectAndParse(transition.getAfter());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid 'after' value '" + transition.getAfter() + "' of transition '"
+                    + transition.getEvent() + "' from '" + transition.getSource() + "' in machineId: " + machineId
+                    + ". Expected a duration such as '7d', '12h' or 'PT30M'.", e);
+        }
+        if (after.isNegative() || after.isZero()) {
+            throw new IllegalArgumentException("The 'after' value of transition '" + transition.getEvent() + "' from '"
+                    + transition.getSource() + "' must be positive in machineId: " + machineId);
+        }
+        return after;
+    }
+
+    private void requireSyncGuard(String machineId, ActionGuardJson guard) {
+        if (guard != null && guard.getMode() != null && !ActionGuardJson.MODE_SYNC.equals(guard.getMode())) {
+            throw new IllegalArgumentException("Guard '" + guard.getName() + "' cannot have mode '" + guard.getMode()
+                    + "' in machineId: " + machineId + ". Guards are always synchronous.");
+        }
+    }
+
+    private CompiledAction bindAction(String machineId, ActionGuardJson block) {
+        CompiledAction action = actionRegistry.bind(block);
+        if (action == null || block.getMode() == null || ActionGuardJson.MODE_SYNC.equals(block.getMode())) {
+            return action;
+        }
+        if (!ActionGuardJson.MODE_ASYNC.equals(block.getMode())) {
+            throw new IllegalArgumentException("Unknown mode '" + block.getMode() + "' of action '" + block.getName()
+                    + "' in machineId: " + machineId + ". Expected 'sync' or 'async'.");
+        }
+        return asyncActions.wrap(machineId, block, action);
+    }
+
+    private static boolean isEmpty(List<?> list) {
+        return list == null || list.isEmpty();
+    }
+
+    private boolean isNamed(ActionGuardJson block) {
+        return block != null && block.getName() != null;
+    }
+
+    private int requireState(Map<String, Integer> stateIds, String state, String machineId) {
+        Integer id = stateIds.get(state);
+        if (id == null) {
+            throw new IllegalArgumentException("State '" + state + "' is not declared in the states of machineId: " + machineId);
+        }
+        return id;
+    }
+}
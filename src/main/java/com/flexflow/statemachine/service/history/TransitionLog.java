@@ -0,0 +1,178 @@
+package com.flexflow.statemachine.service.history;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.model.db.StatefulEntity;
+import com.flexflow.statemachine.model.db.TransitionLogEntry;
+import com.flexflow.statemachine.repository.TransitionLogRepository;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * The append-only log of accepted transitions, used for event-sourced persistence and entity history.
+ * <p>
+ * When enabled, a transition is persisted by inserting one log row instead of updating the entity row, and the
+ * entity row becomes a snapshot that is refreshed every {@code snapshot-interval} transitions. An entity is read
+ * by loading its snapshot and replaying the log entries after it. Inserts go through JDBC so that batches are
+ * sent as a single JDBC batch.
+ */
+@Component
+@Slf4j
+public class TransitionLog {
+
+    private static final String INSERT_SQL = "INSERT INTO transition_log "
+            + "(business_id, machine_id, seq_no, from_state, to_state, event, headers_digest, created_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Maximum number of business IDs per IN query when replaying many entities.
+     */
+    private static final int IN_CLAUSE_CHUNK_SIZE = 1000;
+
+    private final TransitionLogRepository logRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+    private final boolean enabled;
+    private final int snapshotInterval;
+
+    public TransitionLog(StateMachineProperties properties, TransitionLogRepository logRepository,
+                         JdbcTemplate jdbcTemplate, EntityManager entityManager) {
+        this.logRepository = logRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+        this.enabled = properties.getEventLog().isEnabled();
+        this.snapshotInterval = Math.max(1, properties.getEventLog().getSnapshotInterval());
+
+        if (enabled) {
+            log.info("Event-sourced persistence enabled (snapshot every {} transitions)", snapshotInterval);
+            if (properties.getStateCache().isEnabled()
+                    && properties.getStateCache().getMode() == StateMachineProperties.StateCache.Mode.WRITE_BEHIND) {
+                log.warn("The event log is written synchronously; the state cache's WRITE_BEHIND mode has no effect.");
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if the entity row should be refreshed as a snapshot after reaching this sequence.
+     */
+    public boolean isSnapshotDue(int sequence) {
+        return sequence % snapshotInterval == 0;
+    }
+
+    /**
+     * Builds the log entry for a transition of the entity from its current state and version.
+     */
+    public TransitionLogEntry entry(StatefulEntity entity, String newState, String event, Map<String, Object> headers) {
+        TransitionLogEntry entry = new TransitionLogEntry();
+        entry.setBusinessId(entity.getBusinessId());
+        entry.setMachineId(entity.getMachineId());
+        entry.setSequence(entity.getVersion() + 1);
+        entry.setFromState(entity.getCurrentState());
+        entry.setToState(newState);
+        entry.setEvent(event);
+        entry.setHeadersDigest(digest(headers));
+        entry.setCreatedAt(Instant.now());
+        return entry;
+    }
+
+    /**
+     * Appends log entries in one JDBC batch.
+     *
+     * @throws ObjectOptimisticLockingFailureException if an entry with the same entity and sequence already exists,
+     *                                                 i.e. the entity was modified since it was loaded.
+     */
+    public void append(List<TransitionLogEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(INSERT_SQL, entries, entries.size(), (ps, entry) -> {
+                ps.setString(1, entry.getBusinessId());
+                ps.setString(2, entry.getMachineId());
+                ps.setInt(3, entry.getSequence());
+                ps.setString(4, entry.getFromState());
+                ps.setString(5, entry.getToState());
+                ps.setString(6, entry.getEvent());
+                ps.setLong(7, entry.getHeadersDigest());
+                ps.setTimestamp(8, Timestamp.from(entry.getCreatedAt()));
+            });
+        } catch (DuplicateKeyException e) {
+            throw new ObjectOptimisticLockingFailureException(StatefulEntity.class, entries.get(0).getBusinessId(), e);
+        }
+    }
+
+    /**
+     * Brings a snapshot loaded from stateful_entities up to date by replaying the log entries after it.
+     * The entity is detached first, so that later changes to it are never written back by JPA.
+     *
+     * @return The same entity instance, with the latest state and version.
+     */
+    public StatefulEntity replay(StatefulEntity snapshot) {
+        entityManager.detach(snapshot);
+        List<TransitionLogEntry> tail =
+                logRepository.findByBusinessIdAndSequenceGreaterThanOrderBySequenceAsc(snapshot.getBusinessId(), snapshot.getVersion());
+        tail.forEach(entry -> apply(snapshot, entry));
+        return snapshot;
+    }
+
+    /**
+     * Replays the log for many snapshots, with one query per chunk of entities.
+     */
+    public void replayAll(Collection<StatefulEntity> snapshots) {
+        Map<String, StatefulEntity> byId = new HashMap<>(snapshots.size() * 2);
+        for (StatefulEntity snapshot : snapshots) {
+            entityManager.detach(snapshot);
+            byId.put(snapshot.getBusinessId(), snapshot);
+        }
+        List<String> ids = new ArrayList<>(byId.keySet());
+        for (int i = 0; i < ids.size(); i += IN_CLAUSE_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(i, Math.min(i + IN_CLAUSE_CHUNK_SIZE, ids.size()));
+            logRepository.findTailsAfterSnapshot(chunk).forEach(entry -> apply(byId.get(entry.getBusinessId()), entry));
+        }
+    }
+
+    /**
+     * @return The full history of an entity, oldest first. Empty if the event log is disabled.
+     */
+    public List<TransitionLogEntry> history(String businessId) {
+        return logRepository.findByBusinessIdOrderBySequenceAsc(businessId);
+    }
+
+    private static void apply(StatefulEntity entity, TransitionLogEntry entry) {
+        entity.setCurrentState(entry.getToState());
+        entity.setVersion(entry.getSequence());
+    }
+
+    private static long digest(Map<String, Object> headers) {
+        if (headers == null || headers.isEmpty()) {
+            return 0L;
+        }
+        CRC32C crc = new CRC32C();
+        // Sorted, so that the digest does not depend on the iteration order of the map.
+        new TreeMap<>(headers).forEach((key, value) -> {
+            crc.update(key.getBytes(StandardCharsets.UTF_8));
+            crc.update('=');
+            crc.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+            crc.update(';');
+        });
+        return crc.getValue();
+    }
+}
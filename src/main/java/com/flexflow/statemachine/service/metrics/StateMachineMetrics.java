@@ -0,0 +1,156 @@
+package com.flexflow.statemachine.service.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Central place for the meters and observations of the state machine runtime.
+ * Meters are exposed through the actuator 'metrics' endpoint; trigger observations also become trace spans
+ * when a Micrometer tracing bridge is on the classpath.
+ */
+@Component
+public class StateMachineMetrics {
+
+    public static final String PHASE_RESTORE = "restore";
+    public static final String PHASE_SEND_EVENT = "sendEvent";
+    public static final String PHASE_PERSIST = "persist";
+
+    /**
+     * The 'event' tag of events that the machine does not define. Event names come from requests, so only those
+     * defined in a machine are used as tag values, which keeps the number of meters bounded.
+     */
+    public static final String UNKNOWN_EVENT = "unknown";
+
+    private final ObservationRegistry observationRegistry;
+    private final MeterRegistry meterRegistry;
+
+    private final Meter.MeterProvider<Timer> phaseTimers;
+    private final Meter.MeterProvider<Counter> transitionCounters;
+    private final Meter.MeterProvider<Counter> rejectedCounters;
+    private final Meter.MeterProvider<Timer> guardTimers;
+    private final Meter.MeterProvider<Timer> actionTimers;
+    private final Meter.MeterProvider<Counter> cacheCounters;
+    private final Meter.MeterProvider<Counter> reloadCounters;
+
+    public StateMachineMetrics(MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
+        this.observationRegistry = observationRegistry;
+        this.meterRegistry = meterRegistry;
+        this.phaseTimers = Timer.builder("statemachine.trigger.phase")
+                .description("Time spent in each phase of a trigger: restore, sendEvent and persist")
+                .withRegistry(meterRegistry);
+        this.transitionCounters = Counter.builder("statemachine.transitions")
+                .description("Accepted events, by source and target state; equal for self-transitions")
+                .withRegistry(meterRegistry);
+        this.rejectedCounters = Counter.builder("statemachine.events.rejected")
+                .description("Events for which no transition fired")
+                .withRegistry(meterRegistry);
+        this.guardTimers = Timer.builder("statemachine.guard")
+                .description("Guard evaluation latency")
+                .publishPercentileHistogram()
+                .withRegistry(meterRegistry);
+        this.actionTimers = Timer.builder("statemachine.action")
+                .description("Action execution latency")
+                .publishPercentileHistogram()
+                .withRegistry(meterRegistry);
+        this.cacheCounters = Counter.builder("statemachine.definition.cache")
+                .description("Lookups of built factories and compiled definitions, by result")
+                .withRegistry(meterRegistry);
+        this.reloadCounters = Counter.builder("statemachine.definition.reloads")
+                .description("Definition reloads, by result: installed or failed")
+                .withRegistry(meterRegistry);
+    }
+
+    /**
+     * Starts the observation wrapping a whole trigger. The caller must stop it, and should replace its 'event' tag
+     * once it knows whether the machine defines the event.
+     */
+    public Observation startTrigger() {
+        return Observation.createNotStarted("statemachine.trigger", observationRegistry)
+                .lowCardinalityKeyValue("event", UNKNOWN_EVENT)
+                .start();
+    }
+
+    public void recordPhase(String machineId, String phase, long startNanos) {
+        phaseTimers.withTags("machineId", machineId, "phase", phase)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordTransition(String machineId, String event, String source, String target) {
+        transitionCounters.withTags("machineId", machineId, "event", event, "source", source, "target", target).increment();
+    }
+
+    /**
+     * @param event The event as defined in the machine, or {@link #UNKNOWN_EVENT}.
+     */
+    public void recordRejected(String machineId, String event, String state) {
+        rejectedCounters.withTags("machineId", machineId, "event", event, "state", state).increment();
+    }
+
+    public Timer guardTimer(String machineId, String guardName) {
+        return guardTimers.withTags("machineId", machineId, "guard", guardName);
+    }
+
+    public Timer actionTimer(String machineId, String actionName) {
+        return actionTimers.withTags("machineId", machineId, "action", actionName);
+    }
+
+    public void recordCacheLookup(String cache, boolean hit) {
+        cacheCounters.withTags("cache", cache, "result", hit ? "hit" : "miss").increment();
+    }
+
+    /**
+     * Records how long the startup warm-up took; 'partial' if some definitions failed to compile.
+     */
+    public void recordWarmup(long startNanos, boolean complete) {
+        Timer.builder("statemachine.warmup")
+                .description("Time spent compiling all definitions at startup")
+                .tag("result", complete ? "complete" : "partial")
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordReload(String machineId, String result) {
+        reloadCounters.withTags("machineId", machineId, "result", result).increment();
+    }
+
+    /**
+     * Evaluates a guard and records its latency without boxing the result.
+     */
+    public static boolean timeGuard(Timer timer, BooleanSupplier guard) {
+        long start = System.nanoTime();
+        try {
+            return guard.getAsBoolean();
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public static void timeAction(Timer timer, Runnable action) {
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records the latency of a non-blocking action, from subscription until it completes or fails.
+     */
+    public static Mono<Void> timeReactiveAction(Timer timer, Supplier<Mono<Void>> action) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return action.get().doFinally(signal -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+}
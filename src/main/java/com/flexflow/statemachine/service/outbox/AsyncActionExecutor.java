@@ -0,0 +1,489 @@
+package com.flexflow.statemachine.service.outbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.machine.actions.CompiledAction;
+import com.flexflow.statemachine.model.db.ActionOutboxEntry;
+import com.flexflow.statemachine.model.json.ActionGuardJson;
+import com.flexflow.statemachine.service.cluster.PartitionOwnership;
+import com.flexflow.statemachine.service.registry.ActionRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.state.ObjectState;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateContext;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Executes actions declared with "mode": "async" outside the transition, through a transactional outbox.
+ * <p>
+ * When an async action's transition is accepted, a row is inserted into action_outbox in the transition's
+ * transaction instead of running the action. After the transaction commits, the action is handed to a bounded
+ * executor of its own, so one slow action cannot starve the others, and its row is deleted once it succeeds.
+ * Failed executions are retried with exponential backoff. A poller picks up rows that are due for a retry,
+ * rejected because their executor's queue was full, or never dispatched because the node stopped after the commit.
+ * <p>
+ * A node claims a row before executing it by moving its next_attempt_at to the end of a lease, with a conditional
+ * update that only one node can win; the inserting node holds the first claim. While claimed, a row is not due,
+ * so neither this node's poller nor another node's picks it up. Execution is at-least-once: an action may run
+ * again if the node stops between running it and deleting its row, or if it runs for longer than the lease.
+ * In cluster mode, the poller only claims rows of entities in partitions this node owns, so that retried actions
+ * run on the node that processes the entity's events.
+ */
+@Component
+@Slf4j
+public class AsyncActionExecutor {
+
+    /**
+     * Key of a {@code List<PendingAction>} in the Reactor context. On the reactive trigger path the action runs
+     * before the persist transaction, so pending actions are collected there and recorded with {@link #enqueueAll}
+     * in that transaction.
+     */
+    public static final String PENDING_CONTEXT_KEY = AsyncActionExecutor.class.getName() + ".pending";
+
+    private static final String INSERT_SQL = "INSERT INTO action_outbox "
+            + "(business_id, machine_id, action_name, params, source_state, target_state, event, headers, "
+            + "status, attempts, next_attempt_at, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 1, ?, ?)";
+    private static final String CLAIM_SQL =
+            "UPDATE action_outbox SET next_attempt_at = ?, attempts = ? WHERE id = ? AND next_attempt_at = ?";
+    private static final String RELEASE_SQL =
+            "UPDATE action_outbox SET next_attempt_at = ? WHERE id = ? AND next_attempt_at = ?";
+    private static final String DELETE_SQL = "DELETE FROM action_outbox WHERE id = ?";
+    private static final String RETRY_SQL = "UPDATE action_outbox SET next_attempt_at = ?, last_error = ? "
+            + "WHERE id = ? AND next_attempt_at = ?";
+    private static final String FAIL_SQL = "UPDATE action_outbox SET status = ?, last_error = ? "
+            + "WHERE id = ? AND next_attempt_at = ?";
+    private static final String DUE_SQL = "SELECT id, business_id, machine_id, action_name, params, source_state, "
+            + "target_state, event, headers, attempts, next_attempt_at FROM action_outbox "
+            + "WHERE status = ? AND next_attempt_at <= ? AND id > ? ORDER BY id LIMIT ?";
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ActionRegistry actionRegistry;
+    private final ObjectMapper objectMapper;
+    private final PartitionOwnership ownership;
+    private final MeterRegistry meterRegistry;
+    private final StateMachineProperties.AsyncActions config;
+
+    private final Map<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    /**
+     * Ids of rows queued or running on this node, or inserted by a transaction that has not completed yet.
+     * The poller skips them even once their lease has expired, so that this node never runs a row twice at once.
+     */
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Where async actions executed on the current thread are collected instead of being enqueued, if set.
+     */
+    private final ThreadLocal<List<PendingAction>> collecting = new ThreadLocal<>();
+
+    private final ScheduledExecutorService poller;
+    private final Meter.MeterProvider<Timer> executionTimers;
+    private final Meter.MeterProvider<Counter> rejectedCounters;
+
+    public AsyncActionExecutor(StateMachineProperties properties, JdbcTemplate jdbcTemplate, ActionRegistry actionRegistry,
+                               ObjectMapper objectMapper, PartitionOwnership ownership, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.actionRegistry = actionRegistry;
+        this.objectMapper = objectMapper;
+        this.ownership = ownership;
+        this.meterRegistry = meterRegistry;
+        this.config = properties.getAsyncActions();
+
+        this.executionTimers = Timer.builder("statemachine.action.async")
+                .description("Async action execution latency, by result: succeeded, retried or failed")
+                .withRegistry(meterRegistry);
+        this.rejectedCounters = Counter.builder("statemachine.action.async.rejected")
+                .description("Async actions left in the outbox because their executor's queue was full")
+                .withRegistry(meterRegistry);
+        Gauge.builder("statemachine.action.async.in-flight", inFlight, Set::size)
+                .description("Async actions queued or running on this node")
+                .register(meterRegistry);
+
+        this.poller = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("sm-outbox-poller").factory());
+        long pollMillis = config.getPollInterval().toMillis();
+        poller.scheduleWithFixedDelay(this::pollQuietly, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wraps the bound action of a transition declared with "mode": "async", so that executing it records it in the
+     * outbox instead of running it.
+     */
+    public CompiledAction wrap(String machineId, ActionGuardJson block, CompiledAction action) {
+        String actionName = block.getName();
+        Map<String, Object> params = block.getParams() != null ? block.getParams() : Map.of();
+
+        return new CompiledAction() {
+            @Override
+            public void execute(StateContext<String, String> context) {
+                PendingAction pending = pending(machineId, actionName, params, action, context);
+                List<PendingAction> collected = collecting.get();
+                if (collected != null) {
+                    collected.add(pending);
+                } else {
+                    enqueue(pending);
+                }
+            }
+
+            @Override
+            public Mono<Void> executeReactive(StateContext<String, String> context) {
+                return Mono.deferContextual(view -> {
+                    PendingAction pending = pending(machineId, actionName, params, action, context);
+                    Optional<List<PendingAction>> deferred = view.getOrEmpty(PENDING_CONTEXT_KEY);
+                    deferred.ifPresentOrElse(list -> list.add(pending), () -> enqueue(pending));
+                    return Mono.<Void>empty();
+                });
+            }
+        };
+    }
+
+    /**
+     * Records an async action in the outbox. Within a transaction, it is dispatched once the transaction commits
+     * and dropped with the row if it rolls back; without one, it is dispatched immediately.
+     *
+     * @throws IllegalArgumentException if the params or headers cannot be stored as JSON.
+     */
+    public void enqueue(PendingAction action) {
+        Timestamp leaseEnd = leaseEnd();
+        Claim claim = new Claim(insert(action, leaseEnd), 1, leaseEnd);
+        inFlight.add(claim.id());
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(claim, action.actionName(), action.action(), context(action));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    submit(claim, action.actionName(), action.action(), context(action));
+                } else {
+                    inFlight.remove(claim.id());
+                }
+            }
+        });
+    }
+
+    public void enqueueAll(List<PendingAction> actions) {
+        actions.forEach(this::enqueue);
+    }
+
+    /**
+     * Runs the work with the async actions it executes on this thread added to the given list instead of being
+     * enqueued, so that the caller can enqueue them with {@link #enqueueAll} only once their transition is written,
+     * e.g. per entity of a batch whose entities are written or rejected individually.
+     */
+    public <T> T collecting(List<PendingAction> into, Supplier<T> work) {
+        List<PendingAction> previous = collecting.get();
+        collecting.set(into);
+        try {
+            return work.get();
+        } finally {
+            if (previous != null) {
+                collecting.set(previous);
+            } else {
+                collecting.remove();
+            }
+        }
+    }
+
+    private long insert(PendingAction action, Timestamp leaseEnd) {
+        String params = toJson(action.params());
+        String headers = toJson(action.headers());
+        Timestamp now = Timestamp.from(Instant.now());
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(INSERT_SQL, new String[]{"id"});
+            ps.setString(1, action.businessId());
+            ps.setString(2, action.machineId());
+            ps.setString(3, action.actionName());
+            ps.setString(4, params);
+            ps.setString(5, action.source());
+            ps.setString(6, action.target());
+            ps.setString(7, action.event());
+            ps.setString(8, headers);
+            ps.setString(9, ActionOutboxEntry.STATUS_PENDING);
+            ps.setTimestamp(10, leaseEnd);
+            ps.setTimestamp(11, now);
+            return ps;
+        }, keyHolder);
+        return keyHolder.getKeyAs(Long.class);
+    }
+
+    private void submit(Claim claim, String actionName, CompiledAction action, StateContext<String, String> context) {
+        try {
+            executorFor(actionName).execute(() -> run(claim, actionName, action, context));
+        } catch (RejectedExecutionException e) {
+            // Give up the claim, so that the next poll can dispatch the entry without waiting for the lease.
+            jdbcTemplate.update(RELEASE_SQL, Timestamp.from(Instant.now()), claim.id(), claim.leaseEnd());
+            inFlight.remove(claim.id());
+            rejectedCounters.withTags("action", actionName).increment();
+            log.debug("Executor of async action '{}' is saturated; outbox entry {} stays pending", actionName, claim.id());
+        }
+    }
+
+    private void run(Claim claim, String actionName, CompiledAction action, StateContext<String, String> context) {
+        long start = System.nanoTime();
+        String result;
+        try {
+            action.execute(context);
+            jdbcTemplate.update(DELETE_SQL, claim.id());
+            result = "succeeded";
+        } catch (Exception e) {
+            result = recordFailure(claim, actionName, e);
+        } finally {
+            inFlight.remove(claim.id());
+        }
+        executionTimers.withTags("action", actionName, "result", result)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private String recordFailure(Claim claim, String actionName, Exception e) {
+        String error = truncate(String.valueOf(e));
+        int attempts = claim.attempt();
+        if (attempts >= config.getMaxAttempts()) {
+            log.error("Async action '{}' (outbox entry {}) failed after {} attempts; giving up", actionName, claim.id(), attempts, e);
+            updateClaimed(claim, FAIL_SQL, ActionOutboxEntry.STATUS_FAILED, error, claim.id(), claim.leaseEnd());
+            return "failed";
+        }
+        Duration backoff = config.getRetryBackoff().multipliedBy(1L << Math.min(attempts - 1, 20));
+        log.warn("Async action '{}' (outbox entry {}) failed on attempt {}; retrying in {}: {}", actionName, claim.id(), attempts, backoff, error);
+        updateClaimed(claim, RETRY_SQL, Timestamp.from(Instant.now().plus(backoff)), error, claim.id(), claim.leaseEnd());
+        return "retried";
+    }
+
+    /**
+     * Updates a claimed entry, unless its lease expired and another poll claimed it in the meantime.
+     */
+    private void updateClaimed(Claim claim, String sql, Object... args) {
+        if (jdbcTemplate.update(sql, args) == 0) {
+            log.warn("Lost the claim on outbox entry {} after its lease expired; the result of attempt {} is dropped",
+                    claim.id(), claim.attempt());
+        }
+    }
+
+    /**
+     * Claims and dispatches up to a batch of outbox entries that are due, of entities this node owns, and not already
+     * queued on this node. Pages are read by id until the batch is full, so rows of other nodes' partitions do not
+     * keep this node's rows from being read.
+     */
+    public void poll() {
+        int batchSize = config.getPollBatchSize();
+        Timestamp now = Timestamp.from(Instant.now());
+        int scanned = 0;
+        int claimed = 0;
+        long afterId = 0;
+        List<OutboxRow> due;
+        do {
+            due = jdbcTemplate.query(DUE_SQL, (rs, rowNum) -> new OutboxRow(
+                            rs.getLong("id"),
+                            new PendingAction(rs.getString("machine_id"), rs.getString("action_name"),
+                                    fromJson(rs.getString("params")), null, rs.getString("business_id"),
+                                    rs.getString("source_state"), rs.getString("target_state"), rs.getString("event"),
+                                    fromJson(rs.getString("headers"))),
+                            rs.getInt("attempts"),
+                            rs.getTimestamp("next_attempt_at")),
+                    ActionOutboxEntry.STATUS_PENDING, now, afterId, batchSize);
+            scanned += due.size();
+            for (OutboxRow row : due) {
+                afterId = row.id();
+                if (claimed < batchSize && dispatch(row)) {
+                    claimed++;
+                }
+            }
+        } while (due.size() == batchSize && claimed < batchSize);
+        if (scanned > 0) {
+            log.debug("Polled {} due async actions from the outbox, claimed {}", scanned, claimed);
+        }
+    }
+
+    /**
+     * Claims a due entry and hands it to its executor.
+     *
+     * @return true if this node claimed the entry.
+     */
+    private boolean dispatch(OutboxRow row) {
+        if (!ownership.owns(row.action().businessId()) || !inFlight.add(row.id())) {
+            return false;
+        }
+        Claim claim = claim(row);
+        if (claim == null) {
+            // Another node claimed the entry since it was read.
+            inFlight.remove(row.id());
+            return false;
+        }
+        PendingAction pending = row.action();
+        try {
+            CompiledAction action = actionRegistry.bind(block(pending));
+            submit(claim, pending.actionName(), action, context(pending));
+        } catch (Exception e) {
+            // The action was removed or its params became invalid; count it as a failed attempt.
+            inFlight.remove(row.id());
+            recordFailure(claim, pending.actionName(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Moves a due entry's next_attempt_at to the end of a new lease, if no other poll has done so since it was read.
+     *
+     * @return The claim, or null if the entry was claimed elsewhere.
+     */
+    private Claim claim(OutboxRow row) {
+        Timestamp leaseEnd = leaseEnd();
+        int attempt = row.attempts() + 1;
+        int updated = jdbcTemplate.update(CLAIM_SQL, leaseEnd, attempt, row.id(), row.nextAttemptAt());
+        return updated == 1 ? new Claim(row.id(), attempt, leaseEnd) : null;
+    }
+
+    /**
+     * The end of a lease starting now, in milliseconds so that it compares equal after a round trip to the database.
+     */
+    private Timestamp leaseEnd() {
+        return Timestamp.from(Instant.now().plus(config.getLease()).truncatedTo(ChronoUnit.MILLIS));
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (Exception e) {
+            log.error("Failed to poll the action outbox", e);
+        }
+    }
+
+    private ThreadPoolExecutor executorFor(String actionName) {
+        return executors.computeIfAbsent(actionName, name -> {
+            int concurrency = Math.max(1, config.getActionConcurrency().getOrDefault(name, config.getConcurrency()));
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(config.getQueueCapacity()),
+                    Thread.ofPlatform().name("sm-action-" + name + "-", 0).factory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            Gauge.builder("statemachine.action.async.queue.depth", executor, e -> e.getQueue().size())
+                    .description("Async actions waiting for their executor")
+                    .tag("action", name)
+                    .register(meterRegistry);
+            log.info("Started executor for async action '{}' (concurrency {}, queue capacity {})",
+                    name, concurrency, config.getQueueCapacity());
+            return executor;
+        });
+    }
+
+    private static PendingAction pending(String machineId, String actionName, Map<String, Object> params,
+                                         CompiledAction action, StateContext<String, String> context) {
+        Map<String, Object> headers = new HashMap<>(context.getMessageHeaders());
+        headers.remove(MessageHeaders.ID);
+        headers.remove(MessageHeaders.TIMESTAMP);
+        return new PendingAction(machineId, actionName, params, action, (String) context.getMessageHeader("entityId"),
+                context.getSource().getId(), context.getTarget().getId(), context.getEvent(), headers);
+    }
+
+    /**
+     * Rebuilds the context the action is executed with from the recorded transition.
+     */
+    private static StateContext<String, String> context(PendingAction action) {
+        Message<String> message = MessageBuilder.withPayload(action.event())
+                .copyHeaders(action.headers())
+                .build();
+        return new DefaultStateContext<>(StateContext.Stage.TRANSITION, message, message.getHeaders(),
+                new DefaultExtendedState(), null, null,
+                new ObjectState<>(action.source()), new ObjectState<>(action.target()), null);
+    }
+
+    private static ActionGuardJson block(PendingAction action) {
+        ActionGuardJson block = new ActionGuardJson();
+        block.setName(action.actionName());
+        block.setParams(action.params());
+        return block;
+    }
+
+    private String toJson(Map<String, Object> value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Params and headers of an async action must be serializable as JSON", e);
+        }
+    }
+
+    private Map<String, Object> fromJson(String json) {
+        try {
+            return json != null ? objectMapper.readValue(json, MAP_TYPE) : Map.of();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Corrupt JSON in the action outbox", e);
+        }
+    }
+
+    private static String truncate(String error) {
+        return error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdown();
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        for (ThreadPoolExecutor executor : executors.values()) {
+            try {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    // The entries stay in the outbox and are dispatched again after a restart.
+                    log.warn("Async action executor did not drain within 10s; {} actions left in the outbox.",
+                            executor.shutdownNow().size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private record OutboxRow(long id, PendingAction action, int attempts, Timestamp nextAttemptAt) {
+    }
+
+    /**
+     * An entry this node has claimed for one execution.
+     *
+     * @param attempt  The number of this execution, counting the failed ones before it.
+     * @param leaseEnd The next_attempt_at written by the claim, which identifies it in later updates.
+     */
+    private record Claim(long id, int attempt, Timestamp leaseEnd) {
+    }
+}
@@ -0,0 +1,15 @@
+package com.flexflow.statemachine.service.outbox;
+
+import com.flexflow.statemachine.machine.actions.CompiledAction;
+
+import java.util.Map;
+
+/**
+ * An async action of a transition that has been accepted but not yet recorded in the action outbox.
+ *
+ * @param action  The bound action to execute, or null to bind it again by name from the registry.
+ * @param headers The headers the event was sent with, including 'entityId'.
+ */
+public record PendingAction(String machineId, String actionName, Map<String, Object> params, CompiledAction action,
+                            String businessId, String source, String target, String event, Map<String, Object> headers) {
+}
@@ -2,36 +2,94 @@ package com.flexflow.statemachine.service.persister;
 
 import com.flexflow.statemachine.model.db.StatefulEntity;
 import com.flexflow.statemachine.repository.StatefulEntityRepository;
+import com.flexflow.statemachine.service.cache.EntityStateCache;
+import com.flexflow.statemachine.service.history.TransitionLog;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.statemachine.StateMachineContext;
-import org.springframework.statemachine.StateMachinePersist;
 import org.springframework.statemachine.support.DefaultStateMachineContext;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
 /**
  * Implements the persistence mechanism for the state machine.
  * It reads and writes the state of a StatefulEntity to/from the database.
+ * The entity is loaded once per event via {@link #load(String)} and then passed through restore and persist,
+ * so reading the context needs no query and writing it is a single conditional update.
+ * When the {@link EntityStateCache} is enabled, loads are served from it and, in write-behind mode,
+ * writes are recorded in it and flushed later.
+ * When the {@link TransitionLog} is enabled, writes append to the log instead, and loads replay the log
+ * on top of the entity row, which is a periodic snapshot.
  */
 @Component
+@ConditionalOnProperty(prefix = "statemachine", name = "persister", havingValue = "jpa", matchIfMissing = true)
 @RequiredArgsConstructor
-public class DynamicStateMachinePersister implements StateMachinePersist<String, String, String> {
+public class DynamicStateMachinePersister implements EntityStatePersister {
 
     private final StatefulEntityRepository entityRepository;
+    private final EntityStateCache stateCache;
+    private final TransitionLog transitionLog;
 
+    /**
+     * Finds an entity, through the state cache if it is enabled.
+     */
     @Override
-    public void write(StateMachineContext<String, String> context, String businessId) throws Exception {
-        StatefulEntity entity = entityRepository.findByBusinessId(businessId)
-                .orElseThrow(() -> new IllegalArgumentException("Could not find entity with businessId: " + businessId));
+    public Optional<StatefulEntity> find(String businessId) {
+        return stateCache.find(businessId, this::findInDatabase);
+    }
 
-        entity.setCurrentState(context.getState());
-        entityRepository.save(entity);
+    private Optional<StatefulEntity> findInDatabase(String businessId) {
+        Optional<StatefulEntity> entity = entityRepository.findByBusinessId(businessId);
+        return transitionLog.isEnabled() ? entity.map(transitionLog::replay) : entity;
     }
 
     @Override
-    public StateMachineContext<String, String> read(String businessId) throws Exception {
-        StatefulEntity entity = entityRepository.findByBusinessId(businessId)
-                .orElseThrow(() -> new IllegalArgumentException("Could not find entity with businessId: " + businessId));
+    public void write(StateMachineContext<String, String> context, StatefulEntity entity) throws Exception {
+        persistState(entity, context.getState(), context.getEvent(), context.getEventHeaders());
+    }
 
+    @Override
+    public StateMachineContext<String, String> read(StatefulEntity entity) throws Exception {
         return new DefaultStateMachineContext<>(entity.getCurrentState(), null, null, null, null, entity.getMachineId());
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes a new state for the entity with a single versioned UPDATE, or records it in the cache in write-behind mode.
+     * With the event log enabled, appends a log entry instead and refreshes the snapshot when one is due.
+     *
+     * @param event   The event that caused the transition, recorded in the event log.
+     * @param headers The headers the event was sent with; only their digest is recorded.
+     * @throws ObjectOptimisticLockingFailureException if the entity was modified since it was loaded.
+     */
+    @Override
+    public void persistState(StatefulEntity entity, String newState, String event, Map<String, Object> headers) {
+        if (transitionLog.isEnabled()) {
+            transitionLog.append(List.of(transitionLog.entry(entity, newState, event, headers)));
+            entity.setCurrentState(newState);
+            entity.setVersion(entity.getVersion() + 1);
+            if (transitionLog.isSnapshotDue(entity.getVersion())) {
+                entityRepository.updateSnapshot(entity.getBusinessId(), newState, entity.getVersion());
+            }
+            stateCache.written(entity);
+            return;
+        }
+
+        if (stateCache.isWriteBehind() && stateCache.holds(entity.getBusinessId())) {
+            stateCache.recordTransition(entity, newState);
+            return;
+        }
+
+        int updated = entityRepository.updateStateIfVersion(entity.getBusinessId(), newState, entity.getVersion());
+        if (updated == 0) {
+            stateCache.evict(List.of(entity.getBusinessId()));
+            throw new ObjectOptimisticLockingFailureException(StatefulEntity.class, entity.getBusinessId());
+        }
+        entity.setCurrentState(newState);
+        entity.setVersion(entity.getVersion() + 1);
+        stateCache.written(entity);
+    }
+}
@@ -0,0 +1,49 @@
+package com.flexflow.statemachine.service.persister;
+
+import com.flexflow.statemachine.model.db.StatefulEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.statemachine.StateMachinePersist;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Loads entities and stores their state changes. The implementation is selected with 'statemachine.persister':
+ * 'jpa' ({@link DynamicStateMachinePersister}, the default) or 'journal' ({@link JournalStateMachinePersister}).
+ */
+public interface EntityStatePersister extends StateMachinePersist<String, String, StatefulEntity> {
+
+    /**
+     * @param businessId The unique ID of the business object.
+     * @return An Optional containing the entity with its latest state if found.
+     */
+    Optional<StatefulEntity> find(String businessId);
+
+    /**
+     * Loads the entity that an event will be processed against.
+     *
+     * @param businessId The unique ID of the business object.
+     * @return The entity, including the version that {@link #persistState} will check against.
+     */
+    default StatefulEntity load(String businessId) {
+        return find(businessId)
+                .orElseThrow(() -> new IllegalArgumentException("Entity not found: " + businessId));
+    }
+
+    /**
+     * Stores a new state for the entity and updates its state and version.
+     *
+     * @param event   The event that caused the transition.
+     * @param headers The headers the event was sent with.
+     * @throws ObjectOptimisticLockingFailureException if the entity was modified since it was loaded.
+     */
+    void persistState(StatefulEntity entity, String newState, String event, Map<String, Object> headers);
+
+    /**
+     * @return true if state changes are stored in the stateful_entities rows, so that callers may load and
+     * update those rows directly, as the batch trigger path does.
+     */
+    default boolean writesEntityRows() {
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+package com.flexflow.statemachine.service.persister.journal;
+
+import com.flexflow.statemachine.model.db.StatefulEntity;
+
+/**
+ * The latest journaled state of one entity, as kept in the in-memory index of the {@link StateJournal}.
+ */
+public record JournalEntry(long entityId, String businessId, String machineId, String state, int version) {
+
+    /**
+     * @return A new detached entity with this state and version.
+     */
+    public StatefulEntity toEntity() {
+        StatefulEntity entity = new StatefulEntity();
+        entity.setId(entityId);
+        entity.setBusinessId(businessId);
+        entity.setMachineId(machineId);
+        entity.setCurrentState(state);
+        entity.setVersion(version);
+        return entity;
+    }
+}
@@ -0,0 +1,515 @@
+package com.flexflow.statemachine.service.persister.journal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import com.flexflow.statemachine.model.db.StatefulEntity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * A local, append-only journal of entity states in memory-mapped segment files.
+ * <p>
+ * Every state change appends one record to the active segment; when it is full, a new segment is started.
+ * An in-memory index holds the latest record of every entity, so reads never touch the files. The index is
+ * rebuilt by scanning the segments when the journal is opened; a torn record at the end of the last segment
+ * (from a crash mid-write) fails its checksum and is discarded. Versions only ever grow, so when an entity
+ * has records in several segments, the one with the highest version wins, whatever the order of the segments.
+ * <p>
+ * Durability uses group commit: a single flusher thread forces dirty segments to disk every fsync interval,
+ * and with synchronous writes, appenders wait for the flush that covers their record. Many concurrent
+ * appends therefore share one fsync. The same thread compacts the journal: sealed segments in which live
+ * records take up less than the compaction threshold of the written bytes have their live records copied to
+ * fresh segments and are deleted. Mostly live segments are left alone, so each record is rewritten only a
+ * bounded number of times, however large the live set grows.
+ * <pre>
+ * record := payload length (int) | CRC32C of payload (int) | payload
+ * payload := entityId (long) | businessId | machineId | state | version (int); strings are short length + UTF-8
+ * </pre>
+ */
+@Slf4j
+public class StateJournal implements Closeable {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d{8})\\.log");
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncWrites;
+    private final double compactionThreshold;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+    /**
+     * Guards appends, the segment list and the flush counters. A lock rather than synchronized,
+     * so that virtual threads waiting for a flush are not pinned.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition flushed = writeLock.newCondition();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Set<Segment> dirty = new HashSet<>();
+    private Segment active;
+    private int nextSegmentId = 1;
+    private long appended;
+    private long durable;
+
+    private final ScheduledExecutorService flusher;
+
+    private StateJournal(Path directory, int segmentSize, boolean syncWrites, double compactionThreshold) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncWrites = syncWrites;
+        this.compactionThreshold = compactionThreshold;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("sm-journal-flusher").factory());
+    }
+
+    /**
+     * Opens the journal in a directory, creating it if needed, and rebuilds the index from existing segments.
+     *
+     * @param segmentSize        Size of each memory-mapped segment file in bytes.
+     * @param fsyncInterval      How often dirty segments are forced to disk; the group commit window.
+     * @param syncWrites         Whether {@link #append} waits until its record has been forced to disk.
+     * @param compactionInterval  How often sealed segments are compacted.
+     * @param compactionThreshold A sealed segment is compacted once its live records take up less than this
+     *                            fraction of its written bytes.
+     */
+    public static StateJournal open(Path directory, int segmentSize, Duration fsyncInterval, boolean syncWrites,
+                                    Duration compactionInterval, double compactionThreshold) {
+        StateJournal journal = new StateJournal(directory, segmentSize, syncWrites, compactionThreshold);
+        try {
+            Files.createDirectories(directory);
+            journal.recover();
+        } catch (IOException e) {
+            journal.close();
+            throw new UncheckedIOException("Failed to open state journal in " + directory, e);
+        }
+
+        long fsyncMicros = Math.max(1, fsyncInterval.toNanos() / 1_000);
+        journal.flusher.scheduleWithFixedDelay(journal::flushQuietly, fsyncMicros, fsyncMicros, TimeUnit.MICROSECONDS);
+        long compactionMillis = compactionInterval.toMillis();
+        journal.flusher.scheduleWithFixedDelay(journal::compactQuietly, compactionMillis, compactionMillis, TimeUnit.MILLISECONDS);
+        return journal;
+    }
+
+    /**
+     * @return The latest journaled state of the entity, or null if it has never been journaled.
+     */
+    public JournalEntry get(String businessId) {
+        Location location = index.get(businessId);
+        return location != null ? location.entry() : null;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Appends a state change of the entity, from the version it was loaded at.
+     *
+     * @return The journaled entry, with the incremented version.
+     * @throws ObjectOptimisticLockingFailureException if a newer version of the entity was journaled since it was loaded.
+     */
+    public JournalEntry append(StatefulEntity entity, String newState) {
+        JournalEntry entry = new JournalEntry(entity.getId() != null ? entity.getId() : 0L, entity.getBusinessId(),
+                entity.getMachineId(), newState, entity.getVersion() + 1);
+        byte[] payload = encode(entry);
+
+        writeLock.lock();
+        try {
+            Location current = index.get(entry.businessId());
+            if (current != null && current.entry().version() != entity.getVersion()) {
+                throw new ObjectOptimisticLockingFailureException(StatefulEntity.class, entry.businessId());
+            }
+            long ticket = write(active, entry, payload);
+            if (syncWrites) {
+                while (durable < ticket) {
+                    flushed.awaitUninterruptibly();
+                }
+            }
+            return entry;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a record to a segment, the active one unless compacting, and points the index at it.
+     * The active segment is rolled when it is full. Must hold the write lock.
+     *
+     * @return The ticket of the write; the record is durable once a flush has covered it.
+     */
+    private long write(Segment target, JournalEntry entry, byte[] payload) {
+        int recordSize = RECORD_HEADER_BYTES + payload.length;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Journal record of " + recordSize + " bytes exceeds the segment size");
+        }
+        if (target == active && active.buffer.remaining() < recordSize) {
+            active = newSegment();
+            target = active;
+            log.debug("Rolled state journal to segment {}", active.id);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        target.buffer.putInt(payload.length);
+        target.buffer.putInt((int) crc.getValue());
+        target.buffer.put(payload);
+
+        index(new Location(target.id, entry, recordSize));
+        dirty.add(target);
+        return ++appended;
+    }
+
+    /**
+     * Points the index at a record and moves its bytes from the live bytes of the entity's previous segment.
+     */
+    private void index(Location location) {
+        Location previous = index.put(location.entry().businessId(), location);
+        segments.get(location.segment()).liveBytes += location.size();
+        if (previous != null) {
+            Segment segment = segments.get(previous.segment());
+            if (segment != null) {
+                segment.liveBytes -= previous.size();
+            }
+        }
+    }
+
+    /**
+     * Creates the next segment file. Must hold the write lock.
+     */
+    private Segment newSegment() {
+        try {
+            int id = nextSegmentId++;
+            Segment segment = Segment.create(segmentPath(id), id, segmentSize);
+            segments.put(id, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create a state journal segment", e);
+        }
+    }
+
+    /**
+     * Forces all records appended so far to disk and wakes up the appenders waiting for them.
+     */
+    public void flush() {
+        long target;
+        List<Segment> toForce;
+        writeLock.lock();
+        try {
+            if (durable == appended) {
+                return;
+            }
+            target = appended;
+            toForce = new ArrayList<>(dirty);
+            dirty.clear();
+        } finally {
+            writeLock.unlock();
+        }
+
+        // Forced outside the lock, so appends continue into the next group while the disk is busy.
+        for (Segment segment : toForce) {
+            segment.buffer.force();
+        }
+
+        writeLock.lock();
+        try {
+            durable = Math.max(durable, target);
+            flushed.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the live records of the sealed segments whose live ratio is below the compaction threshold to fresh
+     * segments and deletes those sealed segments. Records superseded by a newer state of the same entity are dropped.
+     */
+    public void compact() {
+        List<Segment> sealed = new ArrayList<>();
+        writeLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment != active && segment.liveRatio() < compactionThreshold) {
+                    sealed.add(segment);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (sealed.isEmpty()) {
+            return;
+        }
+
+        Set<Integer> sealedIds = new HashSet<>();
+        sealed.forEach(segment -> sealedIds.add(segment.id));
+        Segment target = null;
+        int moved = 0;
+        for (Map.Entry<String, Location> indexed : index.entrySet()) {
+            Location location = indexed.getValue();
+            if (!sealedIds.contains(location.segment())) {
+                continue;
+            }
+            writeLock.lock();
+            try {
+                // Only move the record if no newer state was appended in the meantime.
+                if (index.get(indexed.getKey()) == location) {
+                    if (target == null || target.buffer.remaining() < location.size()) {
+                        target = newSegment();
+                    }
+                    write(target, location.entry(), encode(location.entry()));
+                    moved++;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        flush();
+
+        writeLock.lock();
+        try {
+            for (Segment segment : sealed) {
+                segments.remove(segment.id);
+                dirty.remove(segment);
+                segment.close();
+                Files.deleteIfExists(segment.path);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete a compacted journal segment", e);
+        } finally {
+            writeLock.unlock();
+        }
+        log.info("Compacted {} state journal segments, {} live records moved", sealed.size(), moved);
+    }
+
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    ids.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        }
+        ids.sort(null);
+
+        if (ids.isEmpty()) {
+            active = newSegment();
+            return;
+        }
+
+        int records = 0;
+        for (int id : ids) {
+            Segment segment = Segment.create(segmentPath(id), id, segmentSize);
+            segments.put(id, segment);
+            records += replay(segment);
+        }
+        for (Location location : index.values()) {
+            segments.get(location.segment()).liveBytes += location.size();
+        }
+        nextSegmentId = segments.lastKey() + 1;
+        active = segments.lastEntry().getValue();
+        clearTail(active);
+        log.info("Recovered state journal from {} segments: {} records, {} entities", ids.size(), records, index.size());
+    }
+
+    /**
+     * Reads the valid records of a segment into the index and leaves the buffer positioned after the last one.
+     * A record only replaces an indexed record of the same entity with a lower or equal version.
+     */
+    private int replay(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int records = 0;
+        while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Discarding a torn record at offset {} of journal segment {}", start, segment.id);
+                buffer.position(start);
+                break;
+            }
+            JournalEntry entry = decode(payload);
+            Location indexed = index.get(entry.businessId());
+            if (indexed == null || indexed.entry().version() <= entry.version()) {
+                index.put(entry.businessId(), new Location(segment.id, entry, RECORD_HEADER_BYTES + length));
+            }
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Zeroes anything after the last valid record, so that a torn record is not mistaken for data later.
+     */
+    private static void clearTail(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = buffer.position();
+        if (buffer.remaining() >= Integer.BYTES && buffer.getInt(position) != 0) {
+            for (int i = position; i < buffer.limit(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+    }
+
+    private Path segmentPath(int id) {
+        return directory.resolve(String.format("journal-%08d.log", id));
+    }
+
+    private static byte[] encode(JournalEntry entry) {
+        byte[] businessId = entry.businessId().getBytes(StandardCharsets.UTF_8);
+        byte[] machineId = entry.machineId().getBytes(StandardCharsets.UTF_8);
+        byte[] state = entry.state().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES + 3 * Short.BYTES
+                + businessId.length + machineId.length + state.length + Integer.BYTES);
+        payload.putLong(entry.entityId());
+        putString(payload, businessId);
+        putString(payload, machineId);
+        putString(payload, state);
+        payload.putInt(entry.version());
+        return payload.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] utf8) {
+        if (utf8.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Journal string value too long: " + utf8.length + " bytes");
+        }
+        buffer.putShort((short) utf8.length);
+        buffer.put(utf8);
+    }
+
+    private static JournalEntry decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        long entityId = buffer.getLong();
+        String businessId = getString(buffer, payload);
+        String machineId = getString(buffer, payload);
+        String state = getString(buffer, payload);
+        return new JournalEntry(entityId, businessId, machineId, state, buffer.getInt());
+    }
+
+    private static String getString(ByteBuffer buffer, byte[] payload) {
+        int length = buffer.getShort();
+        String value = new String(payload, buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to flush the state journal", e);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.error("Failed to compact the state journal", e);
+        }
+    }
+
+    /**
+     * Flushes all pending records and closes the segment files.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (active != null) {
+            flush();
+        }
+        writeLock.lock();
+        try {
+            segments.values().forEach(Segment::close);
+            segments.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @param size The size of the record, including its header.
+     */
+    private record Location(int segment, JournalEntry entry, int size) {
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Bytes of the records the index points to. Guarded by the write lock, except while recovering.
+         */
+        private long liveBytes;
+
+        private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return The fraction of the written bytes that belongs to live records; 0 for an empty segment.
+         */
+        double liveRatio() {
+            int written = buffer.position();
+            return written > 0 ? (double) liveBytes / written : 0;
+        }
+
+        static Segment create(Path path, int id, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close journal segment {}", path, e);
+            }
+        }
+    }
+}
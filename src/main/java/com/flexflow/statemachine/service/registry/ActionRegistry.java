@@ -1,9 +1,12 @@
 package com.flexflow.statemachine.service.registry;
 
+import com.flexflow.statemachine.machine.actions.CompiledAction;
 import com.flexflow.statemachine.machine.actions.DynamicAction;
+import com.flexflow.statemachine.model.json.ActionGuardJson;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -32,4 +35,21 @@ public class ActionRegistry {
     public Optional<DynamicAction> getAction(String name) {
         return Optional.ofNullable(actionMap.get(name));
     }
-}
\ No newline at end of file
+
+    /**
+     * Resolves the action named in a definition block and compiles it against the block's params.
+     *
+     * @return The bound action, or null if the block does not name an action.
+     * @throws IllegalArgumentException if no action is registered under the name or its params are invalid.
+     */
+    public CompiledAction bind(ActionGuardJson block) {
+        if (block == null || block.getName() == null) {
+            return null;
+        }
+        DynamicAction action = actionMap.get(block.getName());
+        if (action == null) {
+            throw new IllegalArgumentException("Action not found: " + block.getName());
+        }
+        return action.compile(block.getParams() != null ? block.getParams() : Collections.emptyMap());
+    }
+}
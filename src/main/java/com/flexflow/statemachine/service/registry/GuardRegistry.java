@@ -1,9 +1,12 @@
 package com.flexflow.statemachine.service.registry;
 
+import com.flexflow.statemachine.machine.guards.CompiledGuard;
 import com.flexflow.statemachine.machine.guards.DynamicGuard;
+import com.flexflow.statemachine.model.json.ActionGuardJson;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -32,4 +35,21 @@ public class GuardRegistry {
     public Optional<DynamicGuard> getGuard(String name) {
         return Optional.ofNullable(guardMap.get(name));
     }
-}
\ No newline at end of file
+
+    /**
+     * Resolves the guard named in a definition block and compiles it against the block's params.
+     *
+     * @return The bound guard, or null if the block does not name a guard.
+     * @throws IllegalArgumentException if no guard is registered under the name or its params are invalid.
+     */
+    public CompiledGuard bind(ActionGuardJson block) {
+        if (block == null || block.getName() == null) {
+            return null;
+        }
+        DynamicGuard guard = guardMap.get(block.getName());
+        if (guard == null) {
+            throw new IllegalArgumentException("Guard not found: " + block.getName());
+        }
+        return guard.compile(block.getParams() != null ? block.getParams() : Collections.emptyMap());
+    }
+}
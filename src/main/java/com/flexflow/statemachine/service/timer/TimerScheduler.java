@@ -0,0 +1,272 @@
+package com.flexflow.statemachine.service.timer;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.service.cluster.PartitionOwnership;
+import com.flexflow.statemachine.service.core.DynamicStateMachineService;
+import com.flexflow.statemachine.service.core.TransitionResult;
+import com.flexflow.statemachine.service.dispatch.EntityEventDispatcher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the events of timer transitions when they are due.
+ * <p>
+ * Every poll claims the entities whose timer is due within the horizon, in pages of
+ * SELECT ... FOR UPDATE SKIP LOCKED, so that several nodes can poll at once without waiting for or claiming each
+ * other's rows. A claim moves due_at to the end of a lease, which keeps the row out of other nodes' polls. Claimed
+ * timers wait in a {@link TimingWheel} until they expire, and their events are then sent in parallel through the
+ * normal trigger path, on the entity's dispatcher lane, each in its own transaction.
+ * <p>
+ * Before the event is sent, the claim is released with a conditional update. If the entity changed state since the
+ * claim, its timer was replaced and the event is not sent. If sending the event fails, the transaction rolls back,
+ * the claim stays, and the timer fires again once the lease expires; the same applies when the node stops. Timer
+ * events are therefore sent at least once, and guards of timer transitions should tolerate a repeated event.
+ * Events are sent with the header {@value #TIMER_HEADER} set to true.
+ * <p>
+ * In cluster mode, a node claims only the timers of entities in the partitions it owns, since only the owner may
+ * write them. Ownership is decided by a hash the database cannot compute, so the rows of other partitions are read
+ * and skipped: pages are keyed on (due_at, business_id) rather than on what was leased, and every node scans all due
+ * rows. A claimed timer whose partition moved before it fires is handed back with its due time, for the new owner.
+ */
+@Component
+@ConditionalOnProperty(prefix = "statemachine.timers", name = "enabled", havingValue = "true")
+@Slf4j
+public class TimerScheduler {
+
+    public static final String TIMER_HEADER = "timer";
+
+    private static final String CLAIM_SQL = "SELECT business_id, machine_id, due_at, due_event FROM stateful_entities "
+            + "WHERE due_at <= ? AND (due_at > ? OR (due_at = ? AND business_id > ?)) "
+            + "ORDER BY due_at, business_id LIMIT ? FOR UPDATE SKIP LOCKED";
+    private static final String LEASE_SQL = "UPDATE stateful_entities SET due_at = ? WHERE business_id = ?";
+    private static final String RELEASE_SQL = "UPDATE stateful_entities SET due_at = NULL, due_event = NULL "
+            + "WHERE business_id = ? AND due_at = ? AND due_event = ?";
+    private static final String UNCLAIM_SQL = "UPDATE stateful_entities SET due_at = ? "
+            + "WHERE business_id = ? AND due_at = ? AND due_event = ?";
+
+    private final DynamicStateMachineService stateMachineService;
+    private final TransitionTimers timers;
+    private final EntityEventDispatcher dispatcher;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final PartitionOwnership ownership;
+    private final StateMachineProperties.Timers config;
+
+    private final TimingWheel<DueTimer> wheel;
+    private final ScheduledExecutorService scheduler;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Timers claimed by this node that have not been sent yet, whether in the wheel or queued on the executor.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Counter firedCounter;
+    private final Counter failedCounter;
+
+    public TimerScheduler(StateMachineProperties properties, DynamicStateMachineService stateMachineService,
+                          TransitionTimers timers, EntityEventDispatcher dispatcher, TransactionTemplate transactionTemplate,
+                          JdbcTemplate jdbcTemplate, PartitionOwnership ownership, MeterRegistry meterRegistry) {
+        this.stateMachineService = stateMachineService;
+        this.timers = timers;
+        this.dispatcher = dispatcher;
+        this.transactionTemplate = transactionTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.ownership = ownership;
+        this.config = properties.getTimers();
+        if (config.getLease().compareTo(config.getHorizon().plus(config.getPollInterval())) <= 0) {
+            throw new IllegalStateException("statemachine.timers.lease must be longer than the horizon plus the poll interval");
+        }
+
+        this.firedCounter = Counter.builder("statemachine.timers.fired")
+                .description("Timer events sent, whether or not they changed the state")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("statemachine.timers.failed")
+                .description("Timer events that failed or could not be queued; they are retried when their lease expires")
+                .register(meterRegistry);
+        Gauge.builder("statemachine.timers.pending", pending, AtomicInteger::get)
+                .description("Timers claimed by this node and not sent yet")
+                .register(meterRegistry);
+
+        int concurrency = Math.max(1, config.getConcurrency());
+        this.wheel = new TimingWheel<>(Math.max(1, config.getTick().toMillis()), config.getWheelSize(), System.currentTimeMillis());
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.getMaxPending())),
+                Thread.ofPlatform().name("sm-timer-", 0).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.scheduler = Executors.newScheduledThreadPool(2, Thread.ofPlatform().name("sm-timer-scheduler-", 0).factory());
+
+        long tickMillis = Math.max(1, config.getTick().toMillis());
+        long pollMillis = config.getPollInterval().toMillis();
+        scheduler.scheduleAtFixedRate(() -> wheel.advance(System.currentTimeMillis(), this::submit),
+                tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::pollQuietly, 0, pollMillis, TimeUnit.MILLISECONDS);
+        log.info("Timer scheduler started (poll interval {}, horizon {}, lease {}, concurrency {})",
+                config.getPollInterval(), config.getHorizon(), config.getLease(), concurrency);
+    }
+
+    /**
+     * Claims due timers page by page until none are left within the horizon or this node holds the maximum.
+     */
+    public void poll() {
+        int claimed = 0;
+        DueTimer after = null;
+        while (true) {
+            int limit = Math.min(config.getPageSize(), config.getMaxPending() - pending.get());
+            if (limit <= 0) {
+                break;
+            }
+            Page page = claimPage(after, limit);
+            for (DueTimer timer : page.claimed()) {
+                pending.incrementAndGet();
+                if (!wheel.add(timer.dueAt().toEpochMilli(), timer)) {
+                    submit(timer);
+                }
+            }
+            claimed += page.claimed().size();
+            if (page.scanned() < limit) {
+                break;
+            }
+            after = page.last();
+        }
+        if (claimed > 0) {
+            log.debug("Claimed {} timers due within {}", claimed, config.getHorizon());
+        }
+    }
+
+    /**
+     * Reads the next page of due timers after the given one and leases those of entities this node owns.
+     *
+     * @param after The last timer of the previous page, or null for the first page.
+     */
+    private Page claimPage(DueTimer after, int limit) {
+        Instant now = Instant.now();
+        // Truncated so that the lease compares equal after a round trip through the database.
+        Instant leaseUntil = now.plus(config.getLease()).truncatedTo(ChronoUnit.MILLIS);
+        Timestamp afterDueAt = Timestamp.from(after != null ? after.dueAt() : Instant.EPOCH);
+        String afterBusinessId = after != null ? after.businessId() : "";
+        return transactionTemplate.execute(status -> {
+            List<DueTimer> due = jdbcTemplate.query(CLAIM_SQL, (rs, rowNum) -> new DueTimer(
+                            rs.getString("business_id"),
+                            rs.getString("machine_id"),
+                            rs.getString("due_event"),
+                            rs.getTimestamp("due_at").toInstant(),
+                            leaseUntil),
+                    Timestamp.from(now.plus(config.getHorizon())), afterDueAt, afterDueAt, afterBusinessId, limit);
+            List<DueTimer> claimed = new ArrayList<>(due.size());
+            List<Object[]> leases = new ArrayList<>(due.size());
+            for (DueTimer timer : due) {
+                if (ownership.owns(timer.businessId())) {
+                    claimed.add(timer);
+                    leases.add(new Object[]{Timestamp.from(leaseUntil), timer.businessId()});
+                }
+            }
+            if (!leases.isEmpty()) {
+                jdbcTemplate.batchUpdate(LEASE_SQL, leases);
+            }
+            return new Page(claimed, due.size(), due.isEmpty() ? null : due.get(due.size() - 1));
+        });
+    }
+
+    private void submit(DueTimer timer) {
+        try {
+            executor.execute(() -> fire(timer));
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            failedCounter.increment();
+            log.debug("Timer executor is saturated; timer '{}' of entity '{}' fires again after its lease",
+                    timer.event(), timer.businessId());
+        }
+    }
+
+    private void fire(DueTimer timer) {
+        try {
+            if (!ownership.owns(timer.businessId())) {
+                // The partition moved since the claim; its new owner claims the timer instead of waiting for the lease.
+                jdbcTemplate.update(UNCLAIM_SQL, Timestamp.from(timer.dueAt()), timer.businessId(),
+                        Timestamp.from(timer.leaseUntil()), timer.event());
+                return;
+            }
+            dispatcher.execute(timer.businessId(), () -> transactionTemplate.execute(status -> fireInTransaction(timer)));
+        } catch (Exception e) {
+            failedCounter.increment();
+            log.warn("Timer '{}' of entity '{}' failed; it fires again after its lease expires at {}",
+                    timer.event(), timer.businessId(), timer.leaseUntil(), e);
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    private TransitionResult fireInTransaction(DueTimer timer) {
+        if (jdbcTemplate.update(RELEASE_SQL, timer.businessId(), Timestamp.from(timer.leaseUntil()), timer.event()) == 0) {
+            // The entity changed state after the claim, which replaced the timer.
+            return null;
+        }
+        TransitionResult result = stateMachineService.triggerEvent(timer.businessId(), timer.event(), Map.of(TIMER_HEADER, true));
+        timers.timerFired(timer.machineId(), timer.businessId(), result.getCurrentState(), result.isStateChanged(),
+                timer.event(), timer.dueAt());
+        firedCounter.increment();
+        return result;
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (Exception e) {
+            log.error("Failed to claim due timers", e);
+        }
+    }
+
+    /**
+     * Stops claiming and sending timers. Timers still waiting in the wheel or the queue fire on any node once their
+     * lease expires.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        if (pending.get() > 0) {
+            log.info("{} claimed timers were not sent; they fire again after their lease", pending.get());
+        }
+    }
+
+    private record DueTimer(String businessId, String machineId, String event, Instant dueAt, Instant leaseUntil) {
+    }
+
+    /**
+     * @param claimed The timers of the page that this node leased.
+     * @param scanned The number of due rows read, including those of other nodes' partitions.
+     * @param last    The last row read, where the next page starts, or null if none was read.
+     */
+    private record Page(List<DueTimer> claimed, int scanned, DueTimer last) {
+    }
+}
@@ -0,0 +1,169 @@
+package com.flexflow.statemachine.service.timer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel holding items until their deadline.
+ * <p>
+ * Each level is a ring of buckets, each covering one tick of that level; a deadline beyond the span of a level goes
+ * to the next, coarser level, which is created when first needed. Adding an item is O(1) whatever the number of
+ * items. Only non-empty buckets are kept in a priority queue, so advancing the clock costs one queue operation per
+ * bucket rather than per item. When a bucket of a coarser level expires, its items are re-added and cascade down
+ * to finer levels, until they land in a bucket of the finest level and expire within one tick of their deadline.
+ * <p>
+ * Times are epoch milliseconds. All operations are guarded by a lock; expired items are handed to the consumer
+ * after it has been released.
+ */
+public class TimingWheel<T> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Bucket<T>> queue = new PriorityQueue<>(Comparator.comparingLong(bucket -> bucket.expiration));
+    private final Level<T> root;
+    private int size;
+
+    /**
+     * @param tickMillis The resolution of the finest level.
+     * @param wheelSize  The number of buckets per level.
+     * @param startMillis The current time.
+     */
+    public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis < 1 || wheelSize < 2) {
+            throw new IllegalArgumentException("A timing wheel needs a tick of at least 1ms and at least 2 buckets per level");
+        }
+        this.root = new Level<>(tickMillis, wheelSize, startMillis, queue);
+    }
+
+    /**
+     * @return true if the item was added, false if its deadline is within the current tick, in which case it is
+     * already due and the caller handles it.
+     */
+    public boolean add(long deadlineMillis, T item) {
+        lock.lock();
+        try {
+            if (!root.add(new Entry<>(deadlineMillis, item))) {
+                return false;
+            }
+            size++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advances the clock to the given time and hands every item whose deadline has been reached to the consumer.
+     */
+    public void advance(long nowMillis, Consumer<T> expired) {
+        List<T> due = new ArrayList<>();
+        lock.lock();
+        try {
+            Bucket<T> bucket;
+            while ((bucket = queue.peek()) != null && bucket.expiration <= nowMillis) {
+                queue.poll();
+                root.advanceClock(bucket.expiration);
+                for (Entry<T> entry : bucket.flush()) {
+                    // Items of a coarser bucket are re-added to a finer level unless they are due now.
+                    if (!root.add(entry)) {
+                        due.add(entry.item);
+                        size--;
+                    }
+                }
+            }
+            root.advanceClock(nowMillis);
+        } finally {
+            lock.unlock();
+        }
+        due.forEach(expired);
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Entry<T>(long deadline, T item) {
+    }
+
+    private static final class Bucket<T> {
+        private final List<Entry<T>> entries = new ArrayList<>();
+        private long expiration = -1;
+
+        /**
+         * @return true if the expiration changed, i.e. the bucket was empty and must be queued again.
+         */
+        boolean setExpiration(long expiration) {
+            if (this.expiration == expiration) {
+                return false;
+            }
+            this.expiration = expiration;
+            return true;
+        }
+
+        List<Entry<T>> flush() {
+            List<Entry<T>> flushed = new ArrayList<>(entries);
+            entries.clear();
+            expiration = -1;
+            return flushed;
+        }
+    }
+
+    private static final class Level<T> {
+        private final long tickMillis;
+        private final int wheelSize;
+        private final long interval;
+        private final Bucket<T>[] buckets;
+        private final PriorityQueue<Bucket<T>> queue;
+        private long currentTime;
+        private Level<T> overflow;
+
+        @SuppressWarnings("unchecked")
+        Level(long tickMillis, int wheelSize, long startMillis, PriorityQueue<Bucket<T>> queue) {
+            this.tickMillis = tickMillis;
+            this.wheelSize = wheelSize;
+            this.interval = tickMillis * wheelSize;
+            this.queue = queue;
+            this.currentTime = startMillis - startMillis % tickMillis;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket<>();
+            }
+        }
+
+        boolean add(Entry<T> entry) {
+            if (entry.deadline < currentTime + tickMillis) {
+                return false;
+            }
+            if (entry.deadline < currentTime + interval) {
+                long virtualId = entry.deadline / tickMillis;
+                Bucket<T> bucket = buckets[(int) (virtualId % wheelSize)];
+                bucket.entries.add(entry);
+                if (bucket.setExpiration(virtualId * tickMillis)) {
+                    queue.add(bucket);
+                }
+                return true;
+            }
+            if (overflow == null) {
+                overflow = new Level<>(interval, wheelSize, currentTime, queue);
+            }
+            return overflow.add(entry);
+        }
+
+        void advanceClock(long timeMillis) {
+            if (timeMillis >= currentTime + tickMillis) {
+                currentTime = timeMillis - timeMillis % tickMillis;
+                if (overflow != null) {
+                    overflow.advanceClock(currentTime);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.flexflow.statemachine.service.timer;
+
+import com.flexflow.statemachine.model.db.StatefulEntity;
+import com.flexflow.statemachine.service.core.StateMachineBuilderFactory;
+import com.flexflow.statemachine.service.engine.CompiledStateMachine;
+import com.flexflow.statemachine.service.engine.CompiledTimer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records when the timer of an entity's state is due, in the due_at and due_event columns of stateful_entities.
+ * <p>
+ * Whenever an entity enters a new state, the earliest timer of that state is scheduled, replacing the timer of the
+ * previous state and any claim the {@link TimerScheduler} holds on it. Definitions without timer transitions cost
+ * nothing: nothing is written for their entities.
+ * <p>
+ * With composite states, every active state has its own timers, counted from when that state was entered. The
+ * entry times of the active states with timers are kept in state_entered_at, so a change within a composite state
+ * or in another region does not restart them. timers_fired_until holds the due time of the last timer that fired
+ * without leaving its state, so that timer is not scheduled again.
+ * The columns are written with direct updates, so timers also work with the journal persister and the event log,
+ * which do not write the state to the entity rows.
+ */
+@Component
+@RequiredArgsConstructor
+public class TransitionTimers {
+
+    private static final String SCHEDULE_SQL = "UPDATE stateful_entities SET due_at = ?, due_event = ? WHERE business_id = ?";
+    private static final String SCHEDULE_ENTERED_SQL = "UPDATE stateful_entities SET due_at = ?, due_event = ?, "
+            + "state_entered_at = ?, timers_fired_until = ? WHERE business_id = ?";
+    private static final String ENTERED_SQL =
+            "SELECT state_entered_at, timers_fired_until FROM stateful_entities WHERE business_id = ?";
+
+    private final StateMachineBuilderFactory builderFactory;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Sets the timer of the initial state on a new entity, before it is inserted.
+     */
+    public void initialize(StatefulEntity entity) {
+        CompiledStateMachine machine = builderFactory.getCompiledMachine(entity.getMachineId());
+        if (!machine.hasTimers()) {
+            return;
+        }
+        Map<String, Instant> entered = machine.timerStatesEntered(entity.getCurrentState(), Map.of(), now());
+        CompiledTimer timer = machine.nextTimer(entity.getCurrentState(), entered, null);
+        if (timer != null) {
+            entity.setDueAt(entered.get(timer.state()).plus(timer.after()));
+            entity.setDueEvent(timer.event());
+        }
+        if (!machine.isFlat()) {
+            entity.setStateEnteredAt(encode(entered));
+        }
+    }
+
+    /**
+     * Schedules the timer of the entity's current state, after the entity entered it.
+     */
+    public void stateChanged(StatefulEntity entity) {
+        CompiledStateMachine machine = builderFactory.getCompiledMachine(entity.getMachineId());
+        if (!machine.hasTimers()) {
+            return;
+        }
+        if (machine.isFlat()) {
+            jdbcTemplate.update(SCHEDULE_SQL, scheduleArgs(machine, entity.getBusinessId(), entity.getCurrentState(), Instant.now()));
+        } else {
+            configurationChanged(machine, entity.getBusinessId(), entity.getCurrentState());
+        }
+    }
+
+    /**
+     * Schedules the timers of many entities that entered a new state; those of flat definitions in one JDBC batch.
+     */
+    public void stateChanged(Collection<StatefulEntity> entities) {
+        Instant now = Instant.now();
+        List<Object[]> batch = new ArrayList<>();
+        for (StatefulEntity entity : entities) {
+            CompiledStateMachine machine = builderFactory.getCompiledMachine(entity.getMachineId());
+            if (!machine.hasTimers()) {
+                continue;
+            }
+            if (machine.isFlat()) {
+                batch.add(scheduleArgs(machine, entity.getBusinessId(), entity.getCurrentState(), now));
+            } else {
+                configurationChanged(machine, entity.getBusinessId(), entity.getCurrentState());
+            }
+        }
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(SCHEDULE_SQL, batch);
+        }
+    }
+
+    /**
+     * Schedules the next timer after a timer event was sent. Its due time is counted from when its state was entered,
+     * not from when the previous timer fired.
+     *
+     * @param state        The entity's state after the event; with composite states, its configuration.
+     * @param stateChanged true if the event changed the state, which already scheduled the timers of the new state.
+     * @param firedEvent   The event of the timer that fired.
+     * @param firedDueAt   When the timer that fired was due.
+     */
+    public void timerFired(String machineId, String businessId, String state, boolean stateChanged,
+                           String firedEvent, Instant firedDueAt) {
+        CompiledStateMachine machine = builderFactory.getCompiledMachine(machineId);
+        if (!machine.isFlat()) {
+            // Even if the configuration changed, the state of the timer may still be active.
+            EnteredStates current = enteredStates(businessId);
+            Instant firedUntil = current.firedUntil() != null && current.firedUntil().isAfter(firedDueAt)
+                    ? current.firedUntil() : firedDueAt;
+            schedule(machine, businessId, state, machine.timerStatesEntered(state, current.entered(), now()), firedUntil);
+            return;
+        }
+        if (stateChanged) {
+            return;
+        }
+        for (CompiledTimer fired : machine.getTimers(state)) {
+            if (fired.event().equals(firedEvent)) {
+                Map<String, Instant> entered = Map.of(fired.state(), firedDueAt.minus(fired.after()));
+                CompiledTimer next = machine.nextTimer(state, entered, firedDueAt);
+                if (next != null) {
+                    jdbcTemplate.update(SCHEDULE_SQL, Timestamp.from(entered.get(next.state()).plus(next.after())),
+                            next.event(), businessId);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Carries the entry times of the states that stayed active over to the new configuration and schedules the
+     * earliest timer.
+     */
+    private void configurationChanged(CompiledStateMachine machine, String businessId, String configuration) {
+        EnteredStates previous = enteredStates(businessId);
+        Map<String, Instant> entered = machine.timerStatesEntered(configuration, previous.entered(), now());
+        schedule(machine, businessId, configuration, entered, previous.firedUntil());
+    }
+
+    private void schedule(CompiledStateMachine machine, String businessId, String configuration,
+                          Map<String, Instant> entered, Instant firedUntil) {
+        CompiledTimer timer = machine.nextTimer(configuration, entered, firedUntil);
+        jdbcTemplate.update(SCHEDULE_ENTERED_SQL,
+                timer != null ? Timestamp.from(entered.get(timer.state()).plus(timer.after())) : null,
+                timer != null ? timer.event() : null,
+                encode(entered),
+                firedUntil != null ? Timestamp.from(firedUntil) : null,
+                businessId);
+    }
+
+    private EnteredStates enteredStates(String businessId) {
+        return jdbcTemplate.query(ENTERED_SQL, rs -> {
+            if (!rs.next()) {
+                return new EnteredStates(Map.of(), null);
+            }
+            Timestamp firedUntil = rs.getTimestamp("timers_fired_until");
+            return new EnteredStates(decode(rs.getString("state_entered_at")), firedUntil != null ? firedUntil.toInstant() : null);
+        }, businessId);
+    }
+
+    /**
+     * Entry times are stored in milliseconds, so due times are computed from the same precision.
+     */
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    private static Object[] scheduleArgs(CompiledStateMachine machine, String businessId, String state, Instant enteredAt) {
+        Map<String, Instant> entered = machine.timerStatesEntered(state, Map.of(), enteredAt);
+        CompiledTimer timer = machine.nextTimer(state, entered, null);
+        return timer != null
+                ? new Object[]{Timestamp.from(enteredAt.plus(timer.after())), timer.event(), businessId}
+                : new Object[]{null, null, businessId};
+    }
+
+    /**
+     * Encodes entry times as comma-separated state=epochMillis pairs.
+     */
+    static String encode(Map<String, Instant> entered) {
+        if (entered.isEmpty()) {
+            return null;
+        }
+        StringBuilder encoded = new StringBuilder();
+        entered.forEach((state, enteredAt) -> {
+            if (!encoded.isEmpty()) {
+                encoded.append(',');
+            }
+            encoded.append(state).append('=').append(enteredAt.toEpochMilli());
+        });
+        return encoded.toString();
+    }
+
+    static Map<String, Instant> decode(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, Instant> entered = new LinkedHashMap<>();
+        for (String pair : encoded.split(",")) {
+            int separator = pair.lastIndexOf('=');
+            entered.put(pair.substring(0, separator), Instant.ofEpochMilli(Long.parseLong(pair.substring(separator + 1))));
+        }
+        return entered;
+    }
+
+    /**
+     * @param firedUntil When the last timer that fired without leaving its state was due, or null.
+     */
+    private record EnteredStates(Map<String, Instant> entered, Instant firedUntil) {
+    }
+}
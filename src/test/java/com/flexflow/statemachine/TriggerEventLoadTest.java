@@ -0,0 +1,91 @@
+package com.flexflow.statemachine;
+
+import com.flexflow.statemachine.controller.dto.CreateEntityRequest;
+import com.flexflow.statemachine.service.core.DynamicStateMachineService;
+import com.flexflow.statemachine.service.core.TransitionResult;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Fires 10,000 concurrent, in-flight triggers through the async and the reactive API and reports throughput.
+ * Run with: ./gradlew loadTest
+ */
+@Tag("load")
+@SpringBootTest(properties = {
+        "spring.threads.virtual.enabled=true",
+        "statemachine.engine=compiled",
+        "spring.datasource.hikari.maximum-pool-size=50",
+        "logging.level.com.flexflow.statemachine=WARN",
+        "logging.level.com.flexflow.statemachine.TriggerEventLoadTest=INFO"
+})
+class TriggerEventLoadTest {
+
+    private static final Logger log = LoggerFactory.getLogger(TriggerEventLoadTest.class);
+
+    private static final String MACHINE_ID = "clarification_lifecycle_v1";
+    private static final int IN_FLIGHT = 10_000;
+
+    @Autowired
+    private DynamicStateMachineService stateMachineService;
+
+    @Test
+    void sustainsTenThousandConcurrentTriggers() {
+        List<CreateEntityRequest> requests = createEntities();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<TransitionResult>> futures = new ArrayList<>(IN_FLIGHT);
+        for (CreateEntityRequest request : requests) {
+            futures.add(stateMachineService.triggerEventAsync(request.getBusinessId(), "CREATE", Map.of()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        long elapsedNanos = System.nanoTime() - start;
+
+        log.info("{} in-flight triggers completed in {} ms ({} triggers/s)",
+                IN_FLIGHT, elapsedNanos / 1_000_000, Math.round(IN_FLIGHT / (elapsedNanos / 1_000_000_000.0)));
+
+        assertThat(futures).allSatisfy(future -> assertThat(future.join().isStateChanged()).isTrue());
+    }
+
+    @Test
+    void sustainsTenThousandConcurrentReactiveTriggers() {
+        List<CreateEntityRequest> requests = createEntities();
+
+        long start = System.nanoTime();
+        List<TransitionResult> results = Flux.fromIterable(requests)
+                .flatMap(request -> stateMachineService.triggerEventReactive(request.getBusinessId(), "CREATE", Map.of()), IN_FLIGHT)
+                .collectList()
+                .block();
+        long elapsedNanos = System.nanoTime() - start;
+
+        log.info("{} in-flight reactive triggers completed in {} ms ({} triggers/s)",
+                IN_FLIGHT, elapsedNanos / 1_000_000, Math.round(IN_FLIGHT / (elapsedNanos / 1_000_000_000.0)));
+
+        assertThat(results).hasSize(IN_FLIGHT).allSatisfy(result -> assertThat(result.isStateChanged()).isTrue());
+    }
+
+    private List<CreateEntityRequest> createEntities() {
+        String runId = UUID.randomUUID().toString();
+        List<CreateEntityRequest> requests = new ArrayList<>(IN_FLIGHT);
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            CreateEntityRequest request = new CreateEntityRequest();
+            request.setBusinessId("load-" + runId + "-" + i);
+            request.setMachineId(MACHINE_ID);
+            requests.add(request);
+        }
+        stateMachineService.createEntities(requests);
+        return requests;
+    }
+}
@@ -0,0 +1,68 @@
+package com.flexflow.statemachine.machine.guards.expression;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.state.ObjectState;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateContext;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExpressionParserTest {
+
+    private final StateContext<String, String> context = context(Map.of("amount", 1500, "region", "EU", "approved", true));
+
+    @Test
+    void evaluatesComparisonsOverHeaders() {
+        assertThat(evaluate("headers.amount > 1000 && headers.region == 'EU'")).isTrue();
+        assertThat(evaluate("headers.amount > 2000 || headers.region != \"EU\"")).isFalse();
+        assertThat(evaluate("!(headers.amount <= 1500)")).isFalse();
+        assertThat(evaluate("headers.amount >= 1500.0")).isTrue();
+        assertThat(evaluate("headers.approved")).isTrue();
+    }
+
+    @Test
+    void evaluatesTransitionProperties() {
+        assertThat(evaluate("event == 'SUBMIT' && state == 'OPEN' && target == 'DONE' && entityId == 'e-1'")).isTrue();
+    }
+
+    @Test
+    void comparesParenthesisedGroups() {
+        assertThat(evaluate("(headers.region) == 'EU'")).isTrue();
+        assertThat(evaluate("(headers.amount > 1000) == headers.approved")).isTrue();
+        assertThat(evaluate("headers.approved != (headers.amount < 1000)")).isTrue();
+        assertThat(evaluate("(headers.amount > 1000) == false || (headers.region == 'US')")).isFalse();
+    }
+
+    @Test
+    void treatsMissingHeadersAsNull() {
+        assertThat(evaluate("headers.missing == null")).isTrue();
+        assertThat(evaluate("headers.missing < 5")).isFalse();
+        assertThat(evaluate("headers.missing >= 5")).isFalse();
+    }
+
+    @Test
+    void rejectsInvalidExpressions() {
+        assertThatThrownBy(() -> ExpressionParser.parse("headers.amount >")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ExpressionParser.parse("amount == 1")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ExpressionParser.parse("(headers.amount == 1")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private boolean evaluate(String expression) {
+        return ExpressionParser.parse(expression).evaluate(context);
+    }
+
+    private static StateContext<String, String> context(Map<String, Object> headers) {
+        Message<String> message = MessageBuilder.withPayload("SUBMIT")
+                .setHeader("entityId", "e-1")
+                .copyHeaders(headers)
+                .build();
+        return new DefaultStateContext<>(StateContext.Stage.TRANSITION, message, message.getHeaders(),
+                new DefaultExtendedState(), null, null, new ObjectState<>("OPEN"), new ObjectState<>("DONE"), null);
+    }
+}
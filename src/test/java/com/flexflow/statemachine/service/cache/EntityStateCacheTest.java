@@ -0,0 +1,211 @@
+package com.flexflow.statemachine.service.cache;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.model.db.StatefulEntity;
+import com.flexflow.statemachine.service.cluster.PartitionOwnership;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EntityStateCacheTest {
+
+    private static final String BUSINESS_ID = "ORD-1";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private EntityStateCache cache;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        jdbcTemplate.execute("CREATE TABLE stateful_entities (id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "business_id VARCHAR(255) NOT NULL, machine_id VARCHAR(255) NOT NULL, "
+                + "current_state VARCHAR(4000) NOT NULL, version INT NOT NULL)");
+        jdbcTemplate.update("INSERT INTO stateful_entities (business_id, machine_id, current_state, version) "
+                + "VALUES (?, 'order_v1', 'NEW', 0)", BUSINESS_ID);
+
+        StateMachineProperties properties = new StateMachineProperties();
+        properties.getStateCache().setEnabled(true);
+        properties.getStateCache().setMode(StateMachineProperties.StateCache.Mode.WRITE_BEHIND);
+        // Flushes are driven by the tests.
+        properties.getStateCache().setFlushInterval(Duration.ofHours(1));
+        properties.getStateCache().setFlushBatchSize(1000);
+        cache = new EntityStateCache(properties, jdbcTemplate,
+                new PartitionOwnership(properties, null, meterRegistry), meterRegistry);
+    }
+
+    @AfterEach
+    void stopCache() {
+        cache.shutdown();
+    }
+
+    @Test
+    void committedTransitionIsPendingUntilFlushed() {
+        transactionTemplate.executeWithoutResult(status -> {
+            cache.recordTransition(load(), "PAID");
+            // Not visible before the transaction commits.
+            assertThat(load().getCurrentState()).isEqualTo("NEW");
+        });
+
+        assertThat(load().getCurrentState()).isEqualTo("PAID");
+        assertThat(load().getVersion()).isEqualTo(1);
+        assertThat(row()).containsEntry("CURRENT_STATE", "NEW");
+
+        cache.flush();
+        assertThat(row()).containsEntry("CURRENT_STATE", "PAID").containsEntry("VERSION", 1);
+    }
+
+    @Test
+    void rolledBackTransitionIsNeverFlushed() {
+        transactionTemplate.executeWithoutResult(status -> {
+            cache.recordTransition(load(), "PAID");
+            status.setRollbackOnly();
+        });
+
+        assertThat(load().getCurrentState()).isEqualTo("NEW");
+        cache.flush();
+        assertThat(row()).containsEntry("CURRENT_STATE", "NEW").containsEntry("VERSION", 0);
+
+        // The rolled back change no longer holds the entity.
+        cache.recordTransition(load(), "CANCELLED");
+        assertThat(load().getCurrentState()).isEqualTo("CANCELLED");
+    }
+
+    @Test
+    void flushCoalescesTransitionsIntoOneWrite() {
+        cache.recordTransition(load(), "PAID");
+        cache.recordTransition(load(), "SHIPPED");
+        cache.recordTransition(load(), "DELIVERED");
+        assertThat(row()).containsEntry("VERSION", 0);
+
+        cache.flush();
+
+        assertThat(row()).containsEntry("CURRENT_STATE", "DELIVERED").containsEntry("VERSION", 3);
+        assertThat(meterRegistry.get("statemachine.entity-state.pending-writes").gauge().value()).isZero();
+    }
+
+    @Test
+    void recordingAStaleVersionFails() {
+        StatefulEntity stale = load();
+        cache.recordTransition(load(), "PAID");
+
+        assertThatThrownBy(() -> cache.recordTransition(stale, "CANCELLED"))
+                .isInstanceOf(ObjectOptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void pendingWriteIsDroppedWhenTheRowWasWrittenElsewhere() {
+        cache.recordTransition(load(), "PAID");
+        // A batch writes the row directly, at the version it loaded.
+        jdbcTemplate.update("UPDATE stateful_entities SET current_state = 'CANCELLED', version = 1 WHERE business_id = ?",
+                BUSINESS_ID);
+
+        cache.flush();
+
+        assertThat(row()).containsEntry("CURRENT_STATE", "CANCELLED").containsEntry("VERSION", 1);
+        assertThat(meterRegistry.get("statemachine.entity-state.flush-conflicts").counter().count()).isEqualTo(1);
+        assertThat(load().getCurrentState()).isEqualTo("CANCELLED");
+    }
+
+    @Test
+    void evictFailsAChangeOfATransactionThatHasNotStartedToCommit() throws Exception {
+        CountDownLatch recorded = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            cache.recordTransition(load(), "PAID");
+            recorded.countDown();
+            await(evicted);
+        }));
+        await(recorded);
+
+        cache.evict(List.of(BUSINESS_ID));
+        evicted.countDown();
+
+        assertThatThrownBy(() -> writer.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(ObjectOptimisticLockingFailureException.class);
+        cache.flush();
+        assertThat(row()).containsEntry("CURRENT_STATE", "NEW").containsEntry("VERSION", 0);
+        assertThat(load().getCurrentState()).isEqualTo("NEW");
+    }
+
+    @Test
+    void evictWaitsForATransactionThatIsCommitting() throws Exception {
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            cache.recordTransition(load(), "PAID");
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    committing.countDown();
+                    await(release);
+                }
+            });
+        }));
+        await(committing);
+
+        CompletableFuture<Void> eviction = CompletableFuture.runAsync(() -> cache.evict(List.of(BUSINESS_ID)));
+        Thread.sleep(50);
+        assertThat(eviction).isNotDone();
+        release.countDown();
+        writer.get(10, TimeUnit.SECONDS);
+        eviction.get(10, TimeUnit.SECONDS);
+
+        // The committed change was flushed by the eviction, before the entity was dropped from the cache.
+        assertThat(row()).containsEntry("CURRENT_STATE", "PAID").containsEntry("VERSION", 1);
+    }
+
+    private StatefulEntity load() {
+        return cache.find(BUSINESS_ID, businessId -> Optional.of(jdbcTemplate.queryForObject(
+                "SELECT id, business_id, machine_id, current_state, version FROM stateful_entities WHERE business_id = ?",
+                (rs, rowNum) -> {
+                    StatefulEntity entity = new StatefulEntity();
+                    entity.setId(rs.getLong("id"));
+                    entity.setBusinessId(rs.getString("business_id"));
+                    entity.setMachineId(rs.getString("machine_id"));
+                    entity.setCurrentState(rs.getString("current_state"));
+                    entity.setVersion(rs.getInt("version"));
+                    return entity;
+                }, businessId))).orElseThrow();
+    }
+
+    private Map<String, Object> row() {
+        return jdbcTemplate.queryForMap("SELECT current_state, version FROM stateful_entities WHERE business_id = ?",
+                BUSINESS_ID);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
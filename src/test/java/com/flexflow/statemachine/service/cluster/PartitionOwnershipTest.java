@@ -0,0 +1,198 @@
+package com.flexflow.statemachine.service.cluster;
+
+import com.flexflow.statemachine.config.StateMachineProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PartitionOwnershipTest {
+
+    private static final int PARTITIONS = 4;
+
+    private final List<PartitionOwnership> nodes = new ArrayList<>();
+
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void stopNodes() {
+        nodes.forEach(PartitionOwnership::shutdown);
+    }
+
+    @Test
+    void spreadsSequentialIdsEvenlyOverPartitions() {
+        StateMachineProperties properties = new StateMachineProperties();
+        properties.getCluster().setPartitions(16);
+        PartitionOwnership ownership = new PartitionOwnership(properties, null, new SimpleMeterRegistry());
+
+        int[] counts = new int[16];
+        for (int i = 0; i < 160_000; i++) {
+            int partition = ownership.partitionOf("CLR-" + i);
+            assertThat(partition).isBetween(0, 15);
+            counts[partition]++;
+        }
+
+        for (int count : counts) {
+            assertThat(count).isBetween(9_000, 11_000);
+        }
+        assertThat(ownership.partitionOf("CLR-42")).isEqualTo(ownership.partitionOf("CLR-42"));
+    }
+
+    @Test
+    void ownsEverythingWhenClusteringIsDisabled() {
+        PartitionOwnership ownership = new PartitionOwnership(new StateMachineProperties(), null, new SimpleMeterRegistry());
+
+        assertThat(ownership.owns("CLR-1")).isTrue();
+        assertThat(ownership.remoteOwnerAddress("CLR-1")).isNull();
+    }
+
+    @Test
+    void acquiresEveryFreePartitionWhenAlone() throws InterruptedException {
+        createTables();
+        PartitionOwnership node = node("node-a");
+
+        assertThat(ownedPartitions(node)).containsExactly(0, 1, 2, 3);
+        assertThat(owners()).containsOnly(Map.entry("node-a", PARTITIONS));
+        assertThat(node.owns("CLR-1")).isTrue();
+        assertThat(node.remoteOwnerAddress("CLR-1")).isNull();
+    }
+
+    @Test
+    void renewExtendsTheLeasesItHoldsWithoutAcquiringThemAgain() throws InterruptedException {
+        createTables();
+        PartitionOwnership node = node("node-a");
+        List<Set<Integer>> changes = new ArrayList<>();
+        Instant firstExpiry = earliestExpiry();
+
+        Thread.sleep(5);
+        node.renew();
+
+        assertThat(earliestExpiry()).isAfter(firstExpiry);
+        assertThat(ownedPartitions(node)).containsExactly(0, 1, 2, 3);
+        assertThat(changes).isEmpty();
+    }
+
+    @Test
+    void liveLeasesAreNotTakenButReleasedToAJoiningNode() throws InterruptedException {
+        createTables();
+        PartitionOwnership nodeA = node("node-a");
+        PartitionOwnership nodeB = node("node-b");
+        List<Set<Integer>> released = new ArrayList<>();
+        nodeA.addListener(released::add);
+
+        // Node A holds every lease, so node B can take none until A gives up its share.
+        assertThat(ownedPartitions(nodeB)).isEmpty();
+        assertThat(nodeB.remoteOwnerAddress(idIn(nodeB, 0))).isEqualTo("http://node-a");
+
+        nodeA.renew();
+        nodeB.renew();
+
+        assertThat(ownedPartitions(nodeA)).hasSize(PARTITIONS / 2);
+        assertThat(ownedPartitions(nodeB)).hasSize(PARTITIONS / 2);
+        assertThat(released).containsExactly(ownedPartitions(nodeB));
+        assertThat(owners()).containsOnly(Map.entry("node-a", 2), Map.entry("node-b", 2));
+        Integer movedPartition = ownedPartitions(nodeB).iterator().next();
+        assertThat(nodeA.owns(idIn(nodeA, movedPartition))).isFalse();
+        assertThat(nodeA.remoteOwnerAddress(idIn(nodeA, movedPartition))).isEqualTo("http://node-b");
+    }
+
+    @Test
+    void expiredLeasesAreStolenAndTheirFormerHolderStopsOwningThem() throws InterruptedException {
+        createTables();
+        PartitionOwnership nodeA = node("node-a");
+        PartitionOwnership nodeB = node("node-b");
+        List<Set<Integer>> acquired = new ArrayList<>();
+        nodeB.addListener(acquired::add);
+        // Node A stops renewing: its heartbeat and leases expire.
+        Timestamp expired = Timestamp.from(Instant.now().minusSeconds(1));
+        jdbcTemplate.update("UPDATE partition_leases SET expires_at = ? WHERE owner_node = 'node-a'", expired);
+        jdbcTemplate.update("UPDATE cluster_nodes SET expires_at = ? WHERE node_id = 'node-a'", expired);
+
+        nodeB.renew();
+
+        assertThat(ownedPartitions(nodeB)).containsExactly(0, 1, 2, 3);
+        assertThat(acquired).containsExactly(Set.of(0, 1, 2, 3));
+        assertThat(owners()).containsOnly(Map.entry("node-b", PARTITIONS));
+
+        // When node A comes back, it finds its partitions held by node B and no longer owns them.
+        nodeA.renew();
+        assertThat(ownedPartitions(nodeA)).isEmpty();
+        assertThat(nodeA.owns(idIn(nodeA, 0))).isFalse();
+        assertThat(nodeA.remoteOwnerAddress(idIn(nodeA, 0))).isEqualTo("http://node-b");
+    }
+
+    private void createTables() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1"));
+        jdbcTemplate.execute("CREATE TABLE cluster_nodes (node_id VARCHAR(255) PRIMARY KEY, address VARCHAR(255), "
+                + "expires_at TIMESTAMP(6) WITH TIME ZONE NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE partition_leases (partition_id INT PRIMARY KEY, owner_node VARCHAR(255), "
+                + "expires_at TIMESTAMP(6) WITH TIME ZONE)");
+    }
+
+    /**
+     * Starts a node and waits for its first renewal. Renewals after that are driven by the tests.
+     */
+    private PartitionOwnership node(String nodeId) throws InterruptedException {
+        StateMachineProperties properties = new StateMachineProperties();
+        properties.getCluster().setEnabled(true);
+        properties.getCluster().setNodeId(nodeId);
+        properties.getCluster().setAddress("http://" + nodeId);
+        properties.getCluster().setPartitions(PARTITIONS);
+        properties.getCluster().setLeaseDuration(Duration.ofHours(2));
+        properties.getCluster().setRenewInterval(Duration.ofHours(1));
+        PartitionOwnership node = new PartitionOwnership(properties, jdbcTemplate, new SimpleMeterRegistry());
+        node.addListener(changes::add);
+        nodes.add(node);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((int) node.describe().get("liveNodes") == 0) {
+            assertThat(System.nanoTime()).as("first renewal of node %s", nodeId).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<Integer> ownedPartitions(PartitionOwnership node) {
+        return (Set<Integer>) node.describe().get("ownedPartitions");
+    }
+
+    /**
+     * @return The number of live leases held by each node.
+     */
+    private Map<String, Integer> owners() {
+        Map<String, Integer> owners = new HashMap<>();
+        jdbcTemplate.query("SELECT owner_node, COUNT(*) AS leases FROM partition_leases WHERE expires_at > ? "
+                + "GROUP BY owner_node", rs -> {
+            owners.put(rs.getString("owner_node"), rs.getInt("leases"));
+        }, Timestamp.from(Instant.now()));
+        return owners;
+    }
+
+    private Instant earliestExpiry() {
+        return jdbcTemplate.queryForObject("SELECT MIN(expires_at) FROM partition_leases", Timestamp.class).toInstant();
+    }
+
+    private static String idIn(PartitionOwnership node, int partition) {
+        for (int i = 0; ; i++) {
+            if (node.partitionOf("CLR-" + i) == partition) {
+                return "CLR-" + i;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.flexflow.statemachine.service.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryDefinitionCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BinaryDefinitionCodec codec = new BinaryDefinitionCodec();
+
+    @Test
+    void roundTripsEveryShippedDefinitionAndTheCompositeFixture() throws IOException {
+        List<Resource> definitions = new ArrayList<>(Arrays.asList(
+                new PathMatchingResourcePatternResolver().getResources("classpath*:definitions/*.json")));
+        definitions.add(new ClassPathResource("fixtures/document-review.json"));
+        assertThat(definitions).hasSizeGreaterThan(1);
+
+        for (Resource resource : definitions) {
+            StateMachineDefinitionJson parsed;
+            try (InputStream in = resource.getInputStream()) {
+                parsed = objectMapper.readValue(in, StateMachineDefinitionJson.class);
+            }
+
+            StateMachineDefinitionJson decoded = codec.decode(codec.encode(parsed));
+
+            assertThat(objectMapper.valueToTree(decoded))
+                    .as("round trip of %s", resource.getFilename())
+                    .isEqualTo(objectMapper.valueToTree(parsed));
+        }
+    }
+
+    @Test
+    void rejectsABinaryOfAnotherFormat() throws IOException {
+        StateMachineDefinitionJson parsed;
+        try (InputStream in = new ClassPathResource("fixtures/document-review.json").getInputStream()) {
+            parsed = objectMapper.readValue(in, StateMachineDefinitionJson.class);
+        }
+        byte[] encoded = codec.encode(parsed);
+        // The format version follows the magic number.
+        encoded[7]++;
+
+        assertThatThrownBy(() -> codec.decode(encoded)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(BinaryDefinitionCodec.checksum(encoded)).isNotEqualTo(BinaryDefinitionCodec.checksum(codec.encode(parsed)));
+    }
+}
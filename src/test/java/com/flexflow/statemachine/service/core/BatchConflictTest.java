@@ -0,0 +1,152 @@
+package com.flexflow.statemachine.service.core;
+
+import com.flexflow.statemachine.controller.dto.BatchEventItem;
+import com.flexflow.statemachine.machine.actions.DynamicAction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.statemachine.StateContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class BatchConflictTest {
+
+    private static final String MACHINE_ID = "batch_conflict_test_v1";
+    private static final String CONFLICT_PREFIX = "CONFLICT-";
+    private static final String DEFINITION = """
+            {
+              "machineId": "batch_conflict_test_v1",
+              "initialState": "NEW",
+              "states": ["NEW", "REVIEW", "DONE"],
+              "transitions": [
+                {"source": "NEW", "target": "REVIEW", "event": "SUBMIT", "action": {"name": "concurrentWriter"}},
+                {"source": "REVIEW", "target": "DONE", "event": "APPROVE",
+                 "action": {"name": "recordingAction", "mode": "async"}}
+              ]
+            }
+            """;
+
+    /**
+     * BusinessIds of the entities whose async action ran.
+     */
+    private static final Queue<String> executed = new ConcurrentLinkedQueue<>();
+
+    @TestConfiguration
+    static class Actions {
+
+        /**
+         * Writes the entity's row from another transaction, as another node or the batch path would, if its id
+         * starts with {@value #CONFLICT_PREFIX}.
+         */
+        @Bean
+        DynamicAction concurrentWriter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+            TransactionTemplate otherTransaction = new TransactionTemplate(transactionManager);
+            otherTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            return action("concurrentWriter", context -> {
+                String businessId = (String) context.getMessageHeader("entityId");
+                if (businessId.startsWith(CONFLICT_PREFIX)) {
+                    otherTransaction.executeWithoutResult(status -> jdbcTemplate.update(
+                            "UPDATE stateful_entities SET version = version + 1 WHERE business_id = ?", businessId));
+                }
+            });
+        }
+
+        @Bean
+        DynamicAction recordingAction() {
+            return action("recordingAction", context -> executed.add((String) context.getMessageHeader("entityId")));
+        }
+
+        private static DynamicAction action(String name, Consumer<StateContext<String, String>> body) {
+            return new DynamicAction() {
+                @Override
+                public String getName() {
+                    return name;
+                }
+
+                @Override
+                public void execute(StateContext<String, String> context, Map<String, Object> params) {
+                    body.accept(context);
+                }
+            };
+        }
+    }
+
+    @Autowired
+    private DynamicStateMachineService stateMachineService;
+
+    @Autowired
+    private StateMachineBuilderFactory builderFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String conflicting;
+    private String clean;
+
+    @BeforeEach
+    void createEntities() {
+        builderFactory.updateDefinition(MACHINE_ID, DEFINITION);
+        executed.clear();
+        conflicting = CONFLICT_PREFIX + UUID.randomUUID();
+        clean = "CLEAN-" + UUID.randomUUID();
+        stateMachineService.createEntity(conflicting, MACHINE_ID);
+        stateMachineService.createEntity(clean, MACHINE_ID);
+    }
+
+    @Test
+    void conflictingEntityFailsWhileTheRestOfTheBatchCommits() throws InterruptedException {
+        List<BatchEventResult> results = stateMachineService.triggerEvents(List.of(
+                item(conflicting, "SUBMIT"), item(conflicting, "APPROVE"),
+                item(clean, "SUBMIT"), item(clean, "APPROVE")));
+
+        assertThat(results).extracting(BatchEventResult::isSuccess).containsExactly(false, false, true, true);
+        assertThat(results.get(0).getError()).contains("modified concurrently");
+        assertThat(results.get(1).getError()).contains("modified concurrently");
+        assertThat(results.get(3).getCurrentState()).isEqualTo("DONE");
+
+        assertThat(state(conflicting)).isEqualTo("NEW");
+        assertThat(state(clean)).isEqualTo("DONE");
+
+        // Only the written entity's async action is recorded and run.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (executed.isEmpty()) {
+            assertThat(System.nanoTime()).as("async action of %s", clean).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        assertThat(outboxRows(conflicting)).isZero();
+        Thread.sleep(100);
+        assertThat(executed).containsExactly(clean);
+    }
+
+    private String state(String businessId) {
+        return stateMachineService.findEntity(businessId).orElseThrow().getCurrentState();
+    }
+
+    private int outboxRows(String businessId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM action_outbox WHERE business_id = ?", Integer.class, businessId);
+    }
+
+    private static BatchEventItem item(String businessId, String event) {
+        BatchEventItem item = new BatchEventItem();
+        item.setBusinessId(businessId);
+        item.setEvent(event);
+        item.setHeaders(Map.of());
+        return item;
+    }
+}
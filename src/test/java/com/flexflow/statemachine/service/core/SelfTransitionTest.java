@@ -0,0 +1,90 @@
+package com.flexflow.statemachine.service.core;
+
+import com.flexflow.statemachine.model.db.StatefulEntity;
+import com.flexflow.statemachine.service.engine.CompiledStateMachine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "statemachine.engine=spring")
+class SelfTransitionTest {
+
+    private static final String MACHINE_ID = "self_transition_test_v1";
+    private static final String DEFINITION = """
+            {
+              "machineId": "self_transition_test_v1",
+              "initialState": "NEW",
+              "states": ["NEW", "OPEN"],
+              "transitions": [
+                {"source": "NEW", "target": "OPEN", "event": "CREATE"},
+                {"source": "OPEN", "target": "OPEN", "event": "PING"},
+                {"source": "OPEN", "target": "OPEN", "event": "COMMENT",
+                 "action": {"name": "logAction", "params": {"message": "A comment was added."}}},
+                {"source": "OPEN", "target": "OPEN", "event": "CHECK",
+                 "guard": {"name": "headerValueGuard", "params": {"headerName": "isAuthorized", "requiredValue": true}}}
+              ]
+            }
+            """;
+
+    @Autowired
+    private DynamicStateMachineService stateMachineService;
+
+    @Autowired
+    private StateMachineBuilderFactory builderFactory;
+
+    private String businessId;
+
+    @BeforeEach
+    void createOpenEntity() throws Exception {
+        builderFactory.updateDefinition(MACHINE_ID, DEFINITION);
+        businessId = "SELF-" + UUID.randomUUID();
+        stateMachineService.createEntity(businessId, MACHINE_ID);
+        assertThat(stateMachineService.triggerEvent(businessId, "CREATE", Map.of()).isStateChanged()).isTrue();
+    }
+
+    @Test
+    void onlyPlainSelfTransitionsTakeTheFastPath() {
+        CompiledStateMachine machine = builderFactory.getCompiledMachine(MACHINE_ID);
+        int open = machine.stateId("OPEN");
+
+        assertThat(machine.isSelfLoop(open, machine.eventId("PING"))).isTrue();
+        assertThat(machine.isSelfLoop(open, machine.eventId("COMMENT"))).isFalse();
+        assertThat(machine.isSelfLoop(open, machine.eventId("CHECK"))).isFalse();
+        assertThat(machine.isSelfLoop(machine.stateId("NEW"), machine.eventId("CREATE"))).isFalse();
+    }
+
+    @Test
+    void selfTransitionIsAcceptedWithoutAWrite() {
+        int version = version();
+
+        TransitionResult result = stateMachineService.triggerEvent(businessId, "PING", Map.of());
+
+        assertThat(result.getOutcome()).isEqualTo(TransitionResult.Outcome.ACCEPTED);
+        assertThat(result.getPreviousState()).isEqualTo("OPEN");
+        assertThat(result.getCurrentState()).isEqualTo("OPEN");
+        assertThat(version()).isEqualTo(version);
+    }
+
+    @Test
+    void guardedAndActionedSelfTransitionsKeepTheirOutcome() {
+        int version = version();
+
+        assertThat(stateMachineService.triggerEvent(businessId, "COMMENT", Map.of()).getOutcome())
+                .isEqualTo(TransitionResult.Outcome.ACCEPTED);
+        assertThat(stateMachineService.triggerEvent(businessId, "CHECK", Map.of()).getOutcome())
+                .isEqualTo(TransitionResult.Outcome.REJECTED);
+        assertThat(stateMachineService.triggerEvent(businessId, "CHECK", Map.of("isAuthorized", true)).getOutcome())
+                .isEqualTo(TransitionResult.Outcome.ACCEPTED);
+        assertThat(version()).isEqualTo(version);
+    }
+
+    private int version() {
+        return stateMachineService.findEntity(businessId).map(StatefulEntity::getVersion).orElseThrow();
+    }
+}
@@ -0,0 +1,105 @@
+package com.flexflow.statemachine.service.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import com.flexflow.statemachine.service.codec.BinaryDefinitionCodec;
+import com.flexflow.statemachine.service.engine.CompiledStateMachine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "statemachine.binary-definitions=true")
+class StaleDefinitionBinaryTest {
+
+    private static final String MACHINE_ID = "stale_binary_test_v1";
+    private static final String DEFINITION = """
+            {
+              "machineId": "stale_binary_test_v1",
+              "initialState": "NEW",
+              "states": ["NEW", "OPEN", "CLOSED"],
+              "transitions": [
+                {"source": "NEW", "target": "OPEN", "event": "CREATE"}
+              ]
+            }
+            """;
+    private static final String EDITED_DEFINITION = """
+            {
+              "machineId": "stale_binary_test_v1",
+              "initialState": "NEW",
+              "states": ["NEW", "OPEN", "CLOSED"],
+              "transitions": [
+                {"source": "NEW", "target": "OPEN", "event": "CREATE"},
+                {"source": "OPEN", "target": "CLOSED", "event": "CLOSE"}
+              ]
+            }
+            """;
+
+    @Autowired
+    private StateMachineBuilderFactory builderFactory;
+
+    @Autowired
+    private BinaryDefinitionCodec codec;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void storeDefinition() {
+        builderFactory.updateDefinition(MACHINE_ID, DEFINITION);
+        assertThat(compiled().eventId("CLOSE")).isEqualTo(CompiledStateMachine.UNKNOWN);
+    }
+
+    @Test
+    void jsonEditedBehindTheBinaryIsParsedAndReEncoded() throws Exception {
+        jdbcTemplate.update("UPDATE state_machine_definitions SET definition_json = ? WHERE machine_id = ?",
+                EDITED_DEFINITION, MACHINE_ID);
+
+        builderFactory.reload(MACHINE_ID);
+
+        assertThat(compiled().eventId("CLOSE")).isNotEqualTo(CompiledStateMachine.UNKNOWN);
+        awaitBinaryOf(EDITED_DEFINITION);
+    }
+
+    @Test
+    void corruptBinaryFallsBackToTheJson() throws Exception {
+        jdbcTemplate.update("UPDATE state_machine_definitions SET definition_json = ?, definition_binary = ? "
+                + "WHERE machine_id = ?", EDITED_DEFINITION, new byte[]{1, 2, 3}, MACHINE_ID);
+
+        builderFactory.reload(MACHINE_ID);
+
+        assertThat(compiled().eventId("CLOSE")).isNotEqualTo(CompiledStateMachine.UNKNOWN);
+        awaitBinaryOf(EDITED_DEFINITION);
+    }
+
+    private CompiledStateMachine compiled() {
+        return builderFactory.getCompiledMachine(MACHINE_ID);
+    }
+
+    /**
+     * Waits for the background refresh to store a valid binary of the given JSON.
+     */
+    private void awaitBinaryOf(String json) throws Exception {
+        StateMachineDefinitionJson expected = new ObjectMapper().readValue(json, StateMachineDefinitionJson.class);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            Map<String, Object> row = jdbcTemplate.queryForMap("SELECT definition_binary, definition_checksum, "
+                    + "definition_source_hash FROM state_machine_definitions WHERE machine_id = ?", MACHINE_ID);
+            byte[] binary = (byte[]) row.get("definition_binary");
+            if (binary != null && ((Number) row.get("definition_source_hash")).longValue() == BinaryDefinitionCodec.sourceHash(json)) {
+                assertThat(((Number) row.get("definition_checksum")).longValue()).isEqualTo(BinaryDefinitionCodec.checksum(binary));
+                assertThat(new ObjectMapper().valueToTree(codec.decode(binary)))
+                        .isEqualTo(new ObjectMapper().valueToTree(expected));
+                return;
+            }
+            assertThat(System.nanoTime()).as("refreshed binary of %s", MACHINE_ID).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.flexflow.statemachine.service.engine;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.machine.actions.LogAction;
+import com.flexflow.statemachine.machine.guards.HeaderValueGuard;
+import com.flexflow.statemachine.model.json.PseudoStateJson;
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import com.flexflow.statemachine.service.audit.TransitionAudit;
+import com.flexflow.statemachine.service.audit.TransitionAuditSink;
+import com.flexflow.statemachine.service.codec.BinaryDefinitionCodec;
+import com.flexflow.statemachine.service.metrics.StateMachineMetrics;
+import com.flexflow.statemachine.service.registry.ActionRegistry;
+import com.flexflow.statemachine.service.registry.GuardRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HierarchicalStateMachineTest {
+
+    private final CompiledStateMachineEngine engine = new CompiledStateMachineEngine();
+
+    private StateMachineDefinitionJson definition;
+    private StateMachineCompiler compiler;
+    private CompiledStateMachine machine;
+
+    @BeforeEach
+    void compileDefinition() throws IOException {
+        try (InputStream json = getClass().getResourceAsStream("/fixtures/document-review.json")) {
+            definition = new ObjectMapper().readValue(json, StateMachineDefinitionJson.class);
+        }
+
+        StateMachineProperties properties = new StateMachineProperties();
+        properties.getAudit().setEnabled(false);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        TransitionAudit audit = new TransitionAudit(properties,
+                new StaticListableBeanFactory().getBeanProvider(TransitionAuditSink.class), meterRegistry);
+
+        compiler = new StateMachineCompiler(
+                new GuardRegistry(List.of(new HeaderValueGuard(audit))),
+                new ActionRegistry(List.of(new LogAction(audit))),
+                new StateMachineMetrics(meterRegistry, ObservationRegistry.NOOP),
+                null);
+        machine = compiler.compile(definition);
+    }
+
+    @Test
+    void runsOrthogonalRegionsUntilCompletion() {
+        assertThat(machine.isFlat()).isFalse();
+        assertThat(machine.getInitialState()).isEqualTo("DRAFT");
+
+        String state = fire("DRAFT", "SUBMIT", Map.of());
+        assertThat(state).isEqualTo("LEGAL_PENDING,TECH_PENDING");
+
+        state = fire(state, "APPROVE_TECH", Map.of());
+        assertThat(state).isEqualTo("LEGAL_PENDING,TECH_APPROVED");
+        assertThat(fire(state, "APPROVE_TECH", Map.of())).isNull();
+
+        // Completing the last region fires the completion transition, and the choice is resolved with the same headers.
+        assertThat(fire(state, "APPROVE_LEGAL", Map.of())).isEqualTo("APPROVED");
+        assertThat(fire(state, "APPROVE_LEGAL", Map.of("publishNow", true))).isEqualTo("PUBLISHED");
+    }
+
+    @Test
+    void compositeStateTransitionsApplyToEverySubstate() {
+        assertThat(fire("LEGAL_APPROVED,TECH_PENDING", "REJECT", Map.of())).isEqualTo("REJECTED");
+        assertThat(fire("TECH_PENDING,LEGAL_PENDING", "REJECT", Map.of())).isEqualTo("REJECTED");
+        assertThat(fire("REJECTED", "REJECT", Map.of())).isNull();
+    }
+
+    @Test
+    void decodesStoredConfigurations() {
+        // The order of the stored states does not matter, and a missing region starts in its initial state.
+        assertThat(fire("TECH_PENDING,LEGAL_PENDING", "APPROVE_LEGAL", Map.of())).isEqualTo("LEGAL_APPROVED,TECH_PENDING");
+        assertThat(fire("LEGAL_PENDING", "APPROVE_TECH", Map.of())).isEqualTo("LEGAL_PENDING,TECH_APPROVED");
+        assertThat(fire("LEGAL_PENDING,LEGAL_APPROVED", "APPROVE_TECH", Map.of())).isNull();
+        assertThat(fire("UNKNOWN_STATE", "SUBMIT", Map.of())).isNull();
+    }
+
+    @Test
+    void rejectsChoiceWithoutDefaultBranch() {
+        PseudoStateJson choice = definition.getPseudoStates().get(0);
+        choice.setBranches(List.of(choice.getBranches().get(0)));
+
+        assertThatThrownBy(() -> compiler.compile(definition))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("must have no guard");
+    }
+
+    @Test
+    void binaryEncodingKeepsHierarchy() {
+        BinaryDefinitionCodec codec = new BinaryDefinitionCodec();
+        assertThat(codec.decode(codec.encode(definition))).isEqualTo(definition);
+    }
+
+    private String fire(String state, String event, Map<String, Object> headers) {
+        return engine.fire(machine, "doc-1", state, event, headers);
+    }
+}
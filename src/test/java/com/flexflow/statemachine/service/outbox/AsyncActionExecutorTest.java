@@ -0,0 +1,193 @@
+package com.flexflow.statemachine.service.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flexflow.statemachine.config.StateMachineProperties;
+import com.flexflow.statemachine.machine.actions.DynamicAction;
+import com.flexflow.statemachine.model.db.ActionOutboxEntry;
+import com.flexflow.statemachine.service.cluster.PartitionOwnership;
+import com.flexflow.statemachine.service.registry.ActionRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.statemachine.StateContext;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AsyncActionExecutorTest {
+
+    private static final String SCHEMA = "CREATE TABLE action_outbox (id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+            + "business_id VARCHAR(255) NOT NULL, machine_id VARCHAR(255) NOT NULL, action_name VARCHAR(255) NOT NULL, "
+            + "params CLOB, source_state VARCHAR(255) NOT NULL, target_state VARCHAR(255) NOT NULL, "
+            + "event VARCHAR(255) NOT NULL, headers CLOB, status VARCHAR(255) NOT NULL, attempts INT NOT NULL, "
+            + "next_attempt_at TIMESTAMP(6) WITH TIME ZONE NOT NULL, last_error VARCHAR(1000), "
+            + "created_at TIMESTAMP(6) WITH TIME ZONE NOT NULL)";
+
+    private final AtomicInteger executions = new AtomicInteger();
+    private final List<AsyncActionExecutor> nodes = new ArrayList<>();
+
+    private JdbcTemplate jdbcTemplate;
+    private StateMachineProperties properties;
+
+    @BeforeEach
+    void createOutbox() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1"));
+        jdbcTemplate.execute(SCHEMA);
+
+        properties = new StateMachineProperties();
+        // Polls are driven by the tests.
+        properties.getAsyncActions().setPollInterval(Duration.ofHours(1));
+        properties.getAsyncActions().setRetryBackoff(Duration.ofHours(1));
+        properties.getAsyncActions().setMaxAttempts(2);
+    }
+
+    @AfterEach
+    void stopNodes() {
+        nodes.forEach(AsyncActionExecutor::shutdown);
+    }
+
+    @Test
+    void runsAnEnqueuedActionOnceAndDeletesItsRow() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncActionExecutor node = node(action("notify", context -> {
+            executions.incrementAndGet();
+            await(release);
+        }));
+        AsyncActionExecutor otherNode = node(action("notify", context -> executions.incrementAndGet()));
+
+        node.enqueue(new PendingAction("order_v1", "notify", Map.of(), null, "ORD-1", "NEW", "PAID", "PAY",
+                Map.of("entityId", "ORD-1")));
+        // The row is claimed by the inserting node while its action runs.
+        node.poll();
+        otherNode.poll();
+        release.countDown();
+        node.shutdown();
+        otherNode.shutdown();
+
+        assertThat(executions).hasValue(1);
+        assertThat(count()).isZero();
+    }
+
+    @Test
+    void claimsADueEntryOnlyOnce() throws InterruptedException {
+        AsyncActionExecutor node = node(action("notify", context -> executions.incrementAndGet()));
+        AsyncActionExecutor otherNode = node(action("notify", context -> executions.incrementAndGet()));
+        for (int i = 0; i < 20; i++) {
+            insertDue("notify");
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread poller = Thread.ofPlatform().start(() -> {
+            await(start);
+            otherNode.poll();
+        });
+        start.countDown();
+        node.poll();
+        poller.join();
+        node.poll();
+        otherNode.poll();
+        node.shutdown();
+        otherNode.shutdown();
+
+        assertThat(executions).hasValue(20);
+        assertThat(count()).isZero();
+    }
+
+    @Test
+    void retriesAFailedActionUntilItRunsOutOfAttempts() throws InterruptedException {
+        AsyncActionExecutor node = node(action("notify", context -> {
+            executions.incrementAndGet();
+            throw new IllegalStateException("downstream unavailable");
+        }));
+        long id = insertDue("notify");
+
+        node.poll();
+        awaitAttempts(id, 1);
+        Map<String, Object> row = row(id);
+        assertThat(row.get("status")).isEqualTo(ActionOutboxEntry.STATUS_PENDING);
+        assertThat((String) row.get("last_error")).contains("downstream unavailable");
+        // Not due again before its backoff.
+        node.poll();
+        assertThat(executions).hasValue(1);
+
+        jdbcTemplate.update("UPDATE action_outbox SET next_attempt_at = ? WHERE id = ?",
+                Timestamp.from(Instant.now().minusSeconds(1)), id);
+        node.poll();
+        node.shutdown();
+
+        row = row(id);
+        assertThat(executions).hasValue(2);
+        assertThat(row.get("status")).isEqualTo(ActionOutboxEntry.STATUS_FAILED);
+        assertThat(((Number) row.get("attempts")).intValue()).isEqualTo(2);
+    }
+
+    private AsyncActionExecutor node(DynamicAction action) {
+        AsyncActionExecutor node = new AsyncActionExecutor(properties, jdbcTemplate, new ActionRegistry(List.of(action)),
+                new ObjectMapper(), new PartitionOwnership(properties, null, new SimpleMeterRegistry()),
+                new SimpleMeterRegistry());
+        nodes.add(node);
+        return node;
+    }
+
+    private long insertDue(String actionName) {
+        Timestamp now = Timestamp.from(Instant.now().minusSeconds(1));
+        jdbcTemplate.update("INSERT INTO action_outbox (business_id, machine_id, action_name, params, source_state, "
+                        + "target_state, event, headers, status, attempts, next_attempt_at, created_at) "
+                        + "VALUES ('ORD-1', 'order_v1', ?, '{}', 'NEW', 'PAID', 'PAY', '{\"entityId\":\"ORD-1\"}', ?, 0, ?, ?)",
+                actionName, ActionOutboxEntry.STATUS_PENDING, now, now);
+        return jdbcTemplate.queryForObject("SELECT MAX(id) FROM action_outbox", Long.class);
+    }
+
+    private Map<String, Object> row(long id) {
+        return jdbcTemplate.queryForMap("SELECT * FROM action_outbox WHERE id = ?", id);
+    }
+
+    private int count() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM action_outbox", Integer.class);
+    }
+
+    private void awaitAttempts(long id, int attempts) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (row(id).get("last_error") == null || ((Number) row(id).get("attempts")).intValue() < attempts) {
+            assertThat(System.nanoTime()).as("attempt %d of outbox entry %d", attempts, id).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static DynamicAction action(String name, Consumer<StateContext<String, String>> body) {
+        return new DynamicAction() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void execute(StateContext<String, String> context, Map<String, Object> params) {
+                body.accept(context);
+            }
+        };
+    }
+}
@@ -0,0 +1,148 @@
+package com.flexflow.statemachine.service.persister.journal;
+
+import com.flexflow.statemachine.model.db.StatefulEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StateJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rebuildsIndexOnReopenAcrossSegments() {
+        try (StateJournal journal = open()) {
+            for (int i = 0; i < 100; i++) {
+                journal.append(entity("order-" + i, 0), "CREATED");
+            }
+            journal.append(entity("order-7", 1), "APPROVED");
+        }
+
+        try (StateJournal journal = open()) {
+            assertThat(journal.size()).isEqualTo(100);
+            assertThat(journal.get("order-7").state()).isEqualTo("APPROVED");
+            assertThat(journal.get("order-7").version()).isEqualTo(2);
+            assertThat(journal.get("order-99").state()).isEqualTo("CREATED");
+        }
+    }
+
+    @Test
+    void rejectsStaleVersions() {
+        try (StateJournal journal = open()) {
+            journal.append(entity("order-1", 0), "CREATED");
+
+            assertThatThrownBy(() -> journal.append(entity("order-1", 0), "APPROVED"))
+                    .isInstanceOf(ObjectOptimisticLockingFailureException.class);
+        }
+    }
+
+    @Test
+    void compactionKeepsLatestStates() throws IOException {
+        try (StateJournal journal = open()) {
+            for (int version = 0; version < 200; version++) {
+                journal.append(entity("order-1", version), "STATE_" + version);
+            }
+            journal.compact();
+        }
+
+        try (StateJournal journal = open()) {
+            assertThat(journal.get("order-1").state()).isEqualTo("STATE_199");
+        }
+        try (var files = Files.list(directory)) {
+            assertThat(files.count()).isLessThanOrEqualTo(2);
+        }
+    }
+
+    @Test
+    void compactsOnlySparseSegmentsIntoFreshSegments() throws IOException {
+        List<String> before;
+        try (StateJournal journal = open()) {
+            for (int i = 0; i < 200; i++) {
+                journal.append(entity("order-" + i, 0), "CREATED");
+            }
+            before = segmentFiles();
+            journal.compact();
+            assertThat(segmentFiles()).isEqualTo(before);
+
+            // Supersede most of the first segment; the second one stays fully live.
+            for (int i = 0; i < 50; i++) {
+                journal.append(entity("order-" + i, 1), "APPROVED");
+            }
+            journal.compact();
+        }
+
+        List<String> after = segmentFiles();
+        assertThat(after).doesNotContain(before.get(0)).contains(before.get(1));
+        assertThat(after.get(after.size() - 1)).isGreaterThan(before.get(before.size() - 1));
+        try (StateJournal journal = open()) {
+            assertThat(journal.size()).isEqualTo(200);
+            assertThat(journal.get("order-0").state()).isEqualTo("APPROVED");
+            assertThat(journal.get("order-60").state()).isEqualTo("CREATED");
+            assertThat(journal.get("order-199").state()).isEqualTo("CREATED");
+        }
+    }
+
+    @Test
+    void discardsTornRecordOnRecovery() throws IOException {
+        try (StateJournal journal = open()) {
+            journal.append(entity("order-1", 0), "CREATED");
+            journal.append(entity("order-2", 0), "CREATED");
+        }
+
+        // Flip a payload byte of the last record, as if the process died while writing it.
+        Path segment = directory.resolve("journal-00000001.log");
+        byte[] bytes = Files.readAllBytes(segment);
+        int position = 0;
+        int last = 0;
+        while (ByteBuffer.wrap(bytes, position, Integer.BYTES).getInt() != 0) {
+            last = position;
+            position += 2 * Integer.BYTES + ByteBuffer.wrap(bytes, position, Integer.BYTES).getInt();
+        }
+        bytes[last + 2 * Integer.BYTES + Long.BYTES] ^= 1;
+        Files.write(segment, bytes);
+
+        try (StateJournal journal = open()) {
+            assertThat(journal.get("order-1")).isNotNull();
+            assertThat(journal.get("order-2")).isNull();
+            journal.append(entity("order-3", 0), "CREATED");
+        }
+        try (StateJournal journal = open()) {
+            assertThat(journal.size()).isEqualTo(2);
+            assertThat(journal.get("order-3").state()).isEqualTo("CREATED");
+        }
+    }
+
+    private StateJournal open() {
+        return StateJournal.open(directory, SEGMENT_SIZE, Duration.ofMillis(1), true, Duration.ofHours(1), 0.5);
+    }
+
+    private List<String> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static StatefulEntity entity(String businessId, int version) {
+        StatefulEntity entity = new StatefulEntity();
+        entity.setId(1L);
+        entity.setBusinessId(businessId);
+        entity.setMachineId("order_lifecycle_v1");
+        entity.setCurrentState("INITIAL");
+        entity.setVersion(version);
+        return entity;
+    }
+}
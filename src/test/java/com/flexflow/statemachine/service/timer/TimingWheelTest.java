@@ -0,0 +1,46 @@
+package com.flexflow.statemachine.service.timer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTest {
+
+    private static final long START = 1_000_000;
+    private static final long TICK = 10;
+
+    @Test
+    void expiresItemsInDeadlineOrderWithinOneTick() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, 8, START);
+        // Deadlines on the first level, on overflow levels, and far enough out to cascade through several levels.
+        long[] deadlines = {START + 35, START + 75, START + 500, START + 12_345, START + 1_000_000};
+        for (long deadline : deadlines) {
+            assertThat(wheel.add(deadline, deadline)).isTrue();
+        }
+
+        List<Long> expired = new ArrayList<>();
+        for (long now = START; now <= START + 1_000_000 + TICK; now += 3) {
+            long time = now;
+            wheel.advance(now, deadline -> {
+                assertThat(time).isBetween(deadline - TICK, deadline + TICK);
+                expired.add(deadline);
+            });
+        }
+
+        assertThat(expired).containsExactly(START + 35, START + 75, START + 500, START + 12_345, START + 1_000_000);
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void rejectsItemsThatAreAlreadyDue() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 8, START);
+
+        assertThat(wheel.add(START - 1_000, "overdue")).isFalse();
+        assertThat(wheel.add(START + 1, "this tick")).isFalse();
+        assertThat(wheel.add(START + TICK, "next tick")).isTrue();
+        assertThat(wheel.size()).isEqualTo(1);
+    }
+}
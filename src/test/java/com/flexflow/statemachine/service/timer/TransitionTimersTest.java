@@ -0,0 +1,152 @@
+package com.flexflow.statemachine.service.timer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flexflow.statemachine.model.db.StatefulEntity;
+import com.flexflow.statemachine.model.json.StateMachineDefinitionJson;
+import com.flexflow.statemachine.service.core.StateMachineBuilderFactory;
+import com.flexflow.statemachine.service.engine.CompiledStateMachine;
+import com.flexflow.statemachine.service.engine.CompiledStateMachineEngine;
+import com.flexflow.statemachine.service.engine.StateMachineCompiler;
+import com.flexflow.statemachine.service.metrics.StateMachineMetrics;
+import com.flexflow.statemachine.service.registry.ActionRegistry;
+import com.flexflow.statemachine.service.registry.GuardRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TransitionTimersTest {
+
+    private static final String MACHINE_ID = "review_timers_v1";
+    private static final String BUSINESS_ID = "DOC-1";
+    private static final String DEFINITION = """
+            {
+              "machineId": "review_timers_v1",
+              "initialState": "DRAFT",
+              "states": ["DRAFT", "REVIEW", "LEGAL_PENDING", "LEGAL_DONE", "TECH_PENDING", "TECH_DONE", "ESCALATED"],
+              "compositeStates": [
+                {"name": "REVIEW", "regions": [
+                  {"name": "legal", "initialState": "LEGAL_PENDING", "states": ["LEGAL_PENDING", "LEGAL_DONE"]},
+                  {"name": "technical", "initialState": "TECH_PENDING", "states": ["TECH_PENDING", "TECH_DONE"]}
+                ]}
+              ],
+              "transitions": [
+                {"source": "DRAFT", "target": "REVIEW", "event": "SUBMIT"},
+                {"source": "LEGAL_PENDING", "target": "LEGAL_DONE", "event": "APPROVE_LEGAL"},
+                {"source": "LEGAL_DONE", "target": "LEGAL_PENDING", "event": "REOPEN_LEGAL"},
+                {"source": "TECH_PENDING", "target": "TECH_DONE", "event": "APPROVE_TECH"},
+                {"source": "TECH_PENDING", "target": "TECH_PENDING", "event": "REMIND_TECH", "after": "10m"},
+                {"source": "REVIEW", "target": "ESCALATED", "event": "ESCALATE", "after": "1h"}
+              ]
+            }
+            """;
+
+    private final CompiledStateMachineEngine engine = new CompiledStateMachineEngine();
+
+    private JdbcTemplate jdbcTemplate;
+    private CompiledStateMachine machine;
+    private TransitionTimers timers;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1"));
+        jdbcTemplate.execute("CREATE TABLE stateful_entities (business_id VARCHAR(255) NOT NULL, "
+                + "due_at TIMESTAMP(6) WITH TIME ZONE, due_event VARCHAR(255), state_entered_at VARCHAR(4000), "
+                + "timers_fired_until TIMESTAMP(6) WITH TIME ZONE)");
+
+        StateMachineCompiler compiler = new StateMachineCompiler(new GuardRegistry(List.of()), new ActionRegistry(List.of()),
+                new StateMachineMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP), null);
+        machine = compiler.compile(new ObjectMapper().readValue(DEFINITION, StateMachineDefinitionJson.class));
+        StateMachineBuilderFactory builderFactory = mock(StateMachineBuilderFactory.class);
+        when(builderFactory.getCompiledMachine(MACHINE_ID)).thenReturn(machine);
+        timers = new TransitionTimers(builderFactory, jdbcTemplate);
+    }
+
+    @Test
+    void compositeTimerCountsFromEntryIntoItsStateAcrossInnerTransitions() throws InterruptedException {
+        StatefulEntity entity = entity("DRAFT");
+        timers.initialize(entity);
+        assertThat(entity.getDueAt()).isNull();
+        jdbcTemplate.update("INSERT INTO stateful_entities (business_id) VALUES (?)", BUSINESS_ID);
+
+        String state = fire(entity, "SUBMIT");
+        assertThat(dueEvent()).isEqualTo("REMIND_TECH");
+        Instant enteredReview = dueAt().minus(Duration.ofMinutes(10));
+
+        // Changes in the other region neither restart the composite state's timer nor the region's own timer.
+        Thread.sleep(5);
+        state = fire(entity, "APPROVE_LEGAL");
+        assertThat(state).isEqualTo("LEGAL_DONE,TECH_PENDING");
+        assertThat(dueEvent()).isEqualTo("REMIND_TECH");
+        assertThat(dueAt()).isEqualTo(enteredReview.plus(Duration.ofMinutes(10)));
+
+        Thread.sleep(5);
+        fire(entity, "APPROVE_TECH");
+        assertThat(dueEvent()).isEqualTo("ESCALATE");
+        assertThat(dueAt()).isEqualTo(enteredReview.plus(Duration.ofHours(1)));
+
+        Thread.sleep(5);
+        fire(entity, "REOPEN_LEGAL");
+        assertThat(dueAt()).isEqualTo(enteredReview.plus(Duration.ofHours(1)));
+
+        // A composite timer that fired without leaving its state is not scheduled again by later inner transitions.
+        timers.timerFired(MACHINE_ID, BUSINESS_ID, entity.getCurrentState(), false, "ESCALATE", dueAt());
+        assertThat(dueEvent()).isNull();
+        fire(entity, "APPROVE_LEGAL");
+        assertThat(dueEvent()).isNull();
+    }
+
+    @Test
+    void regionTimerThatFiredGivesWayToTheCompositeTimer() {
+        StatefulEntity entity = entity("DRAFT");
+        jdbcTemplate.update("INSERT INTO stateful_entities (business_id) VALUES (?)", BUSINESS_ID);
+        fire(entity, "SUBMIT");
+        Instant remindAt = dueAt();
+
+        timers.timerFired(MACHINE_ID, BUSINESS_ID, entity.getCurrentState(), false, "REMIND_TECH", remindAt);
+
+        assertThat(dueEvent()).isEqualTo("ESCALATE");
+        assertThat(dueAt()).isEqualTo(remindAt.minus(Duration.ofMinutes(10)).plus(Duration.ofHours(1)));
+    }
+
+    private String fire(StatefulEntity entity, String event) {
+        String state = engine.fire(machine, BUSINESS_ID, entity.getCurrentState(), event, Map.of());
+        assertThat(state).as("state after %s", event).isNotNull();
+        entity.setCurrentState(state);
+        timers.stateChanged(entity);
+        return state;
+    }
+
+    private Instant dueAt() {
+        Timestamp dueAt = jdbcTemplate.queryForObject("SELECT due_at FROM stateful_entities WHERE business_id = ?",
+                Timestamp.class, BUSINESS_ID);
+        return dueAt != null ? dueAt.toInstant() : null;
+    }
+
+    private String dueEvent() {
+        return jdbcTemplate.queryForObject("SELECT due_event FROM stateful_entities WHERE business_id = ?",
+                String.class, BUSINESS_ID);
+    }
+
+    private static StatefulEntity entity(String state) {
+        StatefulEntity entity = new StatefulEntity();
+        entity.setBusinessId(BUSINESS_ID);
+        entity.setMachineId(MACHINE_ID);
+        entity.setCurrentState(state);
+        return entity;
+    }
+}